@@ -1,57 +1,215 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Clase que representa una Agenda de contactos.
- * Lee y escribe contactos desde un fichero de acceso aleatorio.
+ * Los contactos se guardan en un fichero de registros de ancho fijo que se mantiene abierto y
+ * proyectado en memoria (AlmacenContactos), y cada contacto se lee del fichero cuando se pide: en
+ * memoria no se guarda ningún contacto, y de qué páginas del fichero se quedan en memoria se ocupa
+ * el sistema operativo. Abrir la agenda no lee el fichero, así tarda lo mismo sea cual sea su tamaño;
+ * el índice por id se construye leyendo solo los ids en la primera búsqueda o cambio.
+ * El orden por nombre lo da un índice secundario (IndiceNombres) que se guarda en un fichero aparte,
+ * así listar la agenda ordenada es recorrer el índice, sin ordenar ni reescribir los contactos.
+ * Mientras no haya cambios, mostrarAgenda recorre el índice guardado directamente del fichero, sin
+ * cargarlo; solo se carga (o se rehace, si no corresponde a los datos) cuando hace falta mantenerlo.
+ * Las búsquedas por texto del nombre usan un índice de trigramas que se construye en la primera búsqueda.
+ * Los huecos de los contactos borrados se reutilizan en las altas, y cuando hay más huecos borrados
+ * que contactos la agenda se compacta sola para que el fichero no crezca sin límite.
+ * Cada cambio se anota antes en un diario (DiarioAgenda) y no termina hasta que la anotación está
+ * en disco; los cambios que se hacen a la vez comparten esa escritura. Al abrir la agenda se aplican
+ * las anotaciones que haya, así una caída no deja registros a medias, y el diario se vacía cada vez
+ * que los datos se llevan a disco: al guardar el orden, al compactar, al cerrar y cuando pasa de
+ * LIMITE_DIARIO bytes. Cerrar la agenda además recorta el fichero de contactos.
+ * <p>
+ * Lo que no depende del tamaño de la agenda es abrirla y listarla mientras no cambie. Los índices
+ * se construyen enteros en el heap la primera vez que hacen falta, leyendo todo el fichero, y después
+ * crecen con ella: con nombres como los de GeneradorDatos, unos 30 bytes por contacto el índice por id
+ * (la primera búsqueda o cambio), unos 130 el de nombres (al guardar el orden o listar la agenda
+ * con cambios) y unos 100 el de trigramas (la primera búsqueda por texto).
+ * <p>
+ * Se puede usar desde varios hilos. El almacén y los índices se publican juntos en un Estado:
+ * las consultas toman el estado actual y leen sin bloqueos. Las altas, modificaciones y bajas se
+ * hacen a la vez entre sí, cada una con el bloqueo del hueco que toca; compactar, guardar el orden,
+ * construir el índice de trigramas y cerrar esperan a que no haya ninguna en curso y las detienen
+ * mientras tanto. Compactar publica un estado nuevo, y las consultas que ya estaban en marcha
+ * terminan con el anterior.
+ * <p>
+ * En las métricas (Metricas) cuenta las búsquedas y los errores y guarda la latencia de las altas,
+ * modificaciones y bajas que terminan bien y de una de cada MUESTREO_BUSQUEDAS búsquedas.
  */
-public class Agenda {
+public class Agenda implements Closeable {
 
     /** Nombre del fichero donde se guardan los contactos */
     private static final String NOMBRE_FICHERO = "agenda.dat";
 
-    /** Lista de contactos en memoria */
-    private List<Contacto> contactos;
+    /** Nombre del fichero donde se guarda el índice por nombre */
+    private static final String NOMBRE_INDICE = "agenda.idx";
+
+    /** Huecos borrados a partir de los cuales se compacta el fichero, si además superan a los contactos */
+    private static final int MINIMO_LIBRES_COMPACTAR = 1024;
+
+    /** Nombre del diario de cambios */
+    private static final String NOMBRE_DIARIO = "agenda.wal";
+
+    /** Tamaño del diario a partir del cual se llevan los datos a disco y se vacía */
+    private static final long LIMITE_DIARIO = 8L << 20;
+
+    /** Registros que se leen o escriben de una vez al importar o exportar registros */
+    private static final int REGISTROS_POR_LOTE = 4096;
+
+    /** Coincidencias que muestra como máximo mostrarCoincidencias */
+    private static final int LIMITE_COINCIDENCIAS = 50;
+
+    /** Contactos que mostrarAgenda prepara y escribe de una vez */
+    private static final int CONTACTOS_POR_PAGINA = 256;
+
+    /** Se mide la latencia de una de cada tantas búsquedas, que duran poco más que leer el reloj */
+    private static final int MUESTREO_BUSQUEDAS = 64;
+
+    private static final LongAdder BUSQUEDAS = Metricas.contador("agenda.busquedas");
+    private static final LongAdder ERRORES = Metricas.contador("agenda.errores");
+    private static final HistogramaLatencias TIEMPO_BUSQUEDA = Metricas.histograma("agenda.buscar");
+    private static final HistogramaLatencias TIEMPO_ALTA = Metricas.histograma("agenda.alta");
+    private static final HistogramaLatencias TIEMPO_MODIFICACION = Metricas.histograma("agenda.modificar");
+    private static final HistogramaLatencias TIEMPO_BAJA = Metricas.histograma("agenda.borrar");
 
     /**
-     * Constructor de Agenda.
-     * Carga los contactos del fichero si existen.
+     * Almacén e índices que se corresponden entre sí. Los índices se construyen la primera vez que
+     * hacen falta, con los cambios detenidos, y desde entonces se mantienen; al compactar se sustituye
+     * el estado entero.
      */
-    public Agenda() {
-        contactos = new ArrayList<>();
+    private static final class Estado {
+        /** Registros de contactos proyectados en memoria */
+        final AlmacenContactos almacen;
+        /** Diario de cambios, el mismo en todos los estados */
+        final DiarioAgenda diario;
+        /** Índice primario: id de contacto -> hueco del fichero, null hasta la primera búsqueda o cambio */
+        volatile IndicePrimario ids;
+        /** Índice secundario: huecos en orden de nombre, null hasta que hace falta mantenerlo */
+        volatile IndiceNombres nombres;
+        /** Índice de trigramas de los nombres, null hasta la primera búsqueda por texto */
+        volatile IndiceTrigramas trigramas;
 
-        try (RandomAccessFile raf = new RandomAccessFile(NOMBRE_FICHERO, "rw")) {
-            long total = raf.length() / Contacto.SIZE_REGISTRO;
+        Estado(AlmacenContactos almacen, DiarioAgenda diario, IndicePrimario ids, IndiceNombres nombres,
+               IndiceTrigramas trigramas) {
+            this.almacen = almacen;
+            this.diario = diario;
+            this.ids = ids;
+            this.nombres = nombres;
+            this.trigramas = trigramas;
+        }
+    }
 
-            // Leemos todos los contactos uno por uno
-            for (int i = 0; i < total; i++) {
-                Contacto c = Contacto.leerContacto(raf, i);
-                if (c.getId() != -1) { // Solo guardamos los que no están borrados
-                    contactos.add(c);
-                }
+    /** Estado actual, null si la agenda no está abierta */
+    private volatile Estado estado;
+
+    /** Lectura: altas, modificaciones y bajas, a la vez entre sí. Escritura: cambios de toda la agenda */
+    private final ReentrantReadWriteLock escritores = new ReentrantReadWriteLock();
+
+    /** Indica si ha habido cambios desde que se abrió: entonces el índice por nombre guardado ya no vale */
+    private volatile boolean modificada;
+
+    /** Rutas de los ficheros de contactos, del índice por nombre y del diario */
+    private final Path ficheroDatos;
+    private final Path ficheroIndice;
+    private final Path ficheroDiario;
+
+    /**
+     * Constructor de Agenda con los ficheros en el directorio de trabajo.
+     * Aplica el diario de cambios y abre el fichero de contactos, sin leerlo: los índices se
+     * construyen cuando hacen falta.
+     */
+    public Agenda() {
+        this(Path.of(""));
+    }
+
+    /**
+     * Constructor de Agenda con los ficheros en otro directorio, por ejemplo para pruebas.
+     * @param directorio Directorio de agenda.dat, agenda.idx y agenda.wal.
+     */
+    Agenda(Path directorio) {
+        ficheroDatos = directorio.resolve(NOMBRE_FICHERO);
+        ficheroIndice = directorio.resolve(NOMBRE_INDICE);
+        ficheroDiario = directorio.resolve(NOMBRE_DIARIO);
+        try {
+            if (DiarioAgenda.recuperar(ficheroDiario, ficheroDatos) > 0) {
+                System.out.println("Se han recuperado los últimos cambios de la agenda.");
             }
+            DiarioAgenda diario = new DiarioAgenda(ficheroDiario);
+            AlmacenContactos almacen = new AlmacenContactos(ficheroDatos);
+            estado = new Estado(almacen, diario, null, null, null);
         } catch (IOException e) {
+            ERRORES.increment();
             System.out.println("Error al leer la agenda: " + e.getMessage());
         }
     }
 
     /**
-     * Crea un nuevo contacto en la agenda y lo guarda al final del fichero.
+     * Crea un nuevo contacto en la agenda y lo guarda en un hueco borrado o al final del fichero.
      * @param contacto Contacto nuevo a añadir.
      */
     public void creaContacto(Contacto contacto) {
-        if (!contactos.contains(contacto)) {
-            contactos.add(contacto);
-            try (RandomAccessFile raf = new RandomAccessFile(NOMBRE_FICHERO, "rw")) {
-                raf.seek(raf.length()); // Vamos al final del fichero
-                Contacto.escribirContacto(raf, contacto);
-            } catch (IOException e) {
-                System.out.println("Error al guardar el contacto: " + e.getMessage());
+        if (contacto.getId() == CodecContacto.ID_BORRADO) {
+            System.out.println("El id -1 está reservado para los contactos borrados.");
+            return;
+        }
+        long inicio = System.nanoTime();
+        prepararIds();
+        escritores.readLock().lock();
+        try {
+            Estado e = estado();
+            modificada = true;
+            if (e.ids.contiene(contacto.getId())) {
+                System.out.println("El contacto ya existe.");
+                return;
             }
-        } else {
-            System.out.println("El contacto ya existe.");
+            int hueco = e.almacen.reservarHueco();
+            e.almacen.bloquear(hueco);
+            boolean publicado = false;
+            try {
+                e.diario.esperar(e.diario.anotar(hueco, contacto.getId(), contacto));
+                e.almacen.escribir(hueco, contacto);
+                // El contacto se publica en el índice ya escrito; si otro hilo ha dado de alta el mismo id, se deshace
+                if (!e.ids.ponerSiAusente(contacto.getId(), hueco)) {
+                    e.diario.esperar(e.diario.anotar(hueco, CodecContacto.ID_BORRADO, contacto));
+                    System.out.println("El contacto ya existe.");
+                    return;
+                }
+                publicado = true;
+                IndiceNombres nombres = e.nombres;
+                if (nombres != null) {
+                    nombres.añadir(contacto.getNombre(), hueco);
+                }
+                IndiceTrigramas trigramas = e.trigramas;
+                if (trigramas != null) {
+                    trigramas.añadir(contacto.getNombre(), hueco);
+                }
+            } finally {
+                if (!publicado) {
+                    // Alta fallida o repetida: el hueco reservado vuelve a quedar libre aunque no se haya escrito
+                    e.almacen.liberarHueco(hueco);
+                }
+                e.almacen.desbloquear(hueco);
+            }
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al guardar el contacto: " + e.getMessage());
+            return;
+        } finally {
+            escritores.readLock().unlock();
         }
+        TIEMPO_ALTA.registrar(System.nanoTime() - inicio);
+        vaciarDiarioSiHaceFalta();
     }
 
     /**
@@ -60,10 +218,29 @@ public class Agenda {
      * @return El contacto si existe, si no, null.
      */
     public Contacto buscarContacto(int id) {
-        for (Contacto c : contactos) {
-            if (c.getId() == id) {
-                return c;
+        BUSQUEDAS.increment();
+        if (ThreadLocalRandom.current().nextInt(MUESTREO_BUSQUEDAS) != 0) {
+            return buscar(id);
+        }
+        long inicio = System.nanoTime();
+        Contacto contacto = buscar(id);
+        TIEMPO_BUSQUEDA.registrar(System.nanoTime() - inicio);
+        return contacto;
+    }
+
+    private Contacto buscar(int id) {
+        prepararIds();
+        for (Estado e = estado; e != null; e = estado) {
+            int hueco = e.ids.obtener(id);
+            if (hueco == IndicePrimario.NO_ENCONTRADO) {
+                return null;
+            }
+            Contacto contacto = e.almacen.leer(hueco);
+            if (contacto.getId() == id) {
+                return contacto;
             }
+            // El contacto se ha borrado entre buscar el hueco y leerlo: se vuelve a buscar
+            Thread.onSpinWait();
         }
         return null;
     }
@@ -73,17 +250,51 @@ public class Agenda {
      * @param contacto Contacto modificado.
      */
     public void modificaContacto(Contacto contacto) {
-        int pos = contactos.indexOf(contacto);
-        if (pos != -1) {
-            contactos.set(pos, contacto);
-            try (RandomAccessFile raf = new RandomAccessFile(NOMBRE_FICHERO, "rw")) {
-                Contacto.escribirContacto(raf, contacto, pos);
-            } catch (IOException e) {
-                System.out.println("Error al modificar el contacto: " + e.getMessage());
+        long inicio = System.nanoTime();
+        prepararIds();
+        escritores.readLock().lock();
+        try {
+            Estado e = estado();
+            modificada = true;
+            int hueco;
+            while ((hueco = e.ids.obtener(contacto.getId())) != IndicePrimario.NO_ENCONTRADO) {
+                e.almacen.bloquear(hueco);
+                try {
+                    if (e.ids.obtener(contacto.getId()) != hueco) {
+                        continue; // Borrado o movido antes de tener el bloqueo
+                    }
+                    String nombreAnterior = e.almacen.leerBloqueado(hueco).getNombre();
+                    e.diario.esperar(e.diario.anotar(hueco, contacto.getId(), contacto));
+                    e.almacen.escribir(hueco, contacto); // Se escribe en su sitio dentro de la proyección
+                    if (!nombreAnterior.equals(contacto.getNombre())) {
+                        IndiceNombres nombres = e.nombres;
+                        if (nombres != null) {
+                            nombres.quitar(nombreAnterior, hueco);
+                            nombres.añadir(contacto.getNombre(), hueco);
+                        }
+                        IndiceTrigramas trigramas = e.trigramas;
+                        if (trigramas != null) {
+                            trigramas.añadir(contacto.getNombre(), hueco);
+                        }
+                    }
+                    break;
+                } finally {
+                    e.almacen.desbloquear(hueco);
+                }
             }
-        } else {
-            System.out.println("El contacto no existe.");
+            if (hueco == IndicePrimario.NO_ENCONTRADO) {
+                System.out.println("El contacto no existe.");
+                return;
+            }
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al modificar el contacto: " + e.getMessage());
+            return;
+        } finally {
+            escritores.readLock().unlock();
         }
+        TIEMPO_MODIFICACION.registrar(System.nanoTime() - inicio);
+        vaciarDiarioSiHaceFalta();
     }
 
     /**
@@ -91,49 +302,582 @@ public class Agenda {
      * @param contacto Contacto a borrar.
      */
     public void borrarContacto(Contacto contacto) {
-        int pos = contactos.indexOf(contacto);
-        if (pos != -1) {
-            contactos.remove(pos);
-            try (RandomAccessFile raf = new RandomAccessFile(NOMBRE_FICHERO, "rw")) {
-                contacto.setId(-1); // Marcamos como borrado
-                Contacto.escribirContacto(raf, contacto, pos);
-            } catch (IOException e) {
-                System.out.println("Error al borrar el contacto: " + e.getMessage());
+        long inicio = System.nanoTime();
+        prepararIds();
+        escritores.readLock().lock();
+        try {
+            Estado e = estado();
+            modificada = true;
+            int hueco;
+            while ((hueco = e.ids.obtener(contacto.getId())) != IndicePrimario.NO_ENCONTRADO) {
+                e.almacen.bloquear(hueco);
+                try {
+                    if (e.ids.obtener(contacto.getId()) != hueco) {
+                        continue; // Borrado o movido antes de tener el bloqueo
+                    }
+                    Contacto anterior = e.almacen.leerBloqueado(hueco);
+                    e.diario.esperar(e.diario.anotar(hueco, CodecContacto.ID_BORRADO, anterior));
+                    IndiceNombres nombres = e.nombres;
+                    if (nombres != null) {
+                        nombres.quitar(anterior.getNombre(), hueco);
+                    }
+                    IndiceTrigramas trigramas = e.trigramas;
+                    if (trigramas != null) {
+                        trigramas.quitar(hueco);
+                    }
+                    // Primero se quita del índice y después se libera el hueco, para que una alta no lo ocupe antes
+                    e.ids.quitar(contacto.getId());
+                    e.almacen.borrar(hueco); // Marcamos como borrado y el hueco queda libre
+                    break;
+                } finally {
+                    e.almacen.desbloquear(hueco);
+                }
+            }
+            if (hueco == IndicePrimario.NO_ENCONTRADO) {
+                System.out.println("Contacto no encontrado.");
+                return;
             }
-        } else {
-            System.out.println("Contacto no encontrado.");
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al borrar el contacto: " + e.getMessage());
+            return;
+        } finally {
+            escritores.readLock().unlock();
         }
+        TIEMPO_BAJA.registrar(System.nanoTime() - inicio);
+        compactarSiHaceFalta();
+        vaciarDiarioSiHaceFalta();
     }
 
     /**
-     * Ordena la agenda por nombre y guarda toda la lista en el fichero.
+     * Guarda en disco la agenda ordenada por nombre.
+     * El orden ya lo mantiene el índice por nombre en cada cambio: basta con escribir los contactos
+     * pendientes y guardar el índice, sin ordenar ni reescribir el fichero de contactos.
      */
     public void ordenarAgenda() {
-        Collections.sort(contactos); // Se necesita que Contacto implemente Comparable
-        try (RandomAccessFile raf = new RandomAccessFile(NOMBRE_FICHERO, "rw")) {
-            for (int i = 0; i < contactos.size(); i++) {
-                Contacto.escribirContacto(raf, contactos.get(i), i);
-            }
+        escritores.writeLock().lock();
+        try {
+            Estado e = estado();
+            vaciarDiario(e);
+            nombres(e).guardar(ficheroIndice, ficheroDatos);
         } catch (IOException e) {
+            ERRORES.increment();
             System.out.println("Error al ordenar y guardar la agenda: " + e.getMessage());
+        } finally {
+            escritores.writeLock().unlock();
         }
     }
 
     /**
-     * Muestra todos los contactos de la agenda.
+     * Quita del fichero los huecos borrados: los contactos se copian seguidos, en el mismo orden,
+     * a un fichero nuevo que sustituye al anterior, y los índices se rehacen con los huecos nuevos.
+     */
+    public void compactar() {
+        escritores.writeLock().lock();
+        try {
+            compactar(estado());
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al compactar la agenda: " + e.getMessage());
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Muestra todos los contactos de la agenda ordenados por nombre, recorriendo el índice por nombre.
+     * Los contactos se leen del fichero y se escriben por páginas de CONTACTOS_POR_PAGINA. Sin cambios
+     * desde que se guardó el orden, el índice se lee del fichero y la memoria no depende del tamaño de
+     * la agenda; si no, se carga o se rehace el índice por nombre en el heap.
      */
     public void mostrarAgenda() {
-        contactos.forEach(System.out::println);
+        try {
+            Estado e = estado();
+            Iterator<Integer> huecos = null;
+            if (e.nombres == null && !modificada) {
+                huecos = IndiceNombres.recorrer(ficheroIndice, ficheroDatos);
+            }
+            if (huecos == null) {
+                e = conNombres();
+                huecos = e.nombres.iterator();
+            }
+            StringBuilder pagina = new StringBuilder();
+            int enPagina = 0;
+            while (huecos.hasNext()) {
+                Contacto contacto = e.almacen.leer(huecos.next());
+                if (contacto.getId() != CodecContacto.ID_BORRADO) { // Borrado mientras se recorre
+                    pagina.append(contacto).append(System.lineSeparator());
+                    if (++enPagina == CONTACTOS_POR_PAGINA) {
+                        System.out.print(pagina);
+                        pagina.setLength(0);
+                        enPagina = 0;
+                    }
+                }
+            }
+            System.out.print(pagina);
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al mostrar la agenda: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Busca los contactos cuyo nombre contenga el texto indicado, sin distinguir mayúsculas ni acentos.
+     * Solo se leen del fichero los contactos que se devuelven.
+     * @param nombre Texto a buscar en los nombres.
+     * @param limite Número máximo de contactos a devolver.
+     * @return Los contactos encontrados, en orden de hueco.
+     */
+    public List<Contacto> buscarCoincidencias(String nombre, int limite) {
+        List<Contacto> encontrados = new ArrayList<>();
+        Estado e = estado;
+        if (e == null) {
+            return encontrados;
+        }
+        IndiceTrigramas trigramas = e.trigramas;
+        if (trigramas == null) {
+            trigramas = construirTrigramas();
+            if (trigramas == null) {
+                return encontrados;
+            }
+            e = estado; // El del índice construido
+        }
+        for (Iterator<Integer> it = trigramas.buscar(nombre); it.hasNext() && encontrados.size() < limite; ) {
+            Contacto contacto = e.almacen.leer(it.next());
+            if (contacto.getId() != CodecContacto.ID_BORRADO) { // Borrado durante la búsqueda
+                encontrados.add(contacto);
+            }
+        }
+        return encontrados;
     }
 
     /**
-     * Muestra los contactos cuyo nombre contenga el texto indicado.
+     * Muestra los contactos cuyo nombre contenga el texto indicado, hasta LIMITE_COINCIDENCIAS.
      * @param nombre Texto a buscar en los nombres.
      */
     public void mostrarCoincidencias(String nombre) {
-        contactos.stream()
-                .filter(c -> c.getNombre().toLowerCase().contains(nombre.toLowerCase()))
-                .forEach(System.out::println);
+        List<Contacto> encontrados = buscarCoincidencias(nombre, LIMITE_COINCIDENCIAS + 1);
+        encontrados.stream().limit(LIMITE_COINCIDENCIAS).forEach(System.out::println);
+        if (encontrados.size() > LIMITE_COINCIDENCIAS) {
+            System.out.println("Hay más coincidencias: escribe más texto para afinar la búsqueda.");
+        }
+    }
+
+    /**
+     * Importa contactos de un fichero CSV (ver CsvContactos). Los bloques del fichero se analizan
+     * en varios hilos y cada lote se escribe seguido al final del fichero de contactos, con una sola
+     * espera al diario por lote. Los contactos cuyo id ya está en la agenda, o antes en el fichero,
+     * se descartan como duplicados.
+     * @param fichero  Ruta del fichero CSV.
+     * @param progreso Contadores de la importación, que se pueden consultar mientras dura.
+     */
+    public void importarCsv(Path fichero, ProgresoTransferencia progreso) {
+        try {
+            estado();
+            prepararIds();
+            CsvContactos.leer(fichero, Runtime.getRuntime().availableProcessors(), lote -> importar(lote, progreso));
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al importar los contactos: " + e.getMessage());
+        } finally {
+            progreso.terminar();
+        }
+    }
+
+    /**
+     * Importa contactos de un fichero de registros con el formato de agenda.dat, por ejemplo uno
+     * creado con exportarRegistros. Se descartan los registros borrados y los duplicados.
+     * @param fichero  Ruta del fichero de registros.
+     * @param progreso Contadores de la importación, que se pueden consultar mientras dura.
+     */
+    public void importarRegistros(Path fichero, ProgresoTransferencia progreso) {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            estado();
+            prepararIds();
+            ByteBuffer bloque = ByteBuffer.allocate(REGISTROS_POR_LOTE * CodecContacto.SIZE_REGISTRO);
+            for (long posicion = 0; ; posicion += bloque.limit()) {
+                bloque.clear();
+                int leidos;
+                do {
+                    leidos = canal.read(bloque, posicion + bloque.position());
+                } while (leidos > 0 && bloque.hasRemaining());
+                int registros = bloque.position() / CodecContacto.SIZE_REGISTRO;
+                if (registros == 0) {
+                    break;
+                }
+                bloque.limit(registros * CodecContacto.SIZE_REGISTRO);
+                LoteContactos lote = new LoteContactos(registros);
+                lote.bytes = bloque.limit();
+                for (int i = 0; i < registros; i++) {
+                    int inicio = i * CodecContacto.SIZE_REGISTRO;
+                    if (!CodecContacto.valido(bloque, inicio)) {
+                        lote.erroneos++;
+                    } else if (CodecContacto.leerId(bloque, inicio) != CodecContacto.ID_BORRADO) {
+                        lote.añadir(CodecContacto.decodificar(bloque, inicio));
+                    }
+                }
+                importar(lote, progreso);
+            }
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al importar los contactos: " + e.getMessage());
+        } finally {
+            progreso.terminar();
+        }
+    }
+
+    /**
+     * Exporta los contactos a un fichero CSV, en orden de hueco. Las líneas se preparan en memoria y
+     * se escriben por bloques. Los cambios que se hagan mientras tanto pueden salir o no; los huecos
+     * reservados por un alta que aún no ha terminado no salen.
+     * @param fichero  Ruta del fichero CSV, que se sustituye si existe.
+     * @param progreso Contadores de la exportación, que se pueden consultar mientras dura.
+     */
+    public void exportarCsv(Path fichero, ProgresoTransferencia progreso) {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            prepararIds();
+            Estado e = estado();
+            CharArrayWriter lineas = new CharArrayWriter(CsvContactos.TAMAÑO_BLOQUE);
+            lineas.write(CsvContactos.CABECERA + "\n");
+            long exportados = 0;
+            for (int hueco = 0; hueco < e.almacen.numeroHuecos(); hueco++) {
+                if (vivo(e.almacen, e.ids, hueco)) {
+                    CsvContactos.escribir(e.almacen.leer(hueco), lineas);
+                    exportados++;
+                }
+                if (lineas.size() >= CsvContactos.TAMAÑO_BLOQUE) {
+                    volcar(lineas, canal, progreso);
+                    progreso.sumarRegistros(exportados);
+                    exportados = 0;
+                }
+            }
+            volcar(lineas, canal, progreso);
+            progreso.sumarRegistros(exportados);
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al exportar los contactos: " + e.getMessage());
+        } finally {
+            progreso.terminar();
+        }
+    }
+
+    /**
+     * Exporta los contactos a un fichero de registros con el formato de agenda.dat, seguidos y
+     * sin huecos borrados ni reservados por altas sin terminar, escribiendo REGISTROS_POR_LOTE
+     * registros de una vez.
+     * @param fichero  Ruta del fichero de registros, que se sustituye si existe.
+     * @param progreso Contadores de la exportación, que se pueden consultar mientras dura.
+     */
+    public void exportarRegistros(Path fichero, ProgresoTransferencia progreso) {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            prepararIds();
+            Estado e = estado();
+            List<Contacto> lote = new ArrayList<>(REGISTROS_POR_LOTE);
+            long escritos = 0;
+            for (int hueco = 0; hueco <= e.almacen.numeroHuecos(); hueco++) {
+                if (hueco < e.almacen.numeroHuecos() && vivo(e.almacen, e.ids, hueco)) {
+                    lote.add(e.almacen.leer(hueco));
+                }
+                if (lote.size() == REGISTROS_POR_LOTE || hueco == e.almacen.numeroHuecos() && !lote.isEmpty()) {
+                    CodecContacto.escribir(canal, escritos, lote);
+                    escritos += lote.size();
+                    progreso.sumarRegistros(lote.size());
+                    progreso.sumarBytes((long) lote.size() * CodecContacto.SIZE_REGISTRO);
+                    lote.clear();
+                }
+            }
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al exportar los contactos: " + e.getMessage());
+        } finally {
+            progreso.terminar();
+        }
+    }
+
+    /**
+     * Cierra el fichero de contactos guardando los cambios y el índice por nombre.
+     * Espera a que terminen las altas, modificaciones y bajas en curso.
+     */
+    @Override
+    public void close() {
+        escritores.writeLock().lock();
+        try {
+            Estado e = estado;
+            if (e != null) {
+                estado = null;
+                try {
+                    e.almacen.close();
+                    e.diario.vaciar(); // Cerrar el almacén ha llevado los datos a disco
+                    e.diario.close();
+                    // Después de cerrar, para guardar el tamaño y la fecha definitivos del fichero de contactos
+                    if (e.nombres != null) {
+                        e.nombres.guardar(ficheroIndice, ficheroDatos);
+                    } else if (modificada) {
+                        Files.deleteIfExists(ficheroIndice); // Ya no corresponde a los datos
+                    }
+                } catch (IOException ex) {
+                    ERRORES.increment();
+                    System.out.println("Error al cerrar la agenda: " + ex.getMessage());
+                }
+            }
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    // Compacta si hay más huecos borrados que contactos; la comprobación se repite con el bloqueo
+    private void compactarSiHaceFalta() {
+        Estado e = estado;
+        if (e == null || !muchosLibres(e)) {
+            return;
+        }
+        escritores.writeLock().lock();
+        try {
+            e = estado;
+            if (e != null && muchosLibres(e)) {
+                compactar(e);
+            }
+        } catch (IOException ex) {
+            ERRORES.increment();
+            System.out.println("Error al compactar la agenda: " + ex.getMessage());
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    private static boolean muchosLibres(Estado e) {
+        int libres = e.almacen.numeroLibres();
+        return libres >= MINIMO_LIBRES_COMPACTAR && libres > e.ids.tamaño();
+    }
+
+    // Con el bloqueo de escritura: compacta el fichero y publica el almacén nuevo con sus índices
+    private void compactar(Estado e) throws IOException {
+        // Las anotaciones del diario usan los huecos de ahora: se aplican antes de cambiarlos
+        vaciarDiario(e);
+        e.almacen.prepararLibres(); // Los registros no válidos se dan por borrados y no se copian
+        modificada = true;
+        int[] nuevos = new int[e.almacen.numeroHuecos()];
+        AlmacenContactos almacen = e.almacen.compactar(nuevos);
+        IndiceNombres nombres = e.nombres;
+        IndiceTrigramas trigramas = e.trigramas;
+        estado = new Estado(almacen, e.diario, indexar(almacen), nombres != null ? nombres.remapear(nuevos) : null,
+                trigramas != null ? trigramas.remapear(nuevos) : null);
+        e.almacen.abandonar();
+    }
+
+    // Escribe un lote importado: descarta los duplicados, reserva huecos seguidos al final, anota el lote
+    // en el diario con una sola espera, lo copia a la proyección y después lo publica en los índices
+    private void importar(LoteContactos lote, ProgresoTransferencia progreso) throws IOException {
+        progreso.sumarBytes(lote.bytes);
+        progreso.sumarErroneos(lote.erroneos);
+        escritores.readLock().lock();
+        try {
+            Estado e = estado();
+            modificada = true;
+            IndicePrimario enLote = new IndicePrimario(lote.tamaño());
+            List<Contacto> nuevos = new ArrayList<>(lote.tamaño());
+            List<byte[]> claves = new ArrayList<>(lote.tamaño());
+            for (int i = 0; i < lote.tamaño(); i++) {
+                Contacto contacto = lote.contactos.get(i);
+                if (!e.ids.contiene(contacto.getId()) && enLote.ponerSiAusente(contacto.getId(), 0)) {
+                    nuevos.add(contacto);
+                    claves.add(lote.claves.get(i));
+                }
+            }
+            progreso.sumarDuplicados(lote.tamaño() - nuevos.size());
+            if (nuevos.isEmpty()) {
+                return;
+            }
+            int primero = e.almacen.reservarHuecos(nuevos.size());
+            long anotacion = 0;
+            for (int i = 0; i < nuevos.size(); i++) {
+                anotacion = e.diario.anotar(primero + i, nuevos.get(i).getId(), nuevos.get(i));
+            }
+            try {
+                e.diario.esperar(anotacion);
+            } catch (IOException ex) {
+                // Los huecos reservados se quedarían a ceros: se borran, nadie más los usa todavía
+                for (int i = 0; i < nuevos.size(); i++) {
+                    e.almacen.borrar(primero + i);
+                }
+                throw ex;
+            }
+            e.almacen.escribirSeguidos(primero, nuevos);
+            IndiceNombres nombres = e.nombres;
+            IndiceTrigramas trigramas = e.trigramas;
+            long importados = 0;
+            for (int i = 0; i < nuevos.size(); i++) {
+                Contacto contacto = nuevos.get(i);
+                int hueco = primero + i;
+                if (e.ids.ponerSiAusente(contacto.getId(), hueco)) {
+                    if (nombres != null) {
+                        nombres.añadir(claves.get(i), hueco);
+                    }
+                    if (trigramas != null) {
+                        trigramas.añadir(contacto.getNombre(), hueco);
+                    }
+                    importados++;
+                } else { // Dado de alta por otro hilo mientras tanto
+                    e.almacen.bloquear(hueco);
+                    try {
+                        e.diario.esperar(e.diario.anotar(hueco, CodecContacto.ID_BORRADO, contacto));
+                        e.almacen.borrar(hueco);
+                    } finally {
+                        e.almacen.desbloquear(hueco);
+                    }
+                    progreso.sumarDuplicados(1);
+                }
+            }
+            progreso.sumarRegistros(importados);
+        } finally {
+            escritores.readLock().unlock();
+        }
+        vaciarDiarioSiHaceFalta();
+    }
+
+    private static void volcar(CharArrayWriter lineas, FileChannel canal, ProgresoTransferencia progreso) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(lineas.toCharArray()));
+        progreso.sumarBytes(bytes.remaining());
+        while (bytes.hasRemaining()) {
+            canal.write(bytes);
+        }
+        lineas.reset();
+    }
+
+    // Lleva los datos a disco y vacía el diario si ha pasado del límite; la comprobación se repite con el bloqueo
+    private void vaciarDiarioSiHaceFalta() {
+        Estado e = estado;
+        if (e == null || e.diario.tamaño() < LIMITE_DIARIO) {
+            return;
+        }
+        escritores.writeLock().lock();
+        try {
+            e = estado;
+            if (e != null && e.diario.tamaño() >= LIMITE_DIARIO) {
+                vaciarDiario(e);
+            }
+        } catch (IOException ex) {
+            ERRORES.increment();
+            System.out.println("Error al vaciar el diario de la agenda: " + ex.getMessage());
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    // Con el bloqueo de escritura: lleva los datos a disco, y con ellos lo anotado en el diario, y lo vacía
+    private static void vaciarDiario(Estado e) throws IOException {
+        e.almacen.forzar();
+        e.diario.vaciar();
+    }
+
+    // Construye el índice de trigramas con las altas detenidas, si otro hilo no lo ha hecho ya
+    private IndiceTrigramas construirTrigramas() {
+        escritores.writeLock().lock();
+        try {
+            Estado e = estado;
+            if (e == null) {
+                return null;
+            }
+            if (e.trigramas == null) {
+                IndicePrimario ids = ids(e);
+                String[] nombres = new String[e.almacen.numeroHuecos()];
+                for (int hueco = 0; hueco < nombres.length; hueco++) {
+                    if (vivo(e.almacen, ids, hueco)) {
+                        nombres[hueco] = e.almacen.leer(hueco).getNombre();
+                    }
+                }
+                e.trigramas = new IndiceTrigramas(nombres);
+            }
+            return e.trigramas;
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    // Construye el índice por id si aún no está. Las altas, modificaciones y bajas lo llaman antes de
+    // tomar el bloqueo de lectura, que no se puede cambiar después por el de escritura
+    private void prepararIds() {
+        Estado e = estado;
+        if (e == null || e.ids != null) {
+            return;
+        }
+        escritores.writeLock().lock();
+        try {
+            e = estado;
+            if (e != null) {
+                ids(e);
+            }
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    // Con el bloqueo de escritura: el índice por id, que se construye la primera vez
+    private static IndicePrimario ids(Estado e) {
+        if (e.ids == null) {
+            e.ids = indexar(e.almacen);
+        }
+        return e.ids;
+    }
+
+    // Toma el estado con el índice por nombre, cargándolo del fichero o rehaciéndolo la primera vez
+    private Estado conNombres() throws IOException {
+        escritores.writeLock().lock();
+        try {
+            Estado e = estado();
+            nombres(e);
+            return e;
+        } finally {
+            escritores.writeLock().unlock();
+        }
+    }
+
+    // Con el bloqueo de escritura: el índice por nombre. El guardado solo se usa si no ha habido cambios
+    // y tiene tantas entradas como contactos; si no, se rehace leyendo los nombres
+    private IndiceNombres nombres(Estado e) throws IOException {
+        if (e.nombres == null) {
+            IndicePrimario ids = ids(e);
+            IndiceNombres nombres = modificada ? null : IndiceNombres.cargar(ficheroIndice, ficheroDatos);
+            if (nombres == null || nombres.tamaño() != ids.tamaño()) {
+                nombres = new IndiceNombres();
+                for (int hueco = 0; hueco < e.almacen.numeroHuecos(); hueco++) {
+                    if (vivo(e.almacen, ids, hueco)) {
+                        nombres.añadir(e.almacen.leer(hueco).getNombre(), hueco);
+                    }
+                }
+            }
+            e.nombres = nombres;
+        }
+        return e.nombres;
+    }
+
+    // Construye el índice por id leyendo solo los ids: los contactos se leen cuando se piden
+    private static IndicePrimario indexar(AlmacenContactos almacen) {
+        almacen.prepararLibres(); // Antes de leer los ids: los registros no válidos quedan como borrados
+        IndicePrimario ids = new IndicePrimario(almacen.numeroHuecos() - almacen.numeroLibres());
+        for (int i = 0; i < almacen.numeroHuecos(); i++) {
+            int id = almacen.leerId(i);
+            if (id != CodecContacto.ID_BORRADO) { // Solo indexamos los que no están borrados
+                ids.ponerSiAusente(id, i); // Un id repetido se ignora, como hacía buscarContacto
+            }
+        }
+        return ids;
+    }
+
+    // Indica si en el hueco hay un contacto no borrado y es el que tiene el índice para su id
+    private static boolean vivo(AlmacenContactos almacen, IndicePrimario ids, int hueco) {
+        int id = almacen.leerId(hueco);
+        return id != CodecContacto.ID_BORRADO && ids.obtener(id) == hueco;
+    }
+
+    private Estado estado() throws IOException {
+        Estado e = estado;
+        if (e == null) {
+            throw new IOException("La agenda no está abierta");
+        }
+        return e;
     }
 
     /**
@@ -152,7 +896,9 @@ public class Agenda {
                     3. Crear Contacto
                     4. Modificar Contacto
                     5. Buscar contacto por nombre
-                    6. Salir
+                    6. Importar contactos de CSV
+                    7. Exportar contactos a CSV
+                    8. Salir
                     Elige opción: """);
             opcion = sc.nextInt();
             sc.nextLine(); // Limpiar buffer
@@ -187,11 +933,23 @@ public class Agenda {
                     String texto = sc.nextLine();
                     agenda.mostrarCoincidencias(texto);
                 }
-                case 6 -> System.out.println("¡Hasta luego!");
+                case 6, 7 -> {
+                    System.out.print("Fichero CSV: ");
+                    Path fichero = Path.of(sc.nextLine().strip());
+                    ProgresoTransferencia progreso = new ProgresoTransferencia();
+                    if (opcion == 6) {
+                        agenda.importarCsv(fichero, progreso);
+                    } else {
+                        agenda.exportarCsv(fichero, progreso);
+                    }
+                    System.out.println(progreso);
+                }
+                case 8 -> System.out.println("¡Hasta luego!");
                 default -> System.out.println("Opción inválida.");
             }
-        } while (opcion != 6);
+        } while (opcion != 8);
 
+        agenda.close(); // Recorta el fichero y guarda los cambios
         sc.close();
     }
 }
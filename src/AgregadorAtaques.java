@@ -0,0 +1,175 @@
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Agregación de accesos SSH fallidos por host en una sola pasada.
+ * Para cada host lleva el total de fallos, los fallos de la ventana fija en curso
+ * (por minuto, por hora...) y los últimos fallos para detectar ráfagas en una ventana deslizante.
+ * La memoria depende solo del número de hosts distintos, no del número de líneas:
+ * las ventanas cerradas y las ráfagas se entregan a un Oyente en cuanto se producen.
+ * Espera los accesos en orden de fecha; uno atrasado cuenta en la ventana en curso de su host.
+ */
+class AgregadorAtaques implements ReceptorAccesos {
+
+    /**
+     * Recibe las ventanas cerradas y las ráfagas detectadas.
+     */
+    interface Oyente {
+        default void ventanaCerrada(String host, long inicioVentana, int fallos) {
+        }
+
+        default void rafaga(String host, long primerFallo, long ultimoFallo, int fallos) {
+        }
+    }
+
+    /**
+     * Estado acumulado de un host.
+     */
+    static class EstadoHost {
+        final String host;
+        long total;
+        long inicioVentana = Long.MIN_VALUE;
+        int fallosVentana;
+        int maximoVentana;
+        long rafagas;
+
+        // Últimos fallos en un buffer circular, para la ventana deslizante
+        private final long[] recientes;
+        private int siguiente;
+        private boolean enRafaga;
+
+        EstadoHost(String host, int umbralRafaga) {
+            this.host = host;
+            this.recientes = new long[umbralRafaga];
+        }
+    }
+
+    private final long segundosVentana;
+    private final int umbralRafaga;
+    private final long segundosRafaga;
+    private final Oyente oyente;
+    private final Map<String, EstadoHost> estados = new HashMap<>();
+
+    /**
+     * Constructor del agregador.
+     * @param segundosVentana Duración de la ventana fija (60 por minuto, 3600 por hora).
+     * @param umbralRafaga    Número de fallos que forman una ráfaga.
+     * @param segundosRafaga  Tiempo máximo en que deben producirse esos fallos.
+     * @param oyente          Destino de las ventanas cerradas y las ráfagas.
+     */
+    AgregadorAtaques(long segundosVentana, int umbralRafaga, long segundosRafaga, Oyente oyente) {
+        if (segundosVentana <= 0 || umbralRafaga <= 0 || segundosRafaga < 0) {
+            throw new IllegalArgumentException("Parámetros de ventana no válidos");
+        }
+        this.segundosVentana = segundosVentana;
+        this.umbralRafaga = umbralRafaga;
+        this.segundosRafaga = segundosRafaga;
+        this.oyente = oyente;
+    }
+
+    @Override
+    public void acceso(long segundoEpoch, String host) {
+        EstadoHost estado = estados.get(host);
+        if (estado == null) {
+            estado = new EstadoHost(host, umbralRafaga);
+            estados.put(host, estado);
+        }
+        estado.total++;
+
+        // Ventana fija
+        long inicio = Math.floorDiv(segundoEpoch, segundosVentana) * segundosVentana;
+        if (inicio > estado.inicioVentana) {
+            cerrarVentana(estado);
+            estado.inicioVentana = inicio;
+        }
+        estado.fallosVentana++;
+
+        // Ventana deslizante: tras avanzar, el hueco siguiente guarda el más antiguo de los últimos 'umbral' fallos
+        estado.recientes[estado.siguiente] = segundoEpoch;
+        estado.siguiente = (estado.siguiente + 1) % umbralRafaga;
+        long primero = estado.recientes[estado.siguiente];
+        if (estado.total >= umbralRafaga && segundoEpoch - primero <= segundosRafaga) {
+            if (!estado.enRafaga) {
+                estado.enRafaga = true;
+                estado.rafagas++;
+                oyente.rafaga(host, primero, segundoEpoch, umbralRafaga);
+            }
+        } else {
+            estado.enRafaga = false;
+        }
+    }
+
+    /**
+     * Cierra las ventanas abiertas de todos los hosts y las entrega al oyente.
+     */
+    void terminar() {
+        for (EstadoHost estado : estados.values()) {
+            cerrarVentana(estado);
+        }
+    }
+
+    /**
+     * @return Número de hosts distintos vistos.
+     */
+    int numeroHosts() {
+        return estados.size();
+    }
+
+    /**
+     * Calcula los k hosts con más fallos con un montículo de tamaño k.
+     * @param k Número de hosts a devolver.
+     * @return Los hosts de mayor a menor número de fallos.
+     */
+    List<EstadoHost> topK(int k) {
+        Comparator<EstadoHost> porTotal = Comparator.comparingLong((EstadoHost e) -> e.total)
+                .thenComparing(e -> e.host, Comparator.reverseOrder());
+        PriorityQueue<EstadoHost> monticulo = new PriorityQueue<>(Math.max(1, k), porTotal);
+        for (EstadoHost estado : estados.values()) {
+            if (monticulo.size() < k) {
+                monticulo.add(estado);
+            } else if (k > 0 && porTotal.compare(estado, monticulo.peek()) > 0) {
+                monticulo.poll();
+                monticulo.add(estado);
+            }
+        }
+        List<EstadoHost> resultado = new ArrayList<>(monticulo);
+        resultado.sort(porTotal.reversed());
+        return resultado;
+    }
+
+    /**
+     * Escribe el informe de los k hosts con más fallos.
+     * @param printWriter Destino del informe.
+     * @param k           Número de hosts a incluir.
+     */
+    void escribirInforme(PrintWriter printWriter, int k) {
+        printWriter.println("Host Fallos MaxPorVentana(" + segundosVentana + "s) Rafagas(" + umbralRafaga
+                + " en " + segundosRafaga + "s)");
+        for (EstadoHost estado : topK(k)) {
+            printWriter.println(estado.host + " " + estado.total + " "
+                    + Math.max(estado.maximoVentana, estado.fallosVentana) + " " + estado.rafagas);
+        }
+    }
+
+    /**
+     * Texto de una fecha en segundos epoch, para los informes.
+     */
+    static String fecha(long segundoEpoch) {
+        return LocalDateTime.ofEpochSecond(segundoEpoch, 0, ZoneOffset.UTC).toString();
+    }
+
+    private void cerrarVentana(EstadoHost estado) {
+        if (estado.fallosVentana > 0) {
+            estado.maximoVentana = Math.max(estado.maximoVentana, estado.fallosVentana);
+            oyente.ventanaCerrada(estado.host, estado.inicioVentana, estado.fallosVentana);
+            estado.fallosVentana = 0;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Almacén de registros de contactos sobre el fichero proyectado en memoria.
+ * El fichero se abre una vez y se proyecta entero con un MappedByteBuffer; los registros se leen
+ * directamente de la proyección cuando se piden y se escriben en su sitio, sin llamadas al sistema
+ * por operación. La proyección crece por extensiones (como mínimo EXTENSION_MINIMA registros, o la mitad
+ * de lo que ya hay), así añadir registros uno a uno no obliga a proyectar el fichero cada vez.
+ * El fichero se recorta a los registros ocupados al cerrar; si el programa termina sin cerrarlo, al
+ * abrirlo de nuevo se descartan los registros del final que no son válidos (ceros de la extensión).
+ * Abrir no recorre el fichero: solo mira el final, así tarda lo mismo sea cual sea su tamaño.
+ * Los registros borrados se reutilizan: la primera vez que hace falta (prepararLibres) se recorre el
+ * fichero y se apuntan en una lista de huecos libres (la marca de borrado del propio registro es lo
+ * que persiste), y las altas ocupan primero esos huecos. En ese recorrido un registro no válido en
+ * medio (reservado para un alta que no llegó a escribirse) se marca como borrado.
+ * compactar() escribe los registros vivos seguidos en un fichero nuevo que sustituye al anterior
+ * de forma atómica, así el tamaño del fichero vuelve a corresponder a los contactos que hay.
+ * La proyección está limitada a 2 GB, unos 30 millones de registros.
+ * <p>
+ * Se puede usar desde varios hilos. Los huecos se reparten entre NUMERO_BANDAS bandas, cada una con
+ * un cerrojo para quienes cambian el hueco (bloquear) y un StampedLock para la escritura en sí.
+ * Quien cambia un hueco lo tiene bloqueado durante todo el cambio, que puede incluir esperar al
+ * diario; las lecturas solo ven el StampedLock, que se toma el rato de copiar los bytes: son
+ * optimistas, sin bloquear, y solo se repiten con bloqueo si se ha cruzado esa copia.
+ * Todos los accesos a la proyección son absolutos, sin posición compartida.
+ * Reservar y liberar huecos se hace de uno en uno.
+ */
+class AlmacenContactos implements Closeable {
+
+    /** Registros que se añaden como mínimo cada vez que crece la proyección */
+    static final int EXTENSION_MINIMA = 16384;
+
+    /** Bandas de bloqueo entre las que se reparten los huecos (potencia de 2) */
+    static final int NUMERO_BANDAS = 64;
+
+    private static final int SIZE_REGISTRO = CodecContacto.SIZE_REGISTRO;
+
+    /** Registros que se copian de una vez al compactar */
+    private static final int REGISTROS_POR_ESCRITURA = 4096;
+
+    private final Path fichero;
+    private final FileChannel canal;
+    private final ReentrantLock[] cambios = new ReentrantLock[NUMERO_BANDAS];
+    private final StampedLock[] bandas = new StampedLock[NUMERO_BANDAS];
+    private volatile MappedByteBuffer mapa;
+
+    // Registros ocupados (vivos o borrados); los huecos desde aquí hasta la capacidad están sin usar
+    private volatile int huecos;
+
+    // Pila de huecos borrados que se pueden reutilizar, null hasta prepararLibres; arriba queda el de menor número
+    private int[] libres;
+    private int numeroLibres;
+
+    // Registros que había al abrir: los siguientes son altas de esta sesión y no hay que revisarlos
+    private final int huecosAlAbrir;
+
+    /**
+     * Abre el almacén, creando el fichero si no existe. Descarta el final no válido del fichero.
+     * @param fichero Ruta del fichero de registros.
+     * @throws IOException Si no se puede abrir o proyectar el fichero.
+     */
+    AlmacenContactos(Path fichero) throws IOException {
+        this.fichero = fichero;
+        for (int i = 0; i < NUMERO_BANDAS; i++) {
+            cambios[i] = new ReentrantLock();
+            bandas[i] = new StampedLock();
+        }
+        canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long tamaño = canal.size();
+        if (tamaño / SIZE_REGISTRO > Integer.MAX_VALUE / SIZE_REGISTRO) {
+            canal.close();
+            throw new IOException("Fichero demasiado grande para proyectarlo: " + tamaño + " bytes");
+        }
+        int registros = (int) (tamaño / SIZE_REGISTRO);
+        MappedByteBuffer proyeccion = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) registros * SIZE_REGISTRO);
+        while (registros > 0 && !CodecContacto.valido(proyeccion, posicion(registros - 1))) {
+            registros--;
+        }
+        mapa = proyeccion;
+        huecos = registros;
+        huecosAlAbrir = registros;
+    }
+
+    /**
+     * @return Número de registros ocupados, vivos o borrados. Los huecos válidos van de 0 a este número menos uno.
+     */
+    int numeroHuecos() {
+        return huecos;
+    }
+
+    /**
+     * @return Número de huecos borrados pendientes de reutilizar.
+     */
+    synchronized int numeroLibres() {
+        prepararLibres();
+        return numeroLibres;
+    }
+
+    /**
+     * Lee el id de un registro sin crear el contacto.
+     * @param hueco Número de registro.
+     * @return ID del contacto, o CodecContacto.ID_BORRADO si está borrado.
+     */
+    int leerId(int hueco) {
+        int posicion = posicion(comprobar(hueco));
+        StampedLock banda = banda(hueco);
+        long sello = banda.tryOptimisticRead();
+        int id = CodecContacto.leerId(mapa, posicion);
+        if (!banda.validate(sello)) {
+            sello = banda.readLock();
+            try {
+                id = CodecContacto.leerId(mapa, posicion);
+            } finally {
+                banda.unlockRead(sello);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Lee un registro de la proyección. Si una escritura de la misma banda se cruza con la lectura,
+     * se repite con el bloqueo de lectura, así nunca se devuelve un registro a medio escribir.
+     * Quien tiene el bloqueo del hueco puede usar leerBloqueado, que no necesita comprobar nada.
+     * @param hueco Número de registro.
+     * @return Contacto leído, con id CodecContacto.ID_BORRADO si está borrado.
+     */
+    Contacto leer(int hueco) {
+        int posicion = posicion(comprobar(hueco));
+        StampedLock banda = banda(hueco);
+        long sello = banda.tryOptimisticRead();
+        Contacto contacto = CodecContacto.decodificar(mapa, posicion);
+        if (!banda.validate(sello)) {
+            sello = banda.readLock();
+            try {
+                contacto = CodecContacto.decodificar(mapa, posicion);
+            } finally {
+                banda.unlockRead(sello);
+            }
+        }
+        return contacto;
+    }
+
+    /**
+     * Lee un registro teniendo ya el bloqueo de su hueco: nadie más puede estar escribiéndolo.
+     */
+    Contacto leerBloqueado(int hueco) {
+        return CodecContacto.decodificar(mapa, posicion(comprobar(hueco)));
+    }
+
+    /**
+     * Bloquea el hueco (su banda) para cambiarlo. Se suelta con desbloquear.
+     * Las lecturas del hueco no esperan a este bloqueo.
+     * @param hueco Número de registro.
+     */
+    void bloquear(int hueco) {
+        cambios[hueco & (NUMERO_BANDAS - 1)].lock();
+    }
+
+    void desbloquear(int hueco) {
+        cambios[hueco & (NUMERO_BANDAS - 1)].unlock();
+    }
+
+    /**
+     * Escribe un contacto en un registro ya ocupado o reservado. Hay que tener el bloqueo del hueco.
+     * @param hueco    Número de registro.
+     * @param contacto Contacto a escribir.
+     */
+    void escribir(int hueco, Contacto contacto) {
+        int posicion = posicion(comprobar(hueco));
+        StampedLock banda = banda(hueco);
+        long sello = banda.writeLock();
+        try {
+            CodecContacto.codificar(contacto, mapa, posicion);
+        } finally {
+            banda.unlockWrite(sello);
+        }
+    }
+
+    /**
+     * Marca un registro como borrado y deja su hueco libre para otra alta. Hay que tener el bloqueo del hueco.
+     * @param hueco Número de registro.
+     */
+    synchronized void borrar(int hueco) {
+        prepararLibres();
+        int posicion = posicion(comprobar(hueco));
+        if (CodecContacto.leerId(mapa, posicion) != CodecContacto.ID_BORRADO) {
+            StampedLock banda = banda(hueco);
+            long sello = banda.writeLock();
+            try {
+                mapa.putInt(posicion, CodecContacto.ID_BORRADO);
+            } finally {
+                banda.unlockWrite(sello);
+            }
+            apilarLibre(hueco);
+        }
+    }
+
+    /**
+     * Devuelve a la lista de libres un hueco reservado cuya alta no ha llegado a publicarse, se haya
+     * escrito el registro o no, y lo deja marcado como borrado. A diferencia de borrar no mira el id:
+     * un hueco reutilizado conserva la marca de borrado hasta que se escribe, y con borrar se perdería.
+     * Hay que tener el bloqueo del hueco, y llamarlo una sola vez por reserva.
+     * @param hueco Número de registro devuelto por reservarHueco.
+     */
+    synchronized void liberarHueco(int hueco) {
+        prepararLibres();
+        int posicion = posicion(comprobar(hueco));
+        StampedLock banda = banda(hueco);
+        long sello = banda.writeLock();
+        try {
+            mapa.putInt(posicion, CodecContacto.ID_BORRADO);
+        } finally {
+            banda.unlockWrite(sello);
+        }
+        apilarLibre(hueco);
+    }
+
+    /**
+     * Recorre los registros que había al abrir, marca como borrados los que no son válidos y apunta
+     * los huecos borrados en la lista de libres. Solo la primera llamada hace algo; se llama sola antes
+     * de reservar o borrar, y antes de recorrer los ids de todos los registros hay que llamarla.
+     */
+    synchronized void prepararLibres() {
+        if (libres != null) {
+            return;
+        }
+        libres = new int[16];
+        MappedByteBuffer proyeccion = mapa;
+        for (int i = huecosAlAbrir - 1; i >= 0; i--) {
+            int posicion = posicion(i);
+            if (!CodecContacto.valido(proyeccion, posicion)) {
+                StampedLock banda = banda(i);
+                long sello = banda.writeLock();
+                try {
+                    proyeccion.putInt(posicion, CodecContacto.ID_BORRADO);
+                } finally {
+                    banda.unlockWrite(sello);
+                }
+            }
+            if (CodecContacto.leerId(proyeccion, posicion) == CodecContacto.ID_BORRADO) {
+                apilarLibre(i);
+            }
+        }
+    }
+
+    /**
+     * Reserva un hueco para un alta: uno borrado o, si no hay ninguno, el siguiente al último registro.
+     * El hueco es de quien lo reserva hasta que lo escribe o lo borra, con el bloqueo del hueco.
+     * @return Hueco reservado.
+     * @throws IOException Si no se puede ampliar el fichero.
+     */
+    synchronized int reservarHueco() throws IOException {
+        prepararLibres();
+        if (numeroLibres > 0) {
+            return libres[--numeroLibres];
+        }
+        ampliar(huecos + 1);
+        return huecos++;
+    }
+
+    /**
+     * Reserva huecos seguidos al final del fichero, sin usar los borrados, para escribirlos de una vez.
+     * @param cantidad Número de huecos.
+     * @return Primer hueco reservado.
+     * @throws IOException Si no se puede ampliar el fichero.
+     */
+    synchronized int reservarHuecos(int cantidad) throws IOException {
+        ampliar(huecos + cantidad);
+        int primero = huecos;
+        huecos += cantidad;
+        return primero;
+    }
+
+    /**
+     * Escribe contactos en huecos seguidos recién reservados con reservarHuecos, copiándolos uno tras
+     * otro en la proyección. Nadie más puede estar usando esos huecos todavía: no se bloquean.
+     * @param primerHueco Primer hueco.
+     * @param contactos   Contactos a escribir.
+     */
+    void escribirSeguidos(int primerHueco, List<Contacto> contactos) {
+        comprobar(primerHueco + contactos.size() - 1);
+        MappedByteBuffer proyeccion = mapa;
+        int posicion = posicion(primerHueco);
+        for (Contacto contacto : contactos) {
+            CodecContacto.codificar(contacto, proyeccion, posicion);
+            posicion += SIZE_REGISTRO;
+        }
+    }
+
+    /**
+     * Escribe los registros no borrados, seguidos y en el mismo orden, en un fichero temporal que
+     * después sustituye al actual de forma atómica, y abre el fichero nuevo en otro almacén.
+     * Si falla antes de la sustitución, el fichero actual queda como estaba.
+     * No debe haber escrituras en curso; las lecturas pueden seguir con este almacén hasta que se abandone.
+     * @param nuevos Array de numeroHuecos() posiciones donde se deja el hueco nuevo de cada hueco
+     *               anterior, o -1 para los borrados. Se conserva el orden de los huecos.
+     * @return El almacén abierto sobre el fichero compactado.
+     * @throws IOException Si ocurre un error al escribir o sustituir el fichero.
+     */
+    AlmacenContactos compactar(int[] nuevos) throws IOException {
+        MappedByteBuffer origen = mapa;
+        int siguiente = 0;
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (FileChannel destino = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer lote = ByteBuffer.allocate(REGISTROS_POR_ESCRITURA * SIZE_REGISTRO);
+            for (int i = 0; i < huecos; i++) {
+                if (CodecContacto.leerId(origen, posicion(i)) == CodecContacto.ID_BORRADO) {
+                    nuevos[i] = -1;
+                    continue;
+                }
+                nuevos[i] = siguiente++;
+                if (!lote.hasRemaining()) {
+                    volcar(destino, lote);
+                }
+                origen.get(posicion(i), lote.array(), lote.position(), SIZE_REGISTRO);
+                lote.position(lote.position() + SIZE_REGISTRO);
+            }
+            volcar(destino, lote);
+            destino.force(true);
+        }
+        origen.force();
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new AlmacenContactos(fichero);
+    }
+
+    /**
+     * Deja un almacén sustituido por compactar: cierra su canal sin recortar el fichero, que ya no
+     * tiene nombre. La proyección sigue siendo legible para las lecturas que aún la usen.
+     */
+    void abandonar() {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // El fichero anterior ya no se usa
+        }
+    }
+
+    /**
+     * Fuerza la escritura en disco de los cambios hechos en la proyección.
+     */
+    void forzar() {
+        mapa.force();
+    }
+
+    /**
+     * Guarda los cambios, recorta el fichero a los registros ocupados y lo cierra. Si no ha cambiado
+     * de tamaño no se recorta, así un fichero que solo se ha leído conserva su fecha de modificación.
+     * No debe haber otras operaciones en curso.
+     * @throws IOException Si ocurre un error al escribir o cerrar el fichero.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            mapa.force();
+            if (canal.size() != (long) huecos * SIZE_REGISTRO) {
+                canal.truncate((long) huecos * SIZE_REGISTRO);
+            }
+        } finally {
+            canal.close();
+        }
+    }
+
+    // Amplía la proyección para que quepan 'registros' registros. La proyección anterior ve las mismas
+    // páginas del fichero, así quien la esté leyendo no pierde nada
+    private void ampliar(int registros) throws IOException {
+        int capacidad = mapa.capacity() / SIZE_REGISTRO;
+        if (registros <= capacidad) {
+            return;
+        }
+        long nueva = Math.max(registros, (long) capacidad + Math.max(EXTENSION_MINIMA, capacidad / 2));
+        nueva = Math.min(nueva, Integer.MAX_VALUE / SIZE_REGISTRO);
+        if (nueva < registros) {
+            throw new IOException("La agenda no cabe en la proyección");
+        }
+        // Proyectar más allá del final amplía el fichero con ceros
+        mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, nueva * SIZE_REGISTRO);
+    }
+
+    private void apilarLibre(int hueco) {
+        if (numeroLibres == libres.length) {
+            libres = Arrays.copyOf(libres, libres.length * 2);
+        }
+        libres[numeroLibres++] = hueco;
+    }
+
+    private static void volcar(FileChannel destino, ByteBuffer lote) throws IOException {
+        lote.flip();
+        while (lote.hasRemaining()) {
+            destino.write(lote);
+        }
+        lote.clear();
+    }
+
+    private StampedLock banda(int hueco) {
+        return bandas[hueco & (NUMERO_BANDAS - 1)];
+    }
+
+    private int comprobar(int hueco) {
+        if (hueco < 0 || hueco >= huecos) {
+            throw new IndexOutOfBoundsException("Hueco fuera de rango: " + hueco);
+        }
+        return hueco;
+    }
+
+    private static int posicion(int hueco) {
+        return hueco * SIZE_REGISTRO;
+    }
+}
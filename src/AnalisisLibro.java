@@ -1,30 +1,224 @@
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
-import java.util.TreeMap;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Análisis de las palabras de un libro: cuántas veces aparece cada una.
+ * El fichero se divide en trozos que terminan en un salto de línea y cada trozo lo cuenta un hilo
+ * con su propio TokenizadorPalabras y ContadorPalabras, leyéndolo por bloques con lecturas
+ * posicionales; al final los contadores se juntan en uno. Las palabras se normalizan (minúsculas,
+ * sin signos de puntuación ni tildes, con ñ), así "Aquí", "aqui" y "AQUÍ" cuentan como la misma.
+ */
 public class AnalisisLibro {
-    TreeMap<String, Integer> diccionarioLibro;
+
+    /** Libro que se analiza si no se indica otro */
+    private static final String FICHERO_LIBRO = "Quijote.txt";
+
+    /** Fichero donde se guardan las frecuencias si no se indica otro */
+    private static final String FICHERO_FRECUENCIAS = "a.txt";
+
+    /** Palabras que muestra el informe de las más frecuentes si no se indica otro número */
+    private static final int TOP_PALABRAS = 20;
+
+    /** Tamaño mínimo de un trozo: por debajo no compensa repartir el trabajo */
+    static final long TAMAÑO_MINIMO_TROZO = 4L << 20;
+
+    /** Bytes que lee cada hilo de una vez */
+    static final int TAMAÑO_BLOQUE = 1 << 20;
+
+    // Métricas: bytes leídos, palabras contadas, tiempo de cada trozo y errores
+    private static final LongAdder BYTES = Metricas.contador("libro.bytes");
+    private static final LongAdder PALABRAS = Metricas.contador("libro.palabras");
+    private static final HistogramaLatencias TIEMPO_TROZO = Metricas.histograma("libro.trozo");
+    private static final LongAdder ERRORES = Metricas.contador("libro.errores");
+
+    ContadorPalabras diccionarioLibro;
     String nombreFichero;
+    private long bytesLeidos;
+    private long nanos;
 
     public AnalisisLibro(String nombreFichero) {
         this.nombreFichero = nombreFichero;
     }
 
-    private void contarApariciones(String palabra) {
-        diccionarioLibro.put(palabra,diccionarioLibro.getOrDefault(palabra,0)+1);
+    /**
+     * Lee el libro y cuenta sus palabras en paralelo, un trozo del fichero por hilo.
+     */
+    public void leerFichero() {
+        long inicio = System.nanoTime();
+        try (FileChannel canal = FileChannel.open(Path.of(nombreFichero), StandardOpenOption.READ)) {
+            long[] limites = dividir(canal, Runtime.getRuntime().availableProcessors());
+            // Un trabajo por trozo; las lecturas posicionales sobre el mismo canal son seguras entre hilos
+            List<Callable<ContadorPalabras>> trabajos = new ArrayList<>();
+            for (int i = 0; i < limites.length - 1; i++) {
+                long desde = limites[i];
+                long hasta = limites[i + 1];
+                trabajos.add(() -> contarTrozo(canal, desde, hasta));
+            }
+            ContadorPalabras total = null;
+            for (Future<ContadorPalabras> futuro : ForkJoinPool.commonPool().invokeAll(trabajos)) {
+                ContadorPalabras trozo = esperar(futuro);
+                // Se suma el menor al mayor, para copiar el menor número de palabras
+                if (total == null) {
+                    total = trozo;
+                } else if (trozo.tamaño() > total.tamaño()) {
+                    trozo.sumar(total);
+                    total = trozo;
+                } else {
+                    total.sumar(trozo);
+                }
+            }
+            diccionarioLibro = total;
+            bytesLeidos = limites[limites.length - 1];
+            nanos = System.nanoTime() - inicio;
+        } catch (NoSuchFileException e) {
+            ERRORES.increment();
+            System.out.println("Fichero no encontrado"); // Mensaje si el archivo no se encuentra
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Fallo en la entrada y salida"); // Mensaje si hay un error de I/O
+        }
     }
-    private void leerFichero(){
-        try(FileReader fileReader = new FileReader(this.nombreFichero);
-        Scanner sc = new Scanner(fileReader)) {
 
-            while (sc.hasNext()) contarApariciones(sc.next());
+    /**
+     * @param palabra Palabra a buscar, que se normaliza como las del libro.
+     * @return Veces que aparece en el libro.
+     */
+    public long apariciones(String palabra) {
+        return diccionarioLibro == null ? 0 : diccionarioLibro.cuenta(TokenizadorPalabras.normalizar(palabra));
+    }
 
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+    /**
+     * Guarda las frecuencias de todas las palabras en orden alfabético, una por línea:
+     * la palabra, un espacio y el número de apariciones.
+     * @param nombreSalida Fichero donde se guardan.
+     */
+    public void guardarFrecuencias(String nombreSalida) {
+        if (diccionarioLibro == null) {
+            return;
+        }
+        try (OutputStream salida = new BufferedOutputStream(new FileOutputStream(nombreSalida), 1 << 16)) {
+            for (int entrada : diccionarioLibro.ordenAlfabetico()) {
+                diccionarioLibro.escribirPalabra(entrada, salida);
+                salida.write(' ');
+                salida.write(Long.toString(diccionarioLibro.cuenta(entrada)).getBytes(StandardCharsets.US_ASCII));
+                salida.write('\n');
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            ERRORES.increment();
+            System.out.println("Error al escribir el archivo"); // Mensaje si hay un error al escribir el archivo
+        }
+    }
+
+    /**
+     * Muestra un resumen de la lectura y las n palabras más frecuentes con sus apariciones.
+     * @param n Número de palabras a mostrar.
+     */
+    public void mostrarMasFrecuentes(int n) {
+        if (diccionarioLibro == null) {
+            return;
+        }
+        double segundos = nanos / 1e9;
+        System.out.printf("%d palabras, %d distintas, %.1f MB en %.2f s (%.1f MB/s)%n",
+                diccionarioLibro.total(), diccionarioLibro.tamaño(), bytesLeidos / 1048576.0, segundos,
+                segundos > 0 ? bytesLeidos / 1048576.0 / segundos : 0);
+        for (int entrada : diccionarioLibro.masFrecuentes(n)) {
+            System.out.println(diccionarioLibro.palabra(entrada) + " " + diccionarioLibro.cuenta(entrada));
         }
     }
+
+    // Calcula los límites de los trozos, ajustando cada uno al byte siguiente a un salto de línea
+    private static long[] dividir(FileChannel canal, int hilos) throws IOException {
+        long tamaño = canal.size();
+        int trozos = (int) Math.max(1, Math.min(hilos, tamaño / TAMAÑO_MINIMO_TROZO));
+        long[] limites = new long[trozos + 1];
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (int i = 1; i < trozos; i++) {
+            limites[i] = siguienteLinea(canal, Math.max(limites[i - 1], tamaño / trozos * i), buffer);
+        }
+        limites[trozos] = tamaño;
+        return limites;
+    }
+
+    // Devuelve la posición del primer byte de la línea que sigue a 'desde'
+    private static long siguienteLinea(FileChannel canal, long desde, ByteBuffer buffer) throws IOException {
+        long posicion = desde;
+        while (true) {
+            buffer.clear();
+            int leidos = canal.read(buffer, posicion);
+            if (leidos <= 0) {
+                return canal.size();
+            }
+            for (int i = 0; i < leidos; i++) {
+                if (buffer.get(i) == '\n') {
+                    return posicion + i + 1;
+                }
+            }
+            posicion += leidos;
+        }
+    }
+
+    private static ContadorPalabras contarTrozo(FileChannel canal, long desde, long hasta) throws IOException {
+        long inicio = System.nanoTime();
+        ContadorPalabras contador = new ContadorPalabras();
+        TokenizadorPalabras tokenizador = new TokenizadorPalabras(contador);
+        ByteBuffer bloque = ByteBuffer.allocate(TAMAÑO_BLOQUE);
+        long posicion = desde;
+        while (posicion < hasta) {
+            bloque.clear();
+            if (hasta - posicion < bloque.capacity()) {
+                bloque.limit((int) (hasta - posicion));
+            }
+            int leidos = canal.read(bloque, posicion);
+            if (leidos < 0) {
+                break;
+            }
+            posicion += leidos;
+            BYTES.add(leidos);
+            tokenizador.alimentar(bloque.array(), 0, leidos);
+        }
+        tokenizador.terminar();
+        PALABRAS.add(contador.total());
+        TIEMPO_TROZO.registrar(System.nanoTime() - inicio);
+        return contador;
+    }
+
+    private static ContadorPalabras esperar(Future<ContadorPalabras> futuro) throws IOException {
+        try {
+            return futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lectura interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Método principal: cuenta las palabras del libro, guarda sus frecuencias y muestra las más frecuentes.
+     * Argumentos opcionales: fichero del libro, fichero de frecuencias y número de palabras a mostrar.
+     */
+    public static void main(String[] args) {
+        AnalisisLibro analisis = new AnalisisLibro(args.length > 0 ? args[0] : FICHERO_LIBRO);
+        analisis.leerFichero();
+        analisis.guardarFrecuencias(args.length > 1 ? args[1] : FICHERO_FRECUENCIAS);
+        analisis.mostrarMasFrecuentes(args.length > 2 ? Integer.parseInt(args[2]) : TOP_PALABRAS);
+    }
 }
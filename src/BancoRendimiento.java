@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Banco de pruebas de rendimiento de los caminos de lectura y escritura del proyecto: ingesta del
+ * log (secuencial, en paralelo y con todas las reglas), recuento de palabras de un libro, estadísticas
+ * de un fichero de números, búsquedas y modificaciones de la agenda y codificación de contactos.
+ * <p>
+ * Los ficheros de entrada se generan con GeneradorDatos en un directorio de trabajo, del tamaño que
+ * se indique, y se reutilizan entre ejecuciones. Cada prueba se repite primero sin medir, al menos
+ * CALENTAMIENTO veces y NANOS_CALENTAMIENTO, para que el JIT compile el código, y después midiendo en
+ * cada repetición:
+ * <ul>
+ *   <li>el tiempo y el rendimiento, en unidades por segundo y en MB/s si lee un fichero;</li>
+ *   <li>los bytes asignados en el heap, sumando el contador de HotSpot (ThreadMXBean) de todos los
+ *       hilos vivos; lo que asigna un hilo que termina durante la prueba no se cuenta;</li>
+ *   <li>en las pruebas de operaciones sueltas, la latencia de cada operación y sus percentiles.</li>
+ * </ul>
+ * El resultado de cada prueba y de cada operación, también en el calentamiento, se pasa a consumir(),
+ * como al Blackhole de JMH, para que el JIT no pueda quitar trabajo cuyo resultado no se usa. El
+ * proyecto no tiene fichero de construcción con el que añadir JMH, así que el banco lo hace él mismo.
+ * <p>
+ * Uso: {@code java BancoRendimiento [directorio] [MB] [repeticiones] [filtro]}; el filtro elige las
+ * pruebas cuyo nombre lo contiene.
+ */
+public class BancoRendimiento {
+
+    /** Repeticiones sin medir antes de cada prueba */
+    private static final int CALENTAMIENTO = 2;
+
+    /** Tiempo mínimo sin medir antes de cada prueba, aunque ya se hayan hecho las repeticiones */
+    private static final long NANOS_CALENTAMIENTO = 1_000_000_000L;
+
+    /** Semilla de los ficheros generados, para que sean siempre los mismos */
+    private static final long SEMILLA = 2005;
+
+    /**
+     * Prueba que procesa un lote de trabajo entero.
+     */
+    @FunctionalInterface
+    private interface Prueba {
+        /** @return Unidades procesadas (accesos, palabras, números, contactos...). */
+        long ejecutar() throws IOException;
+    }
+
+    /**
+     * Operación suelta de una prueba de latencia.
+     */
+    @FunctionalInterface
+    private interface Operacion {
+        /** @return Cualquier valor que dependa del resultado de la operación, para consumirlo. */
+        long ejecutar(int numero) throws IOException;
+    }
+
+    // Donde se consumen los resultados; al ser volatile el JIT no puede dar por inútil lo que se escribe en él
+    private static volatile long sumidero;
+
+    private final com.sun.management.ThreadMXBean hilos =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final int repeticiones;
+    private final String filtro;
+
+    private BancoRendimiento(int repeticiones, String filtro) {
+        this.repeticiones = repeticiones;
+        this.filtro = filtro;
+        hilos.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Mide una prueba de lotes.
+     * @param nombre Nombre de la prueba.
+     * @param unidad Nombre de lo que cuenta la prueba.
+     * @param bytes  Bytes del fichero que lee cada repetición, 0 si no lee ninguno.
+     * @param prueba Trabajo de una repetición.
+     */
+    private void medir(String nombre, String unidad, long bytes, Prueba prueba) throws IOException {
+        if (!nombre.contains(filtro)) {
+            return;
+        }
+        long finCalentamiento = System.nanoTime() + NANOS_CALENTAMIENTO;
+        for (int i = 0; i < CALENTAMIENTO || System.nanoTime() - finCalentamiento < 0; i++) {
+            consumir(prueba.ejecutar());
+        }
+        long nanos = 0;
+        long asignados = 0;
+        long unidades = 0;
+        for (int i = 0; i < repeticiones; i++) {
+            long asignadosAntes = asignados();
+            long inicio = System.nanoTime();
+            long procesadas = prueba.ejecutar();
+            nanos += System.nanoTime() - inicio;
+            consumir(procesadas);
+            unidades += procesadas;
+            asignados += asignados() - asignadosAntes;
+        }
+        double segundos = nanos / 1e9;
+        System.out.printf("%-22s %9.1f ms %13.0f %s/s %9s %12s/rep %8.1f B/%s%n", nombre, nanos / 1e6 / repeticiones,
+                unidades / segundos, unidad, bytes > 0 ? String.format("%.1f MB/s", bytes * repeticiones / 1048576.0 / segundos) : "",
+                megas(asignados / repeticiones), unidades > 0 ? (double) asignados / unidades : 0, unidad);
+    }
+
+    /**
+     * Mide una prueba de operaciones sueltas, con la latencia de cada una.
+     * @param nombre      Nombre de la prueba.
+     * @param operaciones Operaciones por repetición.
+     * @param operacion   Operación, que recibe su número dentro de la repetición.
+     */
+    private void medirLatencia(String nombre, int operaciones, Operacion operacion) throws IOException {
+        if (!nombre.contains(filtro)) {
+            return;
+        }
+        long finCalentamiento = System.nanoTime() + NANOS_CALENTAMIENTO;
+        for (int i = 0; i < CALENTAMIENTO * operaciones || System.nanoTime() - finCalentamiento < 0; i++) {
+            consumir(operacion.ejecutar(i % operaciones));
+        }
+        HistogramaLatencias latencias = new HistogramaLatencias();
+        long nanos = 0;
+        long asignados = 0;
+        for (int r = 0; r < repeticiones; r++) {
+            long asignadosAntes = asignados();
+            for (int i = 0; i < operaciones; i++) {
+                long inicio = System.nanoTime();
+                long resultado = operacion.ejecutar(i);
+                long duracion = System.nanoTime() - inicio;
+                consumir(resultado);
+                nanos += duracion;
+                latencias.registrar(duracion);
+            }
+            asignados += asignados() - asignadosAntes;
+        }
+        long total = (long) operaciones * repeticiones;
+        System.out.printf("%-22s %9.0f ops/s  p50 %.1f µs  p99 %.1f µs  p99.9 %.1f µs  máx %.1f µs %8.1f B/op%n",
+                nombre, total / (nanos / 1e9), latencias.percentil(0.5) / 1e3, latencias.percentil(0.99) / 1e3,
+                latencias.percentil(0.999) / 1e3, latencias.getMaximo() / 1e3, (double) asignados / total);
+    }
+
+    /**
+     * Consume el resultado de una prueba u operación, fuera del tiempo medido.
+     * @param resultado Valor que depende de todo el trabajo que se quiere medir.
+     */
+    private static void consumir(long resultado) {
+        sumidero += resultado;
+    }
+
+    // Bytes asignados hasta ahora por todos los hilos vivos
+    private long asignados() {
+        long total = 0;
+        for (long bytes : hilos.getThreadAllocatedBytes(hilos.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static String megas(long bytes) {
+        return String.format("%.1f MB", bytes / 1048576.0);
+    }
+
+    // Genera el fichero si no existe; los nombres llevan el tamaño, así no se confunden entre ejecuciones
+    private static Path generar(Path fichero, Prueba generador) throws IOException {
+        if (!Files.exists(fichero)) {
+            System.out.println("Generando " + fichero + "...");
+            generador.ejecutar();
+        }
+        return fichero;
+    }
+
+    /**
+     * Método principal: genera los ficheros que falten y ejecuta las pruebas.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directorio = Path.of(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "banco-rendimiento");
+        int megas = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int repeticiones = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        BancoRendimiento banco = new BancoRendimiento(repeticiones, args.length > 3 ? args[3] : "");
+        Files.createDirectories(directorio);
+        long bytes = (long) megas << 20;
+
+        Path log = generar(directorio.resolve("syslog-" + megas + "MB.log"),
+                () -> GeneradorDatos.syslog(directorio.resolve("syslog-" + megas + "MB.log"), bytes, SEMILLA));
+        Path texto = generar(directorio.resolve("texto-" + megas + "MB.txt"),
+                () -> GeneradorDatos.texto(directorio.resolve("texto-" + megas + "MB.txt"), bytes, SEMILLA));
+        Path numeros = generar(directorio.resolve("numeros-" + megas + "MB.txt"),
+                () -> GeneradorDatos.enteros(directorio.resolve("numeros-" + megas + "MB.txt"), bytes / 5, SEMILLA));
+        // La agenda se genera siempre: las pruebas la modifican
+        Path directorioAgenda = directorio.resolve("agenda");
+        Files.createDirectories(directorioAgenda);
+        for (String nombre : List.of("agenda.dat", "agenda.idx", "agenda.wal")) {
+            Files.deleteIfExists(directorioAgenda.resolve(nombre));
+        }
+        int contactos = (int) Math.min(bytes / CodecContacto.SIZE_REGISTRO, Integer.MAX_VALUE / CodecContacto.SIZE_REGISTRO);
+        GeneradorDatos.agenda(directorioAgenda.resolve("agenda.dat"), contactos, SEMILLA);
+
+        System.out.printf("%d MB por fichero, %d repeticiones tras %d de calentamiento (%d s como mínimo), %d núcleos%n",
+                megas, repeticiones, CALENTAMIENTO, NANOS_CALENTAMIENTO / 1_000_000_000L,
+                Runtime.getRuntime().availableProcessors());
+
+        banco.medir("log.secuencial", "accesos", Files.size(log),
+                () -> new LecturaLog(log.toString(), false, 2005).accesosSSH.tamaño());
+        banco.medir("log.paralelo", "accesos", Files.size(log),
+                () -> new LecturaLog(log.toString(), true, 2005).accesosSSH.tamaño());
+        banco.medir("log.eventos", "eventos", Files.size(log),
+                () -> LecturaLog.contarEventos(log.toString()).values().stream().mapToLong(Long::longValue).sum());
+        banco.medir("libro.palabras", "palabras", Files.size(texto), () -> {
+            AnalisisLibro analisis = new AnalisisLibro(texto.toString());
+            analisis.leerFichero();
+            return analisis.diccionarioLibro.total();
+        });
+        banco.medir("numeros.estadisticas", "números", Files.size(numeros),
+                () -> NumerosNaturales.analizar(numeros.toString()).getCantidad());
+
+        List<Contacto> muestra = new ArrayList<>();
+        SplittableRandom aleatorio = new SplittableRandom(SEMILLA);
+        for (int i = 0; i < 4096; i++) {
+            muestra.add(GeneradorDatos.contacto(i, aleatorio));
+        }
+        ByteBuffer registros = ByteBuffer.allocate(muestra.size() * CodecContacto.SIZE_REGISTRO);
+        banco.medir("contacto.codec", "contactos", 0, () -> {
+            long leidos = 0;
+            for (int vuelta = 0; vuelta < 64; vuelta++) {
+                for (int i = 0; i < muestra.size(); i++) {
+                    CodecContacto.codificar(muestra.get(i), registros, i * CodecContacto.SIZE_REGISTRO);
+                }
+                for (int i = 0; i < muestra.size(); i++) {
+                    Contacto contacto = CodecContacto.decodificar(registros, i * CodecContacto.SIZE_REGISTRO);
+                    leidos += contacto.getId() >= 0 && !contacto.getTelefono().isEmpty() ? 1 : 0;
+                }
+            }
+            return leidos;
+        });
+
+        Agenda agenda = new Agenda(directorioAgenda);
+        try {
+            SplittableRandom ids = new SplittableRandom(SEMILLA);
+            banco.medirLatencia("agenda.buscar", 100_000, i -> {
+                Contacto contacto = agenda.buscarContacto(ids.nextInt(contactos));
+                if (contacto == null) {
+                    throw new IOException("Contacto no encontrado en la agenda generada");
+                }
+                return contacto.getNombre().hashCode();
+            });
+            banco.medirLatencia("agenda.modificar", 2_000, i -> {
+                Contacto contacto = GeneradorDatos.contacto(ids.nextInt(contactos), ids);
+                agenda.modificaContacto(contacto);
+                return contacto.getId();
+            });
+            banco.medir("agenda.exportar", "contactos", (long) contactos * CodecContacto.SIZE_REGISTRO, () -> {
+                ProgresoTransferencia progreso = new ProgresoTransferencia();
+                agenda.exportarRegistros(directorio.resolve("agenda-exportada.dat"), progreso);
+                return progreso.getRegistros();
+            });
+        } finally {
+            agenda.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificación de un Contacto en un registro de ancho fijo.
+ * Formato (big endian), SIZE_REGISTRO = 70 bytes:
+ * <pre>
+ *   int   id (-1 si el registro está borrado)
+ *   short longitud + LONGITUD_NOMBRE bytes del nombre
+ *   short longitud + LONGITUD_DIRECCION bytes de la dirección
+ *   short longitud + LONGITUD_TELEFONO bytes del teléfono
+ * </pre>
+ * Los textos se guardan en ISO-8859-1, un byte por carácter, así "Peñalver" ocupa lo mismo que
+ * "Penalver" y ningún registro se sale de su tamaño. Un carácter fuera de ISO-8859-1 se guarda como '?'.
+ * Es el mismo formato que escribía writeUTF con textos ASCII, así los ficheros anteriores se siguen leyendo.
+ * Todas las operaciones sobre buffers son absolutas: no cambian la posición del buffer.
+ */
+class CodecContacto {
+
+    /** Juego de caracteres de los textos del registro */
+    static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    /** Tamaño del registro en bytes */
+    static final int SIZE_REGISTRO = Contacto.SIZE_REGISTRO;
+
+    /** Id de un registro borrado */
+    static final int ID_BORRADO = -1;
+
+    private static final int POS_NOMBRE = 4;
+    private static final int POS_DIRECCION = POS_NOMBRE + 2 + Contacto.LONGITUD_NOMBRE;
+    private static final int POS_TELEFONO = POS_DIRECCION + 2 + Contacto.LONGITUD_DIRECCION;
+
+    private CodecContacto() {
+    }
+
+    /**
+     * Codifica un contacto en el buffer.
+     * @param contacto Contacto a codificar.
+     * @param destino  Buffer de destino.
+     * @param posicion Posición del buffer donde empieza el registro.
+     */
+    static void codificar(Contacto contacto, ByteBuffer destino, int posicion) {
+        codificar(contacto.getId(), contacto, destino, posicion);
+    }
+
+    /**
+     * Codifica un contacto con otro id, por ejemplo ID_BORRADO para marcarlo como borrado.
+     */
+    static void codificar(int id, Contacto contacto, ByteBuffer destino, int posicion) {
+        destino.putInt(posicion, id);
+        ponerTexto(contacto.getNombre(), Contacto.LONGITUD_NOMBRE, destino, posicion + POS_NOMBRE);
+        ponerTexto(contacto.getDireccion(), Contacto.LONGITUD_DIRECCION, destino, posicion + POS_DIRECCION);
+        ponerTexto(contacto.getTelefono(), Contacto.LONGITUD_TELEFONO, destino, posicion + POS_TELEFONO);
+    }
+
+    /**
+     * Decodifica el registro que empieza en una posición del buffer.
+     * @param origen   Buffer con el registro.
+     * @param posicion Posición del buffer donde empieza el registro.
+     * @return Contacto leído (con id ID_BORRADO si el registro está borrado).
+     */
+    static Contacto decodificar(ByteBuffer origen, int posicion) {
+        return new Contacto(origen.getInt(posicion),
+                leerTexto(Contacto.LONGITUD_NOMBRE, origen, posicion + POS_NOMBRE),
+                leerTexto(Contacto.LONGITUD_DIRECCION, origen, posicion + POS_DIRECCION),
+                leerTexto(Contacto.LONGITUD_TELEFONO, origen, posicion + POS_TELEFONO));
+    }
+
+    /**
+     * Lee solo el id del registro, sin crear el contacto.
+     */
+    static int leerId(ByteBuffer origen, int posicion) {
+        return origen.getInt(posicion);
+    }
+
+    /**
+     * Comprueba que en la posición hay un registro escrito por el codec, viendo que los prefijos
+     * de longitud de los tres textos son los esperados. Una zona a ceros no es un registro válido.
+     */
+    static boolean valido(ByteBuffer origen, int posicion) {
+        return origen.getShort(posicion + POS_NOMBRE) == Contacto.LONGITUD_NOMBRE
+                && origen.getShort(posicion + POS_DIRECCION) == Contacto.LONGITUD_DIRECCION
+                && origen.getShort(posicion + POS_TELEFONO) == Contacto.LONGITUD_TELEFONO;
+    }
+
+    /**
+     * Lee el registro de un hueco del fichero con una sola lectura posicional.
+     * @param canal Canal del fichero.
+     * @param hueco Número de registro.
+     * @return Contacto leído.
+     * @throws IOException Si el hueco está fuera del fichero o hay un error de lectura.
+     */
+    static Contacto leer(FileChannel canal, long hueco) throws IOException {
+        ByteBuffer registro = ByteBuffer.allocate(SIZE_REGISTRO);
+        leerCompleto(canal, registro, hueco * SIZE_REGISTRO);
+        return decodificar(registro, 0);
+    }
+
+    /**
+     * Lee varios registros seguidos con una sola lectura posicional.
+     * @param canal       Canal del fichero.
+     * @param primerHueco Número del primer registro.
+     * @param cantidad    Número de registros.
+     * @return Contactos leídos en orden de hueco, incluidos los borrados.
+     * @throws IOException Si algún hueco está fuera del fichero o hay un error de lectura.
+     */
+    static List<Contacto> leer(FileChannel canal, long primerHueco, int cantidad) throws IOException {
+        ByteBuffer registros = ByteBuffer.allocate(cantidad * SIZE_REGISTRO);
+        leerCompleto(canal, registros, primerHueco * SIZE_REGISTRO);
+        List<Contacto> contactos = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            contactos.add(decodificar(registros, i * SIZE_REGISTRO));
+        }
+        return contactos;
+    }
+
+    /**
+     * Escribe un contacto en un hueco del fichero con una sola escritura posicional.
+     * @param canal    Canal del fichero.
+     * @param hueco    Número de registro (puede ser el siguiente al último, para añadir).
+     * @param contacto Contacto a escribir.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static void escribir(FileChannel canal, long hueco, Contacto contacto) throws IOException {
+        escribir(canal, hueco, contacto.getId(), contacto);
+    }
+
+    /**
+     * Escribe un contacto con otro id, por ejemplo ID_BORRADO para marcarlo como borrado.
+     */
+    static void escribir(FileChannel canal, long hueco, int id, Contacto contacto) throws IOException {
+        ByteBuffer registro = ByteBuffer.allocate(SIZE_REGISTRO);
+        codificar(id, contacto, registro, 0);
+        escribirCompleto(canal, registro, hueco * SIZE_REGISTRO);
+    }
+
+    /**
+     * Escribe varios contactos en huecos seguidos con una sola escritura posicional.
+     * @param canal       Canal del fichero.
+     * @param primerHueco Número del primer registro.
+     * @param contactos   Contactos a escribir.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static void escribir(FileChannel canal, long primerHueco, List<Contacto> contactos) throws IOException {
+        ByteBuffer registros = ByteBuffer.allocate(contactos.size() * SIZE_REGISTRO);
+        for (int i = 0; i < contactos.size(); i++) {
+            codificar(contactos.get(i), registros, i * SIZE_REGISTRO);
+        }
+        escribirCompleto(canal, registros, primerHueco * SIZE_REGISTRO);
+    }
+
+    private static void ponerTexto(String texto, int longitud, ByteBuffer destino, int posicion) {
+        byte[] bytes = texto.getBytes(CHARSET);
+        int n = Math.min(bytes.length, longitud);
+        destino.putShort(posicion, (short) longitud);
+        destino.put(posicion + 2, bytes, 0, n);
+        for (int i = n; i < longitud; i++) {
+            destino.put(posicion + 2 + i, (byte) ' ');
+        }
+    }
+
+    private static String leerTexto(int longitud, ByteBuffer origen, int posicion) {
+        // Un prefijo de longitud distinto solo puede venir de un registro dañado: se lee el campo entero
+        int n = origen.getShort(posicion) & 0xFFFF;
+        byte[] bytes = new byte[n > 0 && n < longitud ? n : longitud];
+        origen.get(posicion + 2, bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static void leerCompleto(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            int leidos = canal.read(buffer, posicion + buffer.position());
+            if (leidos < 0) {
+                throw new IOException("Posicion fuera de rango");
+            }
+        }
+    }
+
+    private static void escribirCompleto(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            canal.write(buffer, posicion + buffer.position());
+        }
+    }
+}
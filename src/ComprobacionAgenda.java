@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Comprobaciones de la agenda que no se ven usándola desde un solo hilo: altas, modificaciones y
+ * bajas a la vez con lectores sin bloqueo (los bloqueos por bandas de AlmacenContactos), altas
+ * repetidas del mismo id en carrera y la recuperación del diario tras una caída. Cada una trabaja con
+ * una agenda nueva en un directorio de trabajo y escribe OK o FALLO; si alguna falla el programa
+ * termina con código 1.
+ * <p>
+ * Uso: {@code java ComprobacionAgenda [directorio]}. La caída se simula en otro proceso, que se
+ * lanza con el mismo classpath y termina sin cerrar la agenda.
+ */
+public class ComprobacionAgenda {
+
+    /** Hilos que modifican la agenda a la vez */
+    private static final int ESCRITORES = 8;
+
+    /** Hilos que leen mientras tanto */
+    private static final int LECTORES = 4;
+
+    /** Contactos de cada escritor */
+    private static final int POR_ESCRITOR = 5000;
+
+    /** Contactos de la comprobación del diario */
+    private static final int CONTACTOS_DIARIO = 1000;
+
+    private static int fallos;
+
+    private ComprobacionAgenda() {
+    }
+
+    private static void comprobar(String nombre, boolean correcto, String detalle) {
+        System.out.println((correcto ? "OK    " : "FALLO ") + nombre + (correcto ? "" : ": " + detalle));
+        if (!correcto) {
+            fallos++;
+        }
+    }
+
+    /**
+     * Cada escritor da de alta sus contactos, modifica uno de cada tres y borra uno de cada dos,
+     * mientras los lectores buscan por id y por texto. Un lector nunca ve un contacto a medias
+     * (nombre, dirección y teléfono de escrituras distintas), y al terminar, y al reabrir la agenda,
+     * están exactamente los contactos que deben.
+     */
+    private static void concurrencia(Path directorio) throws IOException {
+        Path dir = limpiar(directorio.resolve("concurrencia"));
+        AtomicLong incoherentes = new AtomicLong();
+        AtomicLong lecturas = new AtomicLong();
+        try (Agenda agenda = new Agenda(dir)) {
+            AtomicBoolean terminado = new AtomicBoolean();
+            List<Callable<Void>> escritores = new ArrayList<>();
+            for (int t = 0; t < ESCRITORES; t++) {
+                int primero = t * POR_ESCRITOR;
+                escritores.add(() -> {
+                    for (int id = primero; id < primero + POR_ESCRITOR; id++) {
+                        agenda.creaContacto(contacto(id, "Nombre", id));
+                        if (id % 3 == 0) {
+                            agenda.modificaContacto(contacto(id, "Peñalver", id));
+                        }
+                        if (id % 2 == 0) {
+                            agenda.borrarContacto(new Contacto(id, "", "", ""));
+                        }
+                    }
+                    return null;
+                });
+            }
+            List<Callable<Void>> lectores = new ArrayList<>();
+            for (int t = 0; t < LECTORES; t++) {
+                long semilla = t;
+                lectores.add(() -> {
+                    SplittableRandom aleatorio = new SplittableRandom(semilla);
+                    while (!terminado.get()) {
+                        int id = aleatorio.nextInt(ESCRITORES * POR_ESCRITOR);
+                        if (!coherente(agenda.buscarContacto(id), id)) {
+                            incoherentes.incrementAndGet();
+                        }
+                        if (aleatorio.nextInt(1000) == 0) {
+                            for (Contacto contacto : agenda.buscarCoincidencias("alver1", 10)) {
+                                if (!coherente(contacto, contacto.getId())) {
+                                    incoherentes.incrementAndGet();
+                                }
+                            }
+                        }
+                        lecturas.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            ejecutar(escritores, lectores, terminado);
+
+            comprobar("lectores sin contactos a medias (" + lecturas + " lecturas)", incoherentes.get() == 0,
+                    incoherentes + " incoherentes");
+            comprobarContenido("contactos tras escribir a la vez", agenda);
+        }
+        try (Agenda agenda = new Agenda(dir)) {
+            comprobarContenido("contactos al reabrir", agenda);
+        }
+    }
+
+    /**
+     * Los bloqueos de cada hueco: varios hilos modifican los mismos contactos a la vez, cada uno con
+     * su propio valor en nombre, dirección y teléfono, y ningún lector ve mezclados los de dos hilos.
+     * Después varios hilos dan de alta los mismos ids a la vez: cada id queda una sola vez y los
+     * huecos de las altas repetidas se reutilizan.
+     */
+    private static void mismosContactos(Path directorio) throws IOException {
+        Path dir = limpiar(directorio.resolve("mismos"));
+        int contactos = 256;
+        AtomicLong mezclados = new AtomicLong();
+        try (Agenda agenda = new Agenda(dir)) {
+            for (int id = 0; id < contactos; id++) {
+                agenda.creaContacto(new Contacto(id, "V0", "V0", "0"));
+            }
+            AtomicBoolean terminado = new AtomicBoolean();
+            List<Callable<Void>> escritores = new ArrayList<>();
+            for (int t = 1; t <= ESCRITORES; t++) {
+                String valor = String.valueOf(t);
+                escritores.add(() -> {
+                    for (int vuelta = 0; vuelta < 20; vuelta++) {
+                        for (int id = 0; id < contactos; id++) {
+                            agenda.modificaContacto(new Contacto(id, "V" + valor, "V" + valor, valor));
+                        }
+                    }
+                    return null;
+                });
+            }
+            List<Callable<Void>> lectores = new ArrayList<>();
+            for (int t = 0; t < LECTORES; t++) {
+                lectores.add(() -> {
+                    while (!terminado.get()) {
+                        for (int id = 0; id < contactos; id++) {
+                            Contacto contacto = agenda.buscarContacto(id);
+                            String telefono = contacto.getTelefono().strip();
+                            if (!contacto.getNombre().strip().equals("V" + telefono)
+                                    || !contacto.getDireccion().strip().equals("V" + telefono)) {
+                                mezclados.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+            ejecutar(escritores, lectores, terminado);
+            comprobar("modificar los mismos contactos a la vez", mezclados.get() == 0, mezclados + " mezclados");
+
+            List<Callable<Void>> repetidos = new ArrayList<>();
+            for (int t = 0; t < ESCRITORES; t++) {
+                repetidos.add(() -> {
+                    for (int id = contactos; id < 2 * contactos; id++) {
+                        agenda.creaContacto(new Contacto(id, "Alta", "Alta", String.valueOf(id)));
+                    }
+                    return null;
+                });
+            }
+            ejecutar(repetidos, List.of(), terminado);
+            int encontrados = 0;
+            for (int id = contactos; id < 2 * contactos; id++) {
+                encontrados += agenda.buscarContacto(id) != null ? 1 : 0;
+            }
+            comprobar("altas repetidas del mismo id a la vez", encontrados == contactos,
+                    encontrados + " de " + contactos);
+        }
+        // Al cerrar, el fichero queda con los registros usados; las altas repetidas a medias son como mucho una por hilo
+        long registros = Files.size(dir.resolve("agenda.dat")) / CodecContacto.SIZE_REGISTRO;
+        comprobar("los huecos de las altas repetidas se reutilizan", registros <= 2 * contactos + ESCRITORES,
+                registros + " registros para " + 2 * contactos + " contactos");
+    }
+
+    /**
+     * Un proceso hace cambios y termina sin cerrar la agenda. Después se estropean dos registros del
+     * fichero de datos (como una escritura cortada) y se añade basura al final del diario (como una
+     * anotación cortada): al abrir la agenda el diario deja todos los registros como debían quedar.
+     */
+    private static void recuperacion(Path directorio) throws IOException {
+        Path dir = limpiar(directorio.resolve("diario"));
+        Process proceso = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), ComprobacionAgenda.class.getName(), "--caida", dir.toString())
+                .inheritIO().start();
+        try {
+            comprobar("proceso que cae sin cerrar la agenda", proceso.waitFor() == 0, "código " + proceso.exitValue());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Comprobación interrumpida", e);
+        }
+        comprobar("el diario tiene los cambios tras la caída", Files.size(dir.resolve("agenda.wal")) > 0, "vacío");
+
+        try (FileChannel datos = FileChannel.open(dir.resolve("agenda.dat"), StandardOpenOption.WRITE);
+             FileChannel diario = FileChannel.open(dir.resolve("agenda.wal"), StandardOpenOption.WRITE)) {
+            datos.write(ByteBuffer.allocate(40), 500L * CodecContacto.SIZE_REGISTRO + 10);
+            datos.write(ByteBuffer.allocate(CodecContacto.SIZE_REGISTRO), 999L * CodecContacto.SIZE_REGISTRO);
+            diario.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}), diario.size());
+        }
+
+        try (Agenda agenda = new Agenda(dir)) {
+            int errores = 0;
+            for (int id = 0; id < CONTACTOS_DIARIO; id++) {
+                Contacto contacto = agenda.buscarContacto(id);
+                if (id % 3 == 1 ? contacto != null
+                        : contacto == null || !contacto.getNombre().strip().equals((id % 3 == 0 ? "Mod" : "Nombre") + id)) {
+                    errores++;
+                }
+            }
+            comprobar("recuperar el diario tras la caída", errores == 0, errores + " contactos mal");
+        }
+        comprobar("el diario se vacía al recuperarlo", Files.size(dir.resolve("agenda.wal")) == 0,
+                Files.size(dir.resolve("agenda.wal")) + " bytes");
+    }
+
+    /**
+     * Un alta que falla antes de escribir en un hueco reutilizado (por ejemplo, al anotar en el diario)
+     * devuelve el hueco a la lista de libres aunque siga con la marca de borrado.
+     */
+    private static void altaFallida(Path directorio) throws IOException {
+        Path dir = limpiar(directorio.resolve("alta-fallida"));
+        try (AlmacenContactos almacen = new AlmacenContactos(dir.resolve("agenda.dat"))) {
+            for (int i = 0; i < 2; i++) {
+                int hueco = almacen.reservarHueco();
+                almacen.escribir(hueco, new Contacto(i, "Nombre" + i, "Calle", String.valueOf(i)));
+            }
+            almacen.bloquear(0);
+            try {
+                almacen.borrar(0);
+            } finally {
+                almacen.desbloquear(0);
+            }
+            int hueco = almacen.reservarHueco();
+            almacen.bloquear(hueco);
+            try {
+                almacen.liberarHueco(hueco); // Como creaContacto si falla el diario antes de escribir
+            } finally {
+                almacen.desbloquear(hueco);
+            }
+            comprobar("un hueco reutilizado vuelve a libres si el alta falla", hueco == 0
+                    && almacen.numeroLibres() == 1 && almacen.reservarHueco() == 0, "hueco " + hueco
+                    + ", " + almacen.numeroLibres() + " libres");
+        }
+    }
+
+    // Proceso que cae: altas, modificaciones y bajas, y termina sin cerrar nada
+    private static void caer(Path dir) {
+        Agenda agenda = new Agenda(dir);
+        for (int id = 0; id < CONTACTOS_DIARIO; id++) {
+            agenda.creaContacto(new Contacto(id, "Nombre" + id, "Dir", String.valueOf(id)));
+        }
+        for (int id = 0; id < CONTACTOS_DIARIO; id += 3) {
+            agenda.modificaContacto(new Contacto(id, "Mod" + id, "Dir", String.valueOf(id)));
+        }
+        for (int id = 1; id < CONTACTOS_DIARIO; id += 3) {
+            agenda.borrarContacto(new Contacto(id, "", "", ""));
+        }
+        Runtime.getRuntime().halt(0);
+    }
+
+    // Contacto cuyos tres campos llevan el id, para reconocer uno a medias
+    private static Contacto contacto(int id, String nombre, int valor) {
+        return new Contacto(id, nombre + valor, "Calle " + valor, String.valueOf(valor));
+    }
+
+    private static boolean coherente(Contacto contacto, int id) {
+        if (contacto == null) {
+            return true;
+        }
+        String nombre = contacto.getNombre().strip();
+        return contacto.getId() == id && contacto.getTelefono().strip().equals(String.valueOf(id))
+                && contacto.getDireccion().strip().equals("Calle " + id)
+                && (nombre.equals("Nombre" + id) || nombre.equals("Peñalver" + id));
+    }
+
+    // Quedan los impares, y los múltiplos de tres con el nombre cambiado
+    private static void comprobarContenido(String nombre, Agenda agenda) {
+        int errores = 0;
+        int esperadosTexto = 0;
+        for (int id = 0; id < ESCRITORES * POR_ESCRITOR; id++) {
+            Contacto contacto = agenda.buscarContacto(id);
+            boolean vivo = id % 2 != 0;
+            if ((contacto != null) != vivo || (contacto != null && (!coherente(contacto, id)
+                    || contacto.getNombre().startsWith("Peñalver") != (id % 3 == 0)))) {
+                errores++;
+            }
+            if (vivo && id % 3 == 0) {
+                esperadosTexto++;
+            }
+        }
+        int encontrados = agenda.buscarCoincidencias("peñalver", Integer.MAX_VALUE).size();
+        comprobar(nombre, errores == 0 && encontrados == esperadosTexto,
+                errores + " contactos mal, " + encontrados + " de " + esperadosTexto + " por texto");
+    }
+
+    // Lanza escritores y lectores, espera a los escritores y después para a los lectores
+    private static void ejecutar(List<Callable<Void>> escritores, List<Callable<Void>> lectores, AtomicBoolean terminado)
+            throws IOException {
+        ExecutorService hilos = Executors.newFixedThreadPool(escritores.size() + lectores.size());
+        try {
+            terminado.set(false);
+            List<Future<Void>> futurosLectores = new ArrayList<>();
+            for (Callable<Void> lector : lectores) {
+                futurosLectores.add(hilos.submit(lector));
+            }
+            List<Future<Void>> futurosEscritores = new ArrayList<>();
+            for (Callable<Void> escritor : escritores) {
+                futurosEscritores.add(hilos.submit(escritor));
+            }
+            esperar(futurosEscritores);
+            terminado.set(true);
+            esperar(futurosLectores);
+        } finally {
+            hilos.shutdownNow();
+        }
+    }
+
+    private static void esperar(List<Future<Void>> futuros) throws IOException {
+        try {
+            for (Future<Void> futuro : futuros) {
+                futuro.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Comprobación interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Directorio vacío para una agenda nueva
+    private static Path limpiar(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (String nombre : List.of("agenda.dat", "agenda.idx", "agenda.wal")) {
+            Files.deleteIfExists(dir.resolve(nombre));
+        }
+        return dir;
+    }
+
+    /**
+     * Método principal: ejecuta todas las comprobaciones.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--caida")) {
+            caer(Path.of(args[1]));
+            return;
+        }
+        Path directorio = Path.of(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "comprobacion-agenda");
+        concurrencia(directorio);
+        mismosContactos(directorio);
+        recuperacion(directorio);
+        altaFallida(directorio);
+        System.out.println(fallos == 0 ? "Todas las comprobaciones son correctas" : fallos + " comprobaciones fallidas");
+        if (fallos > 0) {
+            System.exit(1);
+        }
+    }
+}
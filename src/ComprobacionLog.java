@@ -0,0 +1,217 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Comprobaciones de la ingesta del log que no se ven con Linux_2k.log: cada una genera el fichero
+ * que necesita en un directorio de trabajo, compara el resultado con el esperado y escribe OK o
+ * FALLO. Si alguna falla el programa termina con código 1.
+ * <p>
+ * Uso: {@code java ComprobacionLog [directorio]}.
+ */
+public class ComprobacionLog {
+
+    private static final DateTimeFormatter FECHA_SYSLOG = DateTimeFormatter.ofPattern("MMM dd HH:mm:ss", Locale.ENGLISH);
+
+    // Línea de fallo de autenticación a la que solo le falta el host
+    private static final String ACCESO = "Jun 14 15:16:01 combo sshd(pam_unix)[19939]: authentication failure; "
+            + "logname= uid=0 euid=0 tty=NODEVssh ruser= rhost=";
+
+    private static int fallos;
+
+    private ComprobacionLog() {
+    }
+
+    private static void comprobar(String nombre, boolean correcto, String detalle) {
+        System.out.println((correcto ? "OK    " : "FALLO ") + nombre + (correcto ? "" : ": " + detalle));
+        if (!correcto) {
+            fallos++;
+        }
+    }
+
+    /**
+     * La lectura en paralelo de un log de varios años, con trozos de más de medio año, líneas
+     * rezagadas del mes anterior y un 29 de febrero, da los mismos accesos que la secuencial.
+     */
+    private static void variosAños(Path directorio) throws IOException {
+        Path log = directorio.resolve("varios-anios.log");
+        escribirVariosAños(log, 40L << 20);
+        IndiceAccesos secuencial = new IndiceAccesos();
+        new MotorIngestaLog(secuencial, new DecodificadorFechaSyslog(2003)).ingerir(log);
+        for (int hilos : new int[]{2, 3, 4, 8}) {
+            IndiceAccesos paralelo = new IndiceAccesos();
+            IngestaParalela.ingerir(log, hilos, 2003, paralelo);
+            comprobar("paralelo con " + hilos + " hilos = secuencial", iguales(secuencial, paralelo),
+                    paralelo.tamaño() + " accesos frente a " + secuencial.tamaño());
+        }
+    }
+
+    // Unos tres años y medio desde 2003, con 2004 bisiesto, y una de cada tres líneas fechada en el mes anterior
+    private static void escribirVariosAños(Path log, long bytes) throws IOException {
+        SplittableRandom aleatorio = new SplittableRandom(2005);
+        LocalDateTime fecha = LocalDateTime.of(2003, 1, 1, 0, 0, 0);
+        long escritos = 0;
+        try (BufferedWriter salida = Files.newBufferedWriter(log, StandardCharsets.ISO_8859_1)) {
+            while (escritos < bytes) {
+                fecha = fecha.plusSeconds(aleatorio.nextInt(720));
+                LocalDateTime fechaLinea = aleatorio.nextInt(3) == 0 ? fecha.minusMonths(1) : fecha;
+                String linea = fechaLinea.format(FECHA_SYSLOG) + " combo sshd(pam_unix)[" + aleatorio.nextInt(30000)
+                        + "]: authentication failure; logname= uid=0 euid=0 tty=NODEVssh ruser= rhost=10.0."
+                        + aleatorio.nextInt(256) + "." + aleatorio.nextInt(256) + "\n";
+                salida.write(linea);
+                escritos += linea.length();
+            }
+        }
+    }
+
+    /**
+     * Todas las lecturas de una vez cuentan la última línea aunque no termine en salto de línea, como
+     * contarEventos, y al seguir el log esa línea no se añade otra vez cuando le llega el salto.
+     */
+    private static void sinSaltoFinal(Path directorio) throws IOException {
+        Path log = directorio.resolve("sin-salto.log");
+        Files.deleteIfExists(directorio.resolve("sin-salto.log.idx"));
+        Files.writeString(log, ACCESO + "10.0.0.1\n" + ACCESO + "10.0.0.2", StandardCharsets.ISO_8859_1);
+        String nombre = log.toString();
+        long eventos = LecturaLog.contarEventos(nombre).values().stream().mapToLong(Long::longValue).sum();
+        comprobar("contarEventos sin salto final", eventos == 2, eventos + " eventos");
+        comprobarAccesos("secuencial sin salto final", new LecturaLog(nombre, false, 2005), 2);
+        comprobarAccesos("paralelo sin salto final", new LecturaLog(nombre, true, 2005), 2);
+        comprobarAccesos("rotados sin salto final", new LecturaLog(List.of(nombre), 2005), 2);
+        comprobarAccesos("cargar sin instantánea", LecturaLog.cargar(nombre, 2005), 2);
+        Object instantanea = claveFichero(InstantaneaIndice.rutaDe(log));
+        comprobarAccesos("cargar con instantánea", LecturaLog.cargar(nombre, 2005), 2);
+        comprobar("la instantánea de un log sin cambios no se reescribe",
+                instantanea.equals(claveFichero(InstantaneaIndice.rutaDe(log))), "se ha vuelto a escribir");
+
+        LecturaLog lecturaLog = LecturaLog.cargar(nombre, 2005);
+        try (SeguidorLog seguidor = lecturaLog.seguir(10)) {
+            Files.writeString(log, "\n" + ACCESO + "10.0.0.3\n", StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+            esperar(lecturaLog.accesosSSH, 3);
+            comprobarAccesos("seguir tras completar la última línea", lecturaLog, 3);
+        }
+        comprobarAccesos("cargar tras completar la última línea", LecturaLog.cargar(nombre, 2005), 3);
+    }
+
+    /**
+     * El seguidor detecta un truncado aunque el fichero vuelva a tener el mismo tamaño antes de la
+     * siguiente comprobación, porque cambian sus primeros bytes.
+     */
+    private static void truncadoMismoTamaño(Path directorio) throws IOException {
+        Path log = directorio.resolve("truncado.log");
+        Files.writeString(log, ACCESO + "10.0.0.1\n", StandardCharsets.ISO_8859_1);
+        IndiceAccesos indice = new IndiceAccesos();
+        try (SeguidorLog seguidor = new SeguidorLog(log, indice, 0, 0, new DecodificadorFechaSyslog(2005), 1000)) {
+            seguidor.comprobar();
+            Files.writeString(log, ACCESO + "10.0.0.2\n", StandardCharsets.ISO_8859_1);
+            seguidor.comprobar();
+        }
+        comprobar("seguir tras truncar y escribir lo mismo de largo", indice.tamaño() == 2
+                && indice.host(1).equals("10.0.0.2"), indice.tamaño() + " accesos");
+    }
+
+    /**
+     * Los ficheros rotados se ordenan del más antiguo al más reciente, con número o con la fecha de
+     * dateext, comprimidos o no, y el fichero actual va el último.
+     */
+    private static void ordenRotados() {
+        List<String> esperado = List.of("auth.log.3.gz", "auth.log.2.gz", "auth.log.1", "auth.log",
+                "syslog-20231225.gz", "syslog-20240101.gz", "syslog-20240108", "syslog",
+                "web-1.log", "web-12345678", "web.log.10", "web.log.9", "web.log");
+        List<Path> desordenados = new ArrayList<>();
+        for (String nombre : esperado) {
+            desordenados.add(Path.of(nombre));
+        }
+        Collections.shuffle(desordenados, new Random(2005));
+        List<String> ordenados = new ArrayList<>();
+        for (Path fichero : IngestaArchivos.ordenar(desordenados)) {
+            ordenados.add(fichero.toString());
+        }
+        comprobar("orden de los ficheros rotados", ordenados.equals(esperado), ordenados.toString());
+    }
+
+    // Identidad del fichero (dispositivo e inodo), que cambia si se sustituye por otro
+    private static Object claveFichero(Path fichero) throws IOException {
+        return Files.readAttributes(fichero, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Añadir un lote de una vez (como la mezcla en paralelo y el seguimiento del log) deja el índice igual
+     * que añadir sus accesos uno a uno, aunque el lote esté desordenado y comparta hosts con el índice.
+     */
+    private static void agregarTodos() {
+        SplittableRandom aleatorio = new SplittableRandom(2005);
+        IndiceAccesos deUnaVez = new IndiceAccesos();
+        IndiceAccesos unoAUno = new IndiceAccesos();
+        for (int lote = 0; lote < 20; lote++) {
+            IndiceAccesos accesos = new IndiceAccesos();
+            for (int i = aleatorio.nextInt(5000); i > 0; i--) {
+                long segundo = 1_100_000_000L + aleatorio.nextInt(86400 * 30);
+                String host = "10.0.0." + aleatorio.nextInt(300);
+                accesos.acceso(segundo, host);
+                unoAUno.acceso(segundo, host);
+            }
+            deUnaVez.agregarTodos(accesos);
+        }
+        comprobar("agregarTodos = acceso uno a uno", iguales(unoAUno, deUnaVez),
+                deUnaVez.tamaño() + " accesos frente a " + unoAUno.tamaño());
+    }
+
+    private static void comprobarAccesos(String nombre, LecturaLog lecturaLog, int esperados) {
+        int accesos = lecturaLog.accesosSSH.tamaño();
+        comprobar(nombre, accesos == esperados, accesos + " accesos en lugar de " + esperados);
+    }
+
+    // Espera a que el seguidor llegue a un número de accesos, o un segundo, y un poco más por si se pasa
+    private static void esperar(IndiceAccesos indice, int accesos) {
+        try {
+            for (int i = 0; i < 100 && indice.tamaño() < accesos; i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean iguales(IndiceAccesos a, IndiceAccesos b) {
+        if (a.tamaño() != b.tamaño()) {
+            return false;
+        }
+        for (int i = 0; i < a.tamaño(); i++) {
+            if (a.segundo(i) != b.segundo(i) || !a.host(i).equals(b.host(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Método principal: ejecuta todas las comprobaciones.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directorio = Path.of(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "comprobacion-log");
+        Files.createDirectories(directorio);
+        variosAños(directorio);
+        agregarTodos();
+        ordenRotados();
+        sinSaltoFinal(directorio);
+        truncadoMismoTamaño(directorio);
+        System.out.println(fallos == 0 ? "Todas las comprobaciones son correctas" : fallos + " comprobaciones fallidas");
+        if (fallos > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Comprobaciones de las métricas del proceso (Metricas): los percentiles de HistogramaLatencias, las
+ * cuentas con varios hilos a la vez, que los contadores del log y de la agenda cuentan el trabajo
+ * hecho, y que se pueden leer por JMX y en el informe periódico. Cada una escribe OK o FALLO; si
+ * alguna falla el programa termina con código 1.
+ * <p>
+ * Uso: {@code java ComprobacionMetricas [directorio]}.
+ */
+public class ComprobacionMetricas {
+
+    // Línea de fallo de autenticación a la que solo le falta el host
+    private static final String ACCESO = "Jun 14 15:16:01 combo sshd(pam_unix)[19939]: authentication failure; "
+            + "logname= uid=0 euid=0 tty=NODEVssh ruser= rhost=";
+
+    private static int fallos;
+
+    private ComprobacionMetricas() {
+    }
+
+    private static void comprobar(String nombre, boolean correcto, String detalle) {
+        System.out.println((correcto ? "OK    " : "FALLO ") + nombre + (correcto ? "" : ": " + detalle));
+        if (!correcto) {
+            fallos++;
+        }
+    }
+
+    /**
+     * Los percentiles de un histograma no se alejan del valor exacto más de 1/SUBCUBETAS, también en
+     * los extremos del rango de los long, y el máximo es exacto.
+     */
+    private static void percentiles() {
+        HistogramaLatencias histograma = new HistogramaLatencias();
+        for (long valor = 1; valor <= 1_000_000; valor++) {
+            histograma.registrar(valor);
+        }
+        boolean cerca = true;
+        StringBuilder detalle = new StringBuilder();
+        for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exacto = Math.round(q * 1_000_000);
+            long aproximado = histograma.percentil(q);
+            if (Math.abs(aproximado - exacto) > exacto / CubetasLogaritmicas.SUBCUBETAS) {
+                cerca = false;
+                detalle.append(" p").append(q).append('=').append(aproximado);
+            }
+        }
+        comprobar("percentiles con error acotado", cerca && histograma.getMaximo() == 1_000_000
+                && histograma.getCantidad() == 1_000_000, detalle + " máximo " + histograma.getMaximo());
+
+        HistogramaLatencias extremos = new HistogramaLatencias();
+        extremos.registrar(-5);
+        extremos.registrar(Long.MAX_VALUE);
+        comprobar("medidas negativas y Long.MAX_VALUE", extremos.percentil(0.5) == 0
+                && extremos.percentil(1) >= Long.MAX_VALUE - Long.MAX_VALUE / CubetasLogaritmicas.SUBCUBETAS,
+                extremos.percentil(0.5) + " y " + extremos.percentil(1));
+    }
+
+    /**
+     * Varios hilos que cuentan y registran a la vez en las mismas métricas no pierden ninguna medida.
+     */
+    private static void variosHilos() throws IOException {
+        int hilos = 4;
+        int porHilo = 250_000;
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < hilos; h++) {
+                futuros.add(ejecutor.submit(() -> {
+                    for (int i = 0; i < porHilo; i++) {
+                        Metricas.contador("comprobacion.contador").increment();
+                        Metricas.histograma("comprobacion.histograma").registrar(i);
+                    }
+                }));
+            }
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Comprobación interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            ejecutor.shutdown();
+        }
+        long contados = Metricas.contador("comprobacion.contador").sum();
+        long registrados = Metricas.histograma("comprobacion.histograma").getCantidad();
+        comprobar("contar desde varios hilos", contados == (long) hilos * porHilo && registrados == contados,
+                contados + " contados y " + registrados + " registrados");
+    }
+
+    /**
+     * Leer un log suma sus bytes y sus líneas, y reparte las líneas entre reconocidas y descartadas.
+     */
+    private static void log(Path directorio) throws IOException {
+        Path log = directorio.resolve("metricas.log");
+        StringBuilder texto = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            texto.append(ACCESO).append("10.0.").append(i / 256).append('.').append(i % 256).append('\n');
+            if (i % 4 == 0) {
+                texto.append("Jun 14 15:16:02 combo nada: línea que ninguna regla reconoce\n");
+            }
+        }
+        Files.writeString(log, texto, StandardCharsets.ISO_8859_1);
+        Map<String, Long> antes = leerContadores();
+        new MotorIngestaLog(new IndiceAccesos(), new DecodificadorFechaSyslog(2005)).ingerir(log);
+        Map<String, Long> despues = leerContadores();
+        long bytes = diferencia(antes, despues, "log.bytes");
+        long lineas = diferencia(antes, despues, "log.lineas");
+        long eventos = diferencia(antes, despues, "log.eventos");
+        long descartadas = diferencia(antes, despues, "log.descartadas");
+        comprobar("log.bytes y log.lineas", bytes == Files.size(log) && lineas == 1250,
+                bytes + " bytes y " + lineas + " líneas");
+        comprobar("log.eventos y log.descartadas", eventos >= 1000 && descartadas == 250,
+                eventos + " eventos y " + descartadas + " descartadas");
+    }
+
+    /**
+     * Cada operación de la agenda que termina bien registra su latencia, y las búsquedas se cuentan.
+     * Un alta repetida no cuenta como alta.
+     */
+    private static void agenda(Path directorio) throws IOException {
+        Path dir = directorio.resolve("agenda");
+        Files.createDirectories(dir);
+        for (String nombre : List.of("agenda.dat", "agenda.idx", "agenda.wal")) {
+            Files.deleteIfExists(dir.resolve(nombre));
+        }
+        long altas = Metricas.histograma("agenda.alta").getCantidad();
+        long modificaciones = Metricas.histograma("agenda.modificar").getCantidad();
+        long bajas = Metricas.histograma("agenda.borrar").getCantidad();
+        long busquedas = Metricas.contador("agenda.busquedas").sum();
+        try (Agenda agenda = new Agenda(dir)) {
+            for (int id = 0; id < 100; id++) {
+                agenda.creaContacto(new Contacto(id, "Nombre" + id, "Calle", String.valueOf(id)));
+            }
+            agenda.creaContacto(new Contacto(0, "Repetido", "Calle", "0"));
+            for (int id = 0; id < 100; id += 2) {
+                agenda.modificaContacto(new Contacto(id, "Otro" + id, "Calle", String.valueOf(id)));
+            }
+            for (int id = 0; id < 100; id += 4) {
+                agenda.borrarContacto(new Contacto(id, "", "", ""));
+            }
+            for (int id = 0; id < 10; id++) {
+                agenda.buscarContacto(id);
+            }
+        }
+        altas = Metricas.histograma("agenda.alta").getCantidad() - altas;
+        modificaciones = Metricas.histograma("agenda.modificar").getCantidad() - modificaciones;
+        bajas = Metricas.histograma("agenda.borrar").getCantidad() - bajas;
+        busquedas = Metricas.contador("agenda.busquedas").sum() - busquedas;
+        comprobar("latencias y búsquedas de la agenda", altas == 100 && modificaciones == 50 && bajas == 25
+                && busquedas == 10, altas + " altas, " + modificaciones + " modificaciones, " + bajas + " bajas, "
+                + busquedas + " búsquedas");
+    }
+
+    /**
+     * Lo que se publica por JMX y en JSON coincide con las métricas.
+     */
+    private static void jmx() throws IOException {
+        Metricas.contador("comprobacion.jmx").add(7);
+        Metricas.histograma("comprobacion.jmx").registrar(1000);
+        MetricasMXBean vista = vista();
+        Map<String, Long> contadores = vista.getContadores();
+        Map<String, String> histogramas = vista.getHistogramas();
+        String json = vista.getJson();
+        comprobar("contadores por JMX", Long.valueOf(7).equals(contadores.get("comprobacion.jmx")),
+                String.valueOf(contadores.get("comprobacion.jmx")));
+        comprobar("histogramas por JMX", String.valueOf(histogramas.get("comprobacion.jmx")).startsWith("n=1 "),
+                String.valueOf(histogramas.get("comprobacion.jmx")));
+        comprobar("métricas en JSON", json.contains("\"comprobacion.jmx\":7")
+                && json.contains("\"comprobacion.jmx\":{\"cantidad\":1,"), json);
+    }
+
+    /**
+     * El informe periódico se escribe en el fichero con las métricas del momento.
+     */
+    private static void informe(Path directorio) throws IOException {
+        Path fichero = directorio.resolve("metricas.json");
+        Files.deleteIfExists(fichero);
+        Metricas.contador("comprobacion.informe").add(3);
+        Metricas.informar(fichero, 1);
+        try {
+            for (int i = 0; i < 300 && !Files.exists(fichero); i++) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String contenido = Files.exists(fichero) ? Files.readString(fichero, StandardCharsets.UTF_8) : "";
+        comprobar("informe periódico en JSON", contenido.startsWith("{\"marca\":")
+                && contenido.contains("\"comprobacion.informe\":3"), Files.exists(fichero) ? contenido : "no se ha escrito");
+    }
+
+    private static Map<String, Long> leerContadores() throws IOException {
+        return vista().getContadores();
+    }
+
+    // Las métricas leídas a través del servidor de MBeans de la plataforma, como las vería jconsole
+    private static MetricasMXBean vista() throws IOException {
+        Metricas.contador("comprobacion.registro");
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName nombre = new ObjectName("Metricas:type=Proceso");
+            if (!servidor.isRegistered(nombre)) {
+                throw new IOException("Las métricas no están registradas por JMX");
+            }
+            return JMX.newMXBeanProxy(servidor, nombre, MetricasMXBean.class);
+        } catch (JMException e) {
+            throw new IOException("No se pueden leer las métricas por JMX", e);
+        }
+    }
+
+    private static long diferencia(Map<String, Long> antes, Map<String, Long> despues, String nombre) {
+        return despues.getOrDefault(nombre, 0L) - antes.getOrDefault(nombre, 0L);
+    }
+
+    /**
+     * Método principal: ejecuta todas las comprobaciones.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directorio = Path.of(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "comprobacion-metricas");
+        Files.createDirectories(directorio);
+        percentiles();
+        variosHilos();
+        log(directorio);
+        agenda(directorio);
+        jmx();
+        informe(directorio);
+        System.out.println(fallos == 0 ? "Todas las comprobaciones son correctas" : fallos + " comprobaciones fallidas");
+        if (fallos > 0) {
+            System.exit(1);
+        }
+    }
+}
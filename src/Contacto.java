@@ -1,5 +1,6 @@
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * Clase que representa un contacto con un ID, nombre, dirección y teléfono.
@@ -12,10 +13,10 @@ class Contacto implements Comparable<Contacto> {
     final static int LONGITUD_DIRECCION = 30;
     final static int LONGITUD_TELEFONO = 10;
 
-    // Tamaño del registro en bytes para acceder correctamente al archivo
+    // Tamaño del registro en bytes para acceder correctamente al archivo (ver CodecContacto)
     final static int SIZE_REGISTRO = 4 + // tamaño del int id
-            (LONGITUD_NOMBRE + LONGITUD_DIRECCION + LONGITUD_TELEFONO) +
-            6; // 2 bytes por cada campo String (UTF incluye longitud)
+            (LONGITUD_NOMBRE + LONGITUD_DIRECCION + LONGITUD_TELEFONO) + // un byte por carácter (ISO-8859-1)
+            6; // 2 bytes de longitud por cada campo String
 
     private int id;
     private String nombre;
@@ -98,6 +99,23 @@ class Contacto implements Comparable<Contacto> {
         return id + " " + nombre + " " + direccion + " " + telefono;
     }
 
+    /**
+     * Dos contactos son el mismo si tienen el mismo ID, que es la clave de la agenda.
+     * No es coherente con compareTo, que ordena por nombre.
+     *
+     * @param o Objeto con el que se compara
+     * @return true si es un contacto con el mismo ID
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Contacto otro && id == otro.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
     /**
      * Compara este contacto con otro por nombre (alfabéticamente).
      *
@@ -111,17 +129,16 @@ class Contacto implements Comparable<Contacto> {
     }
 
     /**
-     * Escribe un contacto en la posición actual del archivo.
+     * Escribe un contacto en la posición actual del archivo, con una sola escritura del registro completo.
      *
      * @param raf      Archivo de acceso aleatorio
      * @param contacto Contacto a escribir
      * @throws IOException Si ocurre un error al escribir
      */
     public static void escribirContacto(RandomAccessFile raf, Contacto contacto) throws IOException {
-        raf.writeInt(contacto.getId());
-        raf.writeUTF(contacto.getNombre());
-        raf.writeUTF(contacto.getDireccion());
-        raf.writeUTF(contacto.getTelefono());
+        ByteBuffer registro = ByteBuffer.allocate(SIZE_REGISTRO);
+        CodecContacto.codificar(contacto, registro, 0);
+        raf.write(registro.array());
     }
 
     /**
@@ -133,27 +150,24 @@ class Contacto implements Comparable<Contacto> {
      * @throws IOException Si la posición es inválida o hay error de escritura
      */
     public static void escribirContacto(RandomAccessFile raf, Contacto contacto, int posicion) throws IOException {
-        if (raf.length() > (posicion * SIZE_REGISTRO)) {
-            raf.seek(posicion * SIZE_REGISTRO);
-            escribirContacto(raf, contacto);
+        if (raf.length() > ((long) posicion * SIZE_REGISTRO)) {
+            CodecContacto.escribir(raf.getChannel(), posicion, contacto);
         } else {
             throw new IOException("Posicion fuera de rango");
         }
     }
 
     /**
-     * Lee un contacto desde la posición actual del archivo.
+     * Lee un contacto desde la posición actual del archivo, con una sola lectura del registro completo.
      *
      * @param raf Archivo de acceso aleatorio
      * @return Contacto leído
      * @throws IOException Si ocurre un error al leer
      */
     public static Contacto leerContacto(RandomAccessFile raf) throws IOException {
-        int id = raf.readInt();
-        String nombre = raf.readUTF();
-        String direccion = raf.readUTF();
-        String telefono = raf.readUTF();
-        return new Contacto(id, nombre, direccion, telefono);
+        byte[] registro = new byte[SIZE_REGISTRO];
+        raf.readFully(registro);
+        return CodecContacto.decodificar(ByteBuffer.wrap(registro), 0);
     }
 
     /**
@@ -165,9 +179,8 @@ class Contacto implements Comparable<Contacto> {
      * @throws IOException Si la posición es inválida o hay error de lectura
      */
     public static Contacto leerContacto(RandomAccessFile raf, int posicion) throws IOException {
-        if (raf.length() > (posicion * SIZE_REGISTRO)) {
-            raf.seek(posicion * SIZE_REGISTRO);
-            return leerContacto(raf);
+        if (raf.length() > ((long) posicion * SIZE_REGISTRO)) {
+            return CodecContacto.leer(raf.getChannel(), posicion);
         } else {
             throw new IOException("Posicion fuera de rango");
         }
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Cuenta de apariciones de palabras con direccionamiento abierto y sin objetos por palabra.
+ * Cada palabra distinta se copia una vez, en UTF-8, a un array de bytes común; sus datos (inicio,
+ * longitud, hash y cuenta) van en arrays paralelos, y la tabla guarda el número de entrada.
+ * Contar una palabra que ya está no crea nada: se busca por hash y bytes y se suma a su cuenta.
+ * Lo usa un solo hilo; en paralelo cada hilo lleva el suyo y se juntan al final con sumar.
+ */
+class ContadorPalabras implements TokenizadorPalabras.ReceptorPalabras {
+
+    private static final int VACIA = -1;
+
+    // Palabras distintas seguidas, en UTF-8
+    private byte[] texto = new byte[1 << 16];
+    private int usados;
+
+    // Datos de cada entrada, en el orden en que apareció la palabra
+    private int[] inicios = new int[1024];
+    private int[] longitudes = new int[1024];
+    private int[] hashes = new int[1024];
+    private long[] cuentas = new long[1024];
+    private int entradas;
+    private long total;
+
+    // Número de entrada de cada celda, VACIA si no hay ninguna; el tamaño es potencia de dos
+    private int[] tabla = nuevaTabla(2048);
+
+    @Override
+    public void palabra(byte[] bytes, int longitud) {
+        sumar(bytes, 0, longitud, hash(bytes, 0, longitud), 1);
+    }
+
+    /**
+     * Suma apariciones a una palabra, añadiéndola si no estaba.
+     * @param bytes    Array con la palabra en UTF-8.
+     * @param desde    Posición de la palabra en el array.
+     * @param longitud Longitud de la palabra en bytes.
+     * @param hash     Hash de la palabra calculado con hash().
+     * @param veces    Apariciones a sumar.
+     */
+    void sumar(byte[] bytes, int desde, int longitud, int hash, long veces) {
+        total += veces;
+        int mascara = tabla.length - 1;
+        for (int celda = hash & mascara; ; celda = (celda + 1) & mascara) {
+            int entrada = tabla[celda];
+            if (entrada == VACIA) {
+                tabla[celda] = nuevaEntrada(bytes, desde, longitud, hash, veces);
+                if (entradas * 2 > tabla.length) {
+                    rehacer(tabla.length * 2);
+                }
+                return;
+            }
+            if (hashes[entrada] == hash && Arrays.equals(texto, inicios[entrada], inicios[entrada] + longitudes[entrada],
+                    bytes, desde, desde + longitud)) {
+                cuentas[entrada] += veces;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Suma todas las cuentas de otro contador a este.
+     * @param otro Contador a juntar, que no cambia.
+     */
+    void sumar(ContadorPalabras otro) {
+        for (int i = 0; i < otro.entradas; i++) {
+            sumar(otro.texto, otro.inicios[i], otro.longitudes[i], otro.hashes[i], otro.cuentas[i]);
+        }
+    }
+
+    /**
+     * @param palabra Palabra ya normalizada.
+     * @return Apariciones de la palabra, 0 si no aparece.
+     */
+    long cuenta(String palabra) {
+        byte[] bytes = palabra.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+        int mascara = tabla.length - 1;
+        for (int celda = hash & mascara; tabla[celda] != VACIA; celda = (celda + 1) & mascara) {
+            int entrada = tabla[celda];
+            if (hashes[entrada] == hash && Arrays.equals(texto, inicios[entrada], inicios[entrada] + longitudes[entrada],
+                    bytes, 0, bytes.length)) {
+                return cuentas[entrada];
+            }
+        }
+        return 0;
+    }
+
+    /** @return Número de palabras distintas. */
+    int tamaño() {
+        return entradas;
+    }
+
+    /** @return Número total de palabras contadas. */
+    long total() {
+        return total;
+    }
+
+    /** @return Apariciones de la entrada. */
+    long cuenta(int entrada) {
+        return cuentas[entrada];
+    }
+
+    /** @return Palabra de la entrada. */
+    String palabra(int entrada) {
+        return new String(texto, inicios[entrada], longitudes[entrada], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escribe los bytes UTF-8 de la palabra de una entrada, sin crear el String.
+     */
+    void escribirPalabra(int entrada, OutputStream destino) throws IOException {
+        destino.write(texto, inicios[entrada], longitudes[entrada]);
+    }
+
+    /**
+     * Entradas en orden alfabético de sus palabras. Se comparan los bytes UTF-8 sin signo, que es
+     * el orden de los puntos de código, el mismo que el de un TreeMap de String para estos textos.
+     * @return Números de entrada ordenados.
+     */
+    int[] ordenAlfabetico() {
+        Integer[] orden = new Integer[entradas];
+        for (int i = 0; i < entradas; i++) {
+            orden[i] = i;
+        }
+        Arrays.sort(orden, this::compararPalabras);
+        int[] resultado = new int[entradas];
+        for (int i = 0; i < entradas; i++) {
+            resultado[i] = orden[i];
+        }
+        return resultado;
+    }
+
+    /**
+     * Calcula las n palabras más frecuentes con un montículo de tamaño n.
+     * A igual cuenta va antes la palabra menor alfabéticamente.
+     * @param n Número de palabras a devolver.
+     * @return Números de entrada de mayor a menor número de apariciones.
+     */
+    List<Integer> masFrecuentes(int n) {
+        Comparator<Integer> porCuenta = Comparator.comparingLong((Integer e) -> cuentas[e])
+                .thenComparing((a, b) -> compararPalabras(b, a));
+        PriorityQueue<Integer> monticulo = new PriorityQueue<>(Math.max(1, n), porCuenta);
+        for (int i = 0; i < entradas; i++) {
+            if (monticulo.size() < n) {
+                monticulo.add(i);
+            } else if (n > 0 && porCuenta.compare(i, monticulo.peek()) > 0) {
+                monticulo.poll();
+                monticulo.add(i);
+            }
+        }
+        List<Integer> resultado = new ArrayList<>(monticulo);
+        resultado.sort(porCuenta.reversed());
+        return resultado;
+    }
+
+    /**
+     * Hash FNV-1a de los bytes de una palabra.
+     */
+    static int hash(byte[] bytes, int desde, int longitud) {
+        int h = 0x811C9DC5;
+        for (int i = desde; i < desde + longitud; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private int compararPalabras(int a, int b) {
+        return Arrays.compareUnsigned(texto, inicios[a], inicios[a] + longitudes[a],
+                texto, inicios[b], inicios[b] + longitudes[b]);
+    }
+
+    private int nuevaEntrada(byte[] bytes, int desde, int longitud, int hash, long veces) {
+        if (usados + longitud > texto.length) {
+            texto = Arrays.copyOf(texto, Math.max(texto.length * 2, usados + longitud));
+        }
+        System.arraycopy(bytes, desde, texto, usados, longitud);
+        if (entradas == inicios.length) {
+            int capacidad = entradas * 2;
+            inicios = Arrays.copyOf(inicios, capacidad);
+            longitudes = Arrays.copyOf(longitudes, capacidad);
+            hashes = Arrays.copyOf(hashes, capacidad);
+            cuentas = Arrays.copyOf(cuentas, capacidad);
+        }
+        inicios[entradas] = usados;
+        longitudes[entradas] = longitud;
+        hashes[entradas] = hash;
+        cuentas[entradas] = veces;
+        usados += longitud;
+        return entradas++;
+    }
+
+    // Reparte las entradas en una tabla nueva; el hash de cada una ya está guardado
+    private void rehacer(int capacidad) {
+        tabla = nuevaTabla(capacidad);
+        int mascara = capacidad - 1;
+        for (int entrada = 0; entrada < entradas; entrada++) {
+            int celda = hashes[entrada] & mascara;
+            while (tabla[celda] != VACIA) {
+                celda = (celda + 1) & mascara;
+            }
+            tabla[celda] = entrada;
+        }
+    }
+
+    private static int[] nuevaTabla(int capacidad) {
+        int[] tabla = new int[capacidad];
+        Arrays.fill(tabla, VACIA);
+        return tabla;
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lectura y escritura de contactos en CSV (UTF-8), una línea por contacto:
+ * <pre>
+ *   id,nombre,direccion,telefono
+ * </pre>
+ * Un campo puede ir entre comillas dobles, con las comillas de dentro duplicadas, para que lleve comas.
+ * Los campos no pueden llevar saltos de línea. La primera línea se toma como cabecera si no empieza por un número.
+ * <p>
+ * La lectura va en bloques de TAMAÑO_BLOQUE bytes cortados en un salto de línea: cada bloque lo
+ * analiza un hilo de trabajo, que prepara un LoteContactos, y los lotes se entregan en el orden del
+ * fichero al hilo que llama, mientras los siguientes bloques se siguen analizando.
+ */
+class CsvContactos {
+
+    /** Cabecera que se escribe al exportar */
+    static final String CABECERA = "id,nombre,direccion,telefono";
+
+    /** Bytes del fichero que se leen y analizan de una vez */
+    static final int TAMAÑO_BLOQUE = 1 << 20;
+
+    /**
+     * Receptor de los lotes leídos, en el orden del fichero.
+     */
+    interface ReceptorLotes {
+        void lote(LoteContactos lote) throws IOException;
+    }
+
+    private CsvContactos() {
+    }
+
+    /**
+     * Lee un fichero CSV y entrega sus contactos por lotes. Las líneas que no son un contacto
+     * válido se cuentan en los erróneos del lote.
+     * @param fichero  Ruta del fichero CSV.
+     * @param hilos    Número de hilos que analizan bloques.
+     * @param receptor Receptor de los lotes, llamado desde el hilo que llama a leer.
+     * @throws IOException Si ocurre un error de lectura o lo lanza el receptor.
+     */
+    static void leer(Path fichero, int hilos, ReceptorLotes receptor) throws IOException {
+        ExecutorService analizadores = Executors.newFixedThreadPool(hilos, tarea -> {
+            Thread hilo = new Thread(tarea, "analizador-csv");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            // Como mucho dos bloques por hilo en vuelo: la memoria no depende del tamaño del fichero
+            Deque<Future<LoteContactos>> enCurso = new ArrayDeque<>();
+            byte[] bloque = new byte[TAMAÑO_BLOQUE];
+            int usados = 0;
+            boolean primero = true;
+            boolean finFichero = false;
+            while (!finFichero) {
+                ByteBuffer destino = ByteBuffer.wrap(bloque, usados, bloque.length - usados);
+                while (destino.hasRemaining()) {
+                    if (canal.read(destino) < 0) {
+                        finFichero = true;
+                        break;
+                    }
+                }
+                usados = destino.position();
+                int corte = finFichero ? usados : ultimaLinea(bloque, usados);
+                if (corte == 0 && !finFichero) {
+                    bloque = Arrays.copyOf(bloque, bloque.length * 2); // Una línea más larga que el bloque
+                    continue;
+                }
+                byte[] analizar = bloque;
+                int hasta = corte;
+                boolean cabecera = primero;
+                enCurso.add(analizadores.submit(() -> analizar(analizar, hasta, cabecera)));
+                primero = false;
+                // El trozo de línea que queda pasa al principio del bloque siguiente
+                bloque = new byte[Math.max(TAMAÑO_BLOQUE, usados - corte)];
+                System.arraycopy(analizar, corte, bloque, 0, usados - corte);
+                usados -= corte;
+                while (enCurso.size() >= hilos * 2) {
+                    receptor.lote(esperar(enCurso.poll()));
+                }
+            }
+            while (!enCurso.isEmpty()) {
+                receptor.lote(esperar(enCurso.poll()));
+            }
+        } finally {
+            analizadores.shutdownNow();
+        }
+    }
+
+    /**
+     * Escribe un contacto como una línea CSV, sin los espacios de relleno de los campos.
+     * @param contacto Contacto a escribir.
+     * @param destino  Destino de la línea.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static void escribir(Contacto contacto, Writer destino) throws IOException {
+        destino.write(Integer.toString(contacto.getId()));
+        destino.write(',');
+        escribirCampo(contacto.getNombre().strip(), destino);
+        destino.write(',');
+        escribirCampo(contacto.getDireccion().strip(), destino);
+        destino.write(',');
+        escribirCampo(contacto.getTelefono().strip(), destino);
+        destino.write('\n');
+    }
+
+    /**
+     * Analiza una línea CSV sin el salto de línea.
+     * @return El contacto, o null si la línea no tiene cuatro campos o el id no es válido.
+     */
+    static Contacto analizarLinea(byte[] bytes, int desde, int hasta) {
+        String[] campos = new String[4];
+        int n = 0;
+        int i = desde;
+        while (true) {
+            if (n == campos.length) {
+                return null; // Sobran campos
+            }
+            if (i < hasta && bytes[i] == '"') {
+                StringBuilder campo = new StringBuilder();
+                int inicio = ++i;
+                while (true) {
+                    if (i == hasta) {
+                        return null; // Comillas sin cerrar
+                    }
+                    if (bytes[i] == '"') {
+                        campo.append(new String(bytes, inicio, i - inicio, StandardCharsets.UTF_8));
+                        if (i + 1 < hasta && bytes[i + 1] == '"') {
+                            campo.append('"');
+                            i += 2;
+                            inicio = i;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+                campos[n++] = campo.toString();
+            } else {
+                int fin = i;
+                while (fin < hasta && bytes[fin] != ',') {
+                    fin++;
+                }
+                campos[n++] = new String(bytes, i, fin - i, StandardCharsets.UTF_8);
+                i = fin;
+            }
+            if (i == hasta) {
+                break;
+            }
+            if (bytes[i] != ',') {
+                return null; // Texto después de las comillas de cierre
+            }
+            i++;
+        }
+        if (n != campos.length) {
+            return null;
+        }
+        try {
+            int id = Integer.parseInt(campos[0].strip());
+            return id == CodecContacto.ID_BORRADO ? null : new Contacto(id, campos[1], campos[2], campos[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Analiza las líneas de bytes[0, hasta); si 'cabecera', la primera puede ser la cabecera
+    private static LoteContactos analizar(byte[] bytes, int hasta, boolean cabecera) {
+        LoteContactos lote = new LoteContactos(hasta / 48);
+        lote.bytes = hasta;
+        int inicio = 0;
+        while (inicio < hasta) {
+            int fin = inicio;
+            while (fin < hasta && bytes[fin] != '\n') {
+                fin++;
+            }
+            int finLinea = fin > inicio && bytes[fin - 1] == '\r' ? fin - 1 : fin;
+            if (finLinea > inicio && !(cabecera && inicio == 0 && !empiezaPorNumero(bytes, inicio, finLinea))) {
+                Contacto contacto = analizarLinea(bytes, inicio, finLinea);
+                if (contacto != null) {
+                    lote.añadir(contacto);
+                } else {
+                    lote.erroneos++;
+                }
+            }
+            inicio = fin + 1;
+        }
+        return lote;
+    }
+
+    private static boolean empiezaPorNumero(byte[] bytes, int desde, int hasta) {
+        int i = desde;
+        while (i < hasta && (bytes[i] == ' ' || bytes[i] == '"')) {
+            i++;
+        }
+        return i < hasta && (bytes[i] >= '0' && bytes[i] <= '9' || bytes[i] == '-' || bytes[i] == '+');
+    }
+
+    // Posición siguiente al último salto de línea, 0 si no hay ninguno
+    private static int ultimaLinea(byte[] bytes, int hasta) {
+        for (int i = hasta - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static void escribirCampo(String campo, Writer destino) throws IOException {
+        if (campo.indexOf(',') < 0 && campo.indexOf('"') < 0 && (campo.isEmpty() || campo.charAt(0) != ' ')) {
+            destino.write(campo);
+        } else {
+            destino.write('"');
+            destino.write(campo.replace("\"", "\"\""));
+            destino.write('"');
+        }
+    }
+
+    private static LoteContactos esperar(Future<LoteContactos> futuro) throws IOException {
+        try {
+            return futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lectura interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Cubetas logarítmicas de los histogramas de EstadisticasNumeros y HistogramaLatencias, como las de
+ * un histograma HDR: los valores menores que SUBCUBETAS van cada uno en su cubeta, y cada potencia
+ * de dos a partir de ahí se reparte en SUBCUBETAS cubetas iguales. Así el error relativo de un
+ * cuantil no pasa de 1/SUBCUBETAS sea cual sea el rango de los valores, con pocos cientos de cubetas.
+ */
+final class CubetasLogaritmicas {
+
+    /** Cubetas en que se divide cada potencia de dos */
+    static final int SUBCUBETAS = 16;
+
+    private static final int BITS_SUBCUBETA = Integer.numberOfTrailingZeros(SUBCUBETAS);
+
+    private CubetasLogaritmicas() {
+    }
+
+    /**
+     * @param bits Bits de los valores no negativos que se van a guardar: 31 para un int, 63 para un long.
+     * @return Número de cubetas que hacen falta para todo el rango.
+     */
+    static int numeroCubetas(int bits) {
+        return SUBCUBETAS + (bits - BITS_SUBCUBETA) * SUBCUBETAS;
+    }
+
+    /**
+     * Cubeta de un valor: el exponente de su bit más alto elige la potencia de dos y los
+     * BITS_SUBCUBETA bits siguientes la subcubeta.
+     * @param valor Valor no negativo.
+     */
+    static int cubeta(long valor) {
+        if (valor < SUBCUBETAS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int desplazamiento = exponente - BITS_SUBCUBETA;
+        return SUBCUBETAS + desplazamiento * SUBCUBETAS + (int) ((valor >>> desplazamiento) & (SUBCUBETAS - 1));
+    }
+
+    /**
+     * Primer valor de la cubeta. El de la cubeta siguiente a la última de los long no cabe y se satura
+     * a Long.MAX_VALUE.
+     */
+    static long inicioCubeta(int cubeta) {
+        if (cubeta < SUBCUBETAS) {
+            return cubeta;
+        }
+        int desplazamiento = (cubeta - SUBCUBETAS) / SUBCUBETAS;
+        long sub = (cubeta - SUBCUBETAS) % SUBCUBETAS;
+        return desplazamiento >= 63 - BITS_SUBCUBETA ? Long.MAX_VALUE : (SUBCUBETAS + sub) << desplazamiento;
+    }
+
+    /**
+     * Aproxima un cuantil con el valor central de la cubeta donde cae.
+     * @param cubetas Cuenta de cada cubeta.
+     * @param total   Suma de las cuentas, mayor que 0.
+     * @param q       Cuantil entre 0 y 1 (0,5 es la mediana).
+     * @return Valor central de la cubeta del cuantil.
+     */
+    static long cuantil(long[] cubetas, long total, double q) {
+        long posicion = Math.max(1, (long) Math.ceil(q * total));
+        long acumulado = 0;
+        int i = 0;
+        while (i < cubetas.length - 1 && (acumulado += cubetas[i]) < posicion) {
+            i++;
+        }
+        long inicio = inicioCubeta(i);
+        return inicio + (inicioCubeta(i + 1) - 1 - inicio) / 2;
+    }
+}
@@ -0,0 +1,208 @@
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Decodificador de la fecha "MMM dd HH:mm:ss" con la que empiezan las líneas de syslog.
+ * La fecha se lee a mano en posiciones fijas (el día puede venir con espacio: "Jul  1").
+ * Como syslog no escribe el año, se parte de un año base y se suma uno cada vez que
+ * el mes retrocede más de medio año (de diciembre a enero); una línea rezagada de
+ * diciembre que llegue ya en enero se asigna al año anterior sin cambiar el año en curso.
+ * Guarda la última fecha leída y el último día calculado, así una línea del mismo
+ * segundo no cuesta nada y el resto solo unas pocas operaciones con enteros.
+ * No es seguro entre hilos: cada lector usa el suyo.
+ */
+class DecodificadorFechaSyslog {
+
+    /** Longitud de la fecha "MMM dd HH:mm:ss" */
+    static final int LONGITUD = 15;
+
+    /** Valor devuelto cuando la fecha no es válida */
+    static final long FECHA_INVALIDA = Long.MIN_VALUE;
+
+    private static final String MESES = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    /** Devuelto por añoEquivalente cuando ningún año de partida da el mismo resultado */
+    static final int SIN_EQUIVALENTE = Integer.MIN_VALUE;
+
+    private int año;
+    private int ultimoMes;
+    private int primerMes = -1;
+
+    // Último día calculado (año, mes y día) y su número de día epoch
+    private int claveDia = -1;
+    private long diaEpoch;
+
+    // Últimos caracteres leídos y su resultado
+    private final char[] ultimaFecha = new char[LONGITUD];
+    private long ultimoSegundo = FECHA_INVALIDA;
+
+    /**
+     * Constructor del decodificador.
+     * @param añoBase Año de la primera línea del log.
+     */
+    DecodificadorFechaSyslog(int añoBase) {
+        this(añoBase, -1);
+    }
+
+    /**
+     * Constructor de un decodificador que continúa donde terminó otro.
+     * @param año       Año en curso del otro decodificador (getAño).
+     * @param ultimoMes Mes en curso del otro decodificador (getUltimoMes), -1 si no leyó ninguna fecha.
+     */
+    DecodificadorFechaSyslog(int año, int ultimoMes) {
+        this.año = año;
+        this.ultimoMes = ultimoMes;
+    }
+
+    /**
+     * Crea un decodificador que continúa después de una fecha ya conocida, por ejemplo
+     * la última del índice, para seguir leyendo un log sin perder el año.
+     * @param segundoEpoch Última fecha conocida en segundos epoch.
+     * @return El decodificador.
+     */
+    static DecodificadorFechaSyslog despuesDe(long segundoEpoch) {
+        LocalDateTime fecha = LocalDateTime.ofEpochSecond(segundoEpoch, 0, ZoneOffset.UTC);
+        DecodificadorFechaSyslog decodificador = new DecodificadorFechaSyslog(fecha.getYear());
+        decodificador.ultimoMes = fecha.getMonthValue() - 1;
+        return decodificador;
+    }
+
+    /**
+     * Lee el mes de una fecha de syslog.
+     * @param texto  Texto con la fecha.
+     * @param inicio Posición de la fecha.
+     * @return Mes de 0 (enero) a 11 (diciembre), o -1 si no es un mes válido.
+     */
+    static int mes(CharSequence texto, int inicio) {
+        if (texto.length() < inicio + 3) {
+            return -1;
+        }
+        char a = texto.charAt(inicio);
+        char b = texto.charAt(inicio + 1);
+        char c = texto.charAt(inicio + 2);
+        for (int i = 0; i < MESES.length(); i += 3) {
+            if (MESES.charAt(i) == a && MESES.charAt(i + 1) == b && MESES.charAt(i + 2) == c) {
+                return i / 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Convierte la fecha que empieza en 'inicio' a segundos epoch (hora del log tratada como UTC).
+     * @param texto  Línea del log.
+     * @param inicio Posición de la fecha.
+     * @return Segundos epoch, o FECHA_INVALIDA si la fecha no tiene el formato esperado.
+     */
+    long decodificar(CharSequence texto, int inicio) {
+        if (texto.length() < inicio + LONGITUD) {
+            return FECHA_INVALIDA;
+        }
+        if (igualALaUltima(texto, inicio)) {
+            return ultimoSegundo;
+        }
+
+        int mes = mes(texto, inicio);
+        int dia = digito(texto.charAt(inicio + 4), true) * 10 + digito(texto.charAt(inicio + 5), false);
+        int hora = digito(texto.charAt(inicio + 7), false) * 10 + digito(texto.charAt(inicio + 8), false);
+        int minuto = digito(texto.charAt(inicio + 10), false) * 10 + digito(texto.charAt(inicio + 11), false);
+        int segundo = digito(texto.charAt(inicio + 13), false) * 10 + digito(texto.charAt(inicio + 14), false);
+        if (mes < 0 || dia < 1 || hora < 0 || hora > 23 || minuto < 0 || minuto > 59 || segundo < 0 || segundo > 60
+                || texto.charAt(inicio + 3) != ' ' || texto.charAt(inicio + 6) != ' '
+                || texto.charAt(inicio + 9) != ':' || texto.charAt(inicio + 12) != ':') {
+            return FECHA_INVALIDA;
+        }
+
+        // Año: cambio de diciembre a enero o línea rezagada del año anterior
+        if (primerMes == -1) {
+            primerMes = mes;
+        }
+        int añoLinea = año;
+        if (ultimoMes != -1 && mes < ultimoMes - 6) {
+            año++;
+            añoLinea = año;
+            ultimoMes = mes;
+        } else if (ultimoMes != -1 && mes > ultimoMes + 6) {
+            añoLinea = año - 1;
+        } else {
+            ultimoMes = Math.max(ultimoMes, mes);
+        }
+
+        int clave = (añoLinea * 12 + mes) * 32 + dia;
+        if (clave != claveDia) {
+            try {
+                diaEpoch = LocalDate.of(añoLinea, mes + 1, dia).toEpochDay();
+            } catch (DateTimeException e) {
+                return FECHA_INVALIDA; // Día que no existe en ese mes
+            }
+            claveDia = clave;
+        }
+
+        for (int i = 0; i < LONGITUD; i++) {
+            ultimaFecha[i] = texto.charAt(inicio + i);
+        }
+        ultimoSegundo = diaEpoch * 86400 + hora * 3600 + minuto * 60 + segundo;
+        return ultimoSegundo;
+    }
+
+    /**
+     * @return Año en curso según las líneas leídas hasta ahora.
+     */
+    int getAño() {
+        return año;
+    }
+
+    /**
+     * @return Mes en curso (de 0 a 11) según las líneas leídas hasta ahora, -1 si no ha leído ninguna.
+     */
+    int getUltimoMes() {
+        return ultimoMes;
+    }
+
+    /**
+     * @return Mes (de 0 a 11) de la primera fecha leída, -1 si no ha leído ninguna.
+     */
+    int getPrimerMes() {
+        return primerMes;
+    }
+
+    /**
+     * Para un decodificador creado sin mes anterior (con el constructor de un año), calcula con qué año
+     * tendría que haber empezado para decodificar las mismas líneas igual que uno que continuase a
+     * partir del año y el mes indicados. El año y el mes se calculan igual sea cual sea el año de
+     * partida, así basta con mirar la primera fecha leída.
+     * @param año       Año en curso del decodificador que se continúa.
+     * @param ultimoMes Mes en curso del decodificador que se continúa, -1 si no leyó ninguna fecha.
+     * @return El año de partida equivalente, o SIN_EQUIVALENTE si la primera fecha leída es una
+     *         línea rezagada o un retroceso de pocos meses, que solo se decodifican igual continuando.
+     */
+    int añoEquivalente(int año, int ultimoMes) {
+        if (ultimoMes == -1 || primerMes == -1 || (primerMes >= ultimoMes && primerMes <= ultimoMes + 6)) {
+            return año;
+        }
+        return primerMes < ultimoMes - 6 ? año + 1 : SIN_EQUIVALENTE;
+    }
+
+    // Compara empezando por los segundos, que es lo que más cambia entre líneas
+    private boolean igualALaUltima(CharSequence texto, int inicio) {
+        if (ultimoSegundo == FECHA_INVALIDA) {
+            return false;
+        }
+        for (int i = LONGITUD - 1; i >= 0; i--) {
+            if (ultimaFecha[i] != texto.charAt(inicio + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Valor de un dígito, o un valor negativo grande si no lo es; el espacio vale 0 si se admite
+    private static int digito(char c, boolean admiteEspacio) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return admiteEspacio && c == ' ' ? 0 : -1000;
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Diario de escritura anticipada (write-ahead log) de la agenda.
+ * Cada cambio de un registro se anota en el diario, con el registro entero tal como debe quedar, y
+ * solo cuando la anotación está en disco se escribe en el fichero de datos. Si el programa cae, al
+ * abrir la agenda se vuelven a aplicar las anotaciones (recuperar), así ningún registro queda a medias.
+ * Formato de cada anotación (big endian), TAMAÑO_ANOTACION bytes:
+ * <pre>
+ *   int   hueco
+ *   SIZE_REGISTRO bytes del registro
+ *   int   CRC32C del hueco y el registro
+ * </pre>
+ * Una anotación con el CRC mal es el final de una escritura cortada por la caída: ahí termina el diario.
+ * <p>
+ * Confirmación en grupo: anotar solo copia la anotación a un buffer en memoria, y esperar la lleva a
+ * disco. El primer hilo que espera escribe todo lo anotado hasta ese momento y hace un solo force;
+ * los que llegan mientras tanto esperan y el siguiente escribe lo que han anotado ellos, así muchos
+ * cambios a la vez comparten la escritura y el force. El histograma agenda.diario de las métricas
+ * guarda lo que tarda cada una de estas escrituras con su force.
+ * Cuando los datos ya están en disco el diario no hace falta y se vacía (vaciar).
+ */
+class DiarioAgenda implements Closeable {
+
+    private static final int SIZE_REGISTRO = CodecContacto.SIZE_REGISTRO;
+
+    private static final HistogramaLatencias TIEMPO_ESCRITURA = Metricas.histograma("agenda.diario");
+
+    /** Tamaño de una anotación en bytes */
+    static final int TAMAÑO_ANOTACION = 4 + SIZE_REGISTRO + 4;
+
+    private final FileChannel canal;
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final Condition escrito = cerrojo.newCondition();
+
+    // Anotaciones pendientes de escribir; mientras un hilo escribe unas, las nuevas van a la otra
+    private ByteBuffer pendientes = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer libre = ByteBuffer.allocate(1 << 16);
+
+    private long anotadas;   // Número de la última anotación
+    private long duraderas;  // Las anotaciones hasta este número están en disco
+    private long fin;        // Bytes del fichero
+    private boolean escribiendo;
+    private IOException fallo;
+
+    /**
+     * Abre el diario para añadir anotaciones, creándolo si no existe.
+     * Hay que haberlo recuperado antes: las anotaciones que tenga se conservan pero no se aplican.
+     * @param fichero Ruta del diario.
+     * @throws IOException Si no se puede abrir.
+     */
+    DiarioAgenda(Path fichero) throws IOException {
+        canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        fin = canal.size();
+    }
+
+    /**
+     * Aplica al fichero de datos las anotaciones válidas del diario, lo lleva a disco y vacía el diario.
+     * @param diario Ruta del diario.
+     * @param datos  Ruta del fichero de datos.
+     * @return Número de anotaciones aplicadas.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    static int recuperar(Path diario, Path datos) throws IOException {
+        if (!Files.exists(diario) || Files.size(diario) < TAMAÑO_ANOTACION) {
+            return 0;
+        }
+        int aplicadas = 0;
+        try (FileChannel origen = FileChannel.open(diario, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel destino = FileChannel.open(datos, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer lote = ByteBuffer.allocate(TAMAÑO_ANOTACION * 1024);
+            ByteBuffer registro = ByteBuffer.allocate(SIZE_REGISTRO);
+            long posicion = 0;
+            leer:
+            while (true) {
+                lote.clear();
+                int leidos;
+                do {
+                    leidos = origen.read(lote, posicion + lote.position());
+                } while (leidos > 0 && lote.hasRemaining());
+                lote.flip();
+                if (lote.remaining() < TAMAÑO_ANOTACION) {
+                    break;
+                }
+                while (lote.remaining() >= TAMAÑO_ANOTACION) {
+                    int inicio = lote.position();
+                    if (crc(lote, inicio) != lote.getInt(inicio + 4 + SIZE_REGISTRO)) {
+                        break leer; // Anotación cortada: lo que sigue no llegó a escribirse
+                    }
+                    int hueco = lote.getInt(inicio);
+                    registro.clear();
+                    registro.put(0, lote, inicio + 4, SIZE_REGISTRO);
+                    while (registro.hasRemaining()) {
+                        destino.write(registro, (long) hueco * SIZE_REGISTRO + registro.position());
+                    }
+                    lote.position(inicio + TAMAÑO_ANOTACION);
+                    posicion += TAMAÑO_ANOTACION;
+                    aplicadas++;
+                }
+            }
+            destino.force(true);
+            origen.truncate(0);
+            origen.force(true);
+        }
+        return aplicadas;
+    }
+
+    /**
+     * Anota el estado nuevo de un registro. La anotación no está en disco hasta que se espera por ella.
+     * @param hueco    Número de registro.
+     * @param id       ID que se escribe en el registro (CodecContacto.ID_BORRADO para un borrado).
+     * @param contacto Contacto del registro.
+     * @return Número de la anotación, para esperar por ella.
+     */
+    long anotar(int hueco, int id, Contacto contacto) {
+        cerrojo.lock();
+        try {
+            if (pendientes.remaining() < TAMAÑO_ANOTACION) {
+                ByteBuffer mayor = ByteBuffer.allocate(pendientes.capacity() * 2);
+                pendientes.flip();
+                mayor.put(pendientes);
+                pendientes = mayor;
+            }
+            int inicio = pendientes.position();
+            pendientes.putInt(inicio, hueco);
+            CodecContacto.codificar(id, contacto, pendientes, inicio + 4);
+            pendientes.putInt(inicio + 4 + SIZE_REGISTRO, crc(pendientes, inicio));
+            pendientes.position(inicio + TAMAÑO_ANOTACION);
+            return ++anotadas;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Espera a que la anotación (y todas las anteriores) esté en disco, escribiéndola si no hay
+     * otro hilo escribiendo.
+     * @param anotacion Número devuelto por anotar.
+     * @throws IOException Si no se ha podido escribir el diario, ahora o antes: tras un fallo de force
+     *                     no se sabe qué llegó a disco y el diario ya no admite más esperas.
+     */
+    void esperar(long anotacion) throws IOException {
+        cerrojo.lock();
+        try {
+            while (duraderas < anotacion) {
+                if (fallo != null) {
+                    throw new IOException("No se ha podido escribir el diario", fallo);
+                }
+                if (escribiendo) {
+                    escrito.awaitUninterruptibly();
+                    continue;
+                }
+                // Este hilo escribe todo lo anotado hasta ahora, sin el cerrojo para que se pueda seguir anotando
+                escribiendo = true;
+                ByteBuffer lote = pendientes;
+                pendientes = libre;
+                long hasta = anotadas;
+                long posicion = fin;
+                IOException error = null;
+                cerrojo.unlock();
+                long inicio = System.nanoTime();
+                try {
+                    lote.flip();
+                    while (lote.hasRemaining()) {
+                        posicion += canal.write(lote, posicion);
+                    }
+                    canal.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    TIEMPO_ESCRITURA.registrar(System.nanoTime() - inicio);
+                    cerrojo.lock();
+                }
+                lote.clear();
+                libre = lote;
+                escribiendo = false;
+                if (error == null) {
+                    fin = posicion;
+                    duraderas = hasta;
+                } else {
+                    fallo = error;
+                }
+                escrito.signalAll();
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * @return Bytes escritos en el diario desde que se vació.
+     */
+    long tamaño() {
+        cerrojo.lock();
+        try {
+            return fin;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Vacía el diario. Los datos de todas las anotaciones deben estar ya en disco y no debe haber
+     * cambios en curso.
+     * @throws IOException Si ocurre un error al recortar el fichero.
+     */
+    void vaciar() throws IOException {
+        cerrojo.lock();
+        try {
+            canal.truncate(0);
+            canal.force(false);
+            fin = 0;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    // CRC32C del hueco y el registro de la anotación que empieza en la posición
+    private static int crc(ByteBuffer buffer, int inicio) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(inicio, 4 + SIZE_REGISTRO));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Escribe informes de accesos SSH con el formato "14 de JUNE de 2005 218.188.2.4".
+ * Solo recorre el rango pedido del índice y compone cada línea directamente en bytes
+ * sobre un buffer grande que se vuelca al canal cuando se llena.
+ * El texto de la fecha se calcula una vez por día y el de cada host una vez por host,
+ * por lo que cada escritor debe usarse siempre con el mismo índice.
+ */
+class EscritorInforme {
+
+    /** Tamaño del buffer de salida en bytes */
+    static final int TAMAÑO_BUFFER = 1 << 16;
+
+    private static final byte[] SALTO_LINEA = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(TAMAÑO_BUFFER);
+
+    // Texto del último día escrito, p. ej. "14 de JUNE de 2005 "
+    private long diaActual = Long.MIN_VALUE;
+    private byte[] textoDia;
+
+    // Texto de cada host ya escrito, por id de host
+    private byte[][] textoHosts = new byte[0][];
+
+    /**
+     * Escribe en el canal los accesos del índice entre dos fechas, ambas incluidas.
+     * @param indice Índice de accesos.
+     * @param desde  Fecha inicial en segundos epoch.
+     * @param hasta  Fecha final en segundos epoch.
+     * @param canal  Canal de salida; no se cierra.
+     * @return Número de líneas escritas.
+     * @throws IOException Si ocurre un error al escribir.
+     */
+    long escribir(IndiceAccesos indice, long desde, long hasta, WritableByteChannel canal) throws IOException {
+        buffer.clear();
+        int lineas = indice.recorrerIds(desde, hasta, (segundo, hostId) -> {
+            byte[] dia = textoDia(Math.floorDiv(segundo, 86400L));
+            byte[] host = textoHost(indice, hostId);
+            if (buffer.remaining() < dia.length + host.length + SALTO_LINEA.length) {
+                volcar(canal);
+            }
+            if (buffer.remaining() < dia.length + host.length + SALTO_LINEA.length) {
+                // Línea más larga que el buffer entero: se escribe por partes
+                escribirDirecto(canal, dia);
+                escribirDirecto(canal, host);
+                escribirDirecto(canal, SALTO_LINEA);
+            } else {
+                buffer.put(dia).put(host).put(SALTO_LINEA);
+            }
+        });
+        volcar(canal);
+        return lineas;
+    }
+
+    private byte[] textoDia(long dia) {
+        if (dia != diaActual) {
+            LocalDate fecha = LocalDate.ofEpochDay(dia);
+            String texto = fecha.getDayOfMonth() + " de " + fecha.getMonth() + " de " + fecha.getYear() + " ";
+            textoDia = texto.getBytes(StandardCharsets.ISO_8859_1);
+            diaActual = dia;
+        }
+        return textoDia;
+    }
+
+    private byte[] textoHost(IndiceAccesos indice, int hostId) {
+        if (hostId >= textoHosts.length) {
+            byte[][] nuevos = new byte[Math.max(hostId + 1, textoHosts.length * 2)][];
+            System.arraycopy(textoHosts, 0, nuevos, 0, textoHosts.length);
+            textoHosts = nuevos;
+        }
+        if (textoHosts[hostId] == null) {
+            textoHosts[hostId] = indice.nombreHost(hostId).getBytes(StandardCharsets.ISO_8859_1);
+        }
+        return textoHosts[hostId];
+    }
+
+    private void volcar(WritableByteChannel canal) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void escribirDirecto(WritableByteChannel canal, byte[] datos) throws IOException {
+        ByteBuffer envoltorio = ByteBuffer.wrap(datos);
+        while (envoltorio.hasRemaining()) {
+            canal.write(envoltorio);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.function.IntConsumer;
+
+/**
+ * Estadísticas de una serie de números naturales calculadas en una sola pasada, sin guardar los números.
+ * Cada número nuevo actualiza la cantidad, la suma, el mínimo, el máximo, la media y la varianza
+ * (método de Welford, que no pierde precisión al restar sumas grandes) y un histograma con las
+ * CubetasLogaritmicas del rango de int, con el que se aproximan los cuantiles: el error relativo
+ * de un cuantil no pasa de 1/SUBCUBETAS sea cual sea el rango de los números.
+ */
+class EstadisticasNumeros implements IntConsumer {
+
+    private final long[] cubetas = new long[CubetasLogaritmicas.numeroCubetas(31)];
+
+    private long cantidad;
+    private long suma;
+    private int minimo = Integer.MAX_VALUE;
+    private int maximo = Integer.MIN_VALUE;
+    private double media;
+    private double sumaCuadrados; // Suma de los cuadrados de las diferencias con la media (Welford)
+
+    /**
+     * Añade un número.
+     * @param numero Número natural (no negativo).
+     */
+    @Override
+    public void accept(int numero) {
+        cantidad++;
+        suma += numero;
+        minimo = Math.min(minimo, numero);
+        maximo = Math.max(maximo, numero);
+        double diferencia = numero - media;
+        media += diferencia / cantidad;
+        sumaCuadrados += diferencia * (numero - media);
+        cubetas[CubetasLogaritmicas.cubeta(numero)]++;
+    }
+
+    long getCantidad() {
+        return cantidad;
+    }
+
+    long getSuma() {
+        return suma;
+    }
+
+    /** @return El menor número, 0 si no hay ninguno. */
+    int getMinimo() {
+        return cantidad > 0 ? minimo : 0;
+    }
+
+    /** @return El mayor número, 0 si no hay ninguno. */
+    int getMaximo() {
+        return cantidad > 0 ? maximo : 0;
+    }
+
+    /** @return La media, 0 si no hay ningún número. */
+    double getMedia() {
+        return media;
+    }
+
+    /** @return La varianza de la población, 0 si no hay ningún número. */
+    double getVarianza() {
+        return cantidad > 0 ? sumaCuadrados / cantidad : 0;
+    }
+
+    double getDesviacion() {
+        return Math.sqrt(getVarianza());
+    }
+
+    /**
+     * Aproxima un cuantil con el histograma: el valor central de la cubeta donde cae, dentro del
+     * rango [mínimo, máximo]. Es exacto para los números menores que CubetasLogaritmicas.SUBCUBETAS.
+     * @param q Cuantil entre 0 y 1 (0,5 es la mediana).
+     * @return Valor aproximado del cuantil, 0 si no hay ningún número.
+     */
+    int cuantil(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Cuantil fuera de [0, 1]: " + q);
+        }
+        if (cantidad == 0) {
+            return 0;
+        }
+        return (int) Math.max(minimo, Math.min(maximo, CubetasLogaritmicas.cuantil(cubetas, cantidad, q)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d números, suma %d, mínimo %d, máximo %d, media %.3f, desviación %.3f,"
+                        + " mediana ~%d, p90 ~%d, p99 ~%d",
+                cantidad, suma, getMinimo(), getMaximo(), getMedia(), getDesviacion(),
+                cuantil(0.5), cuantil(0.9), cuantil(0.99));
+    }
+}
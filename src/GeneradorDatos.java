@@ -0,0 +1,176 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Generador de ficheros sintéticos del tamaño que se quiera, con el formato de los ficheros reales
+ * del proyecto: un syslog como Linux_2k.log, un texto en español como Quijote.txt (UTF-8 en NFD),
+ * un fichero de números como numNaturales.txt y un agenda.dat de registros de contactos.
+ * Con la misma semilla se genera siempre el mismo fichero.
+ */
+class GeneradorDatos {
+
+    private static final DateTimeFormatter FECHA_SYSLOG = DateTimeFormatter.ofPattern("MMM dd HH:mm:ss", Locale.ENGLISH);
+
+    // Palabras del texto y de los nombres de contactos
+    private static final String[] PALABRAS = {
+            "que", "de", "y", "la", "a", "el", "en", "no", "se", "los", "con", "por", "las", "lo", "le",
+            "su", "don", "Quijote", "Sancho", "señor", "merced", "caballero", "escudero", "dijo",
+            "respondió", "porque", "como", "más", "aquí", "Dulcinea", "Toboso", "España",
+            "verdad", "vuestra", "mundo", "aventura", "gigantes", "molinos", "viento", "camino", "venta",
+            "ventero", "Rocinante", "rucio", "insula", "gobernador", "cura", "barbero", "bachiller", "Sansón",
+            "pastor", "pastora", "amor", "historia", "libro", "libros", "caballerías", "encantadores",
+            "batalla", "lanza", "adarga", "yelmo", "Mambrino", "vergüenza", "niño", "año"};
+
+    // Las mismas en NFD, como Quijote.txt: las tildes van como marca combinante y la ñ como n + U+0303
+    private static final String[] PALABRAS_NFD = Arrays.stream(PALABRAS)
+            .map(palabra -> Normalizer.normalize(palabra, Normalizer.Form.NFD)).toArray(String[]::new);
+
+    private static final String[] SIGNOS = {" ", " ", " ", " ", " ", ", ", ". ", "; ", ": ", " ¿", "? ", " ¡", "! ", " –"};
+
+    private GeneradorDatos() {
+    }
+
+    /**
+     * Genera un syslog con líneas de sshd, ftpd, su y otros programas, en orden de fecha desde el
+     * 1 de enero, con el reparto de eventos aproximado de Linux_2k.log.
+     * @param fichero Ruta del fichero.
+     * @param bytes   Tamaño aproximado en bytes.
+     * @param semilla Semilla del generador aleatorio.
+     * @return Número de líneas escritas.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static long syslog(Path fichero, long bytes, long semilla) throws IOException {
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        LocalDateTime fecha = LocalDateTime.of(2005, 1, 1, 0, 0, 0);
+        long escritos = 0;
+        long lineas = 0;
+        try (BufferedWriter salida = Files.newBufferedWriter(fichero, StandardCharsets.ISO_8859_1)) {
+            while (escritos < bytes) {
+                fecha = fecha.plusSeconds(aleatorio.nextInt(3));
+                int pid = 1000 + aleatorio.nextInt(30000);
+                String ip = (1 + aleatorio.nextInt(223)) + "." + aleatorio.nextInt(256) + "."
+                        + aleatorio.nextInt(256) + "." + aleatorio.nextInt(256);
+                String mensaje = switch (aleatorio.nextInt(10)) {
+                    case 0, 1, 2, 3 -> "sshd(pam_unix)[" + pid + "]: authentication failure; logname= uid=0 euid=0"
+                            + " tty=NODEVssh ruser= rhost=" + ip + " ";
+                    case 4 -> "sshd(pam_unix)[" + pid + "]: check pass; user unknown";
+                    case 5 -> "ftpd[" + pid + "]: connection from " + ip + " (" + ip.replace('.', '-') + ".example.net) at "
+                            + fecha.format(FECHA_SYSLOG);
+                    case 6 -> "su(pam_unix)[" + pid + "]: session opened for user news by (uid=0)";
+                    case 7 -> "su(pam_unix)[" + pid + "]: session closed for user news";
+                    default -> "kernel: Out of Memory: Killed process " + pid + " (httpd).";
+                };
+                String linea = fecha.format(FECHA_SYSLOG) + " combo " + mensaje + "\n";
+                salida.write(linea);
+                escritos += linea.length();
+                lineas++;
+            }
+        }
+        return lineas;
+    }
+
+    /**
+     * Genera un texto en español con palabras, signos de puntuación y saltos de línea.
+     * @param fichero Ruta del fichero.
+     * @param bytes   Tamaño aproximado en bytes.
+     * @param semilla Semilla del generador aleatorio.
+     * @return Número de palabras escritas.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static long texto(Path fichero, long bytes, long semilla) throws IOException {
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        long escritos = 0;
+        long palabras = 0;
+        try (BufferedWriter salida = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8)) {
+            StringBuilder linea = new StringBuilder();
+            while (escritos < bytes) {
+                linea.setLength(0);
+                int enLinea = 6 + aleatorio.nextInt(10);
+                for (int i = 0; i < enLinea; i++) {
+                    // Más probables las primeras palabras, como en un texto real
+                    int palabra = Math.min(aleatorio.nextInt(PALABRAS.length), aleatorio.nextInt(PALABRAS.length));
+                    linea.append(PALABRAS_NFD[palabra]).append(SIGNOS[aleatorio.nextInt(SIGNOS.length)]);
+                }
+                linea.append('\n');
+                salida.append(linea);
+                escritos += linea.length();
+                palabras += enLinea;
+            }
+        }
+        return palabras;
+    }
+
+    /**
+     * Genera un fichero de números naturales, uno por línea, con una distribución exponencial.
+     * @param fichero  Ruta del fichero.
+     * @param numeros  Cantidad de números.
+     * @param semilla  Semilla del generador aleatorio.
+     * @return Bytes escritos.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static long enteros(Path fichero, long numeros, long semilla) throws IOException {
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        long escritos = 0;
+        try (BufferedWriter salida = Files.newBufferedWriter(fichero, StandardCharsets.US_ASCII)) {
+            for (long i = 0; i < numeros; i++) {
+                String numero = Long.toString((long) (-1000 * Math.log(1 - aleatorio.nextDouble())));
+                salida.write(numero);
+                salida.write('\n');
+                escritos += numero.length() + 1;
+            }
+        }
+        return escritos;
+    }
+
+    /**
+     * Genera un fichero de contactos con el formato de agenda.dat, con ids de 0 a contactos - 1
+     * en orden aleatorio.
+     * @param fichero   Ruta del fichero, que se sustituye si existe.
+     * @param contactos Número de contactos.
+     * @param semilla   Semilla del generador aleatorio.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static void agenda(Path fichero, int contactos, long semilla) throws IOException {
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        int[] ids = new int[contactos];
+        for (int i = 0; i < contactos; i++) {
+            int j = aleatorio.nextInt(i + 1); // Fisher-Yates hacia delante
+            ids[i] = ids[j];
+            ids[j] = i;
+        }
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            List<Contacto> lote = new ArrayList<>(4096);
+            for (int i = 0; i < contactos; i++) {
+                lote.add(contacto(ids[i], aleatorio));
+                if (lote.size() == 4096 || i == contactos - 1) {
+                    CodecContacto.escribir(canal, i + 1 - lote.size(), lote);
+                    lote.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Contacto aleatorio con el id indicado.
+     */
+    static Contacto contacto(int id, SplittableRandom aleatorio) {
+        String nombre = PALABRAS[aleatorio.nextInt(PALABRAS.length)] + " " + PALABRAS[aleatorio.nextInt(PALABRAS.length)];
+        return new Contacto(id, nombre,
+                "Calle " + PALABRAS[aleatorio.nextInt(PALABRAS.length)] + " " + aleatorio.nextInt(200),
+                Integer.toString(600000000 + aleatorio.nextInt(100000000)));
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos que se puede actualizar desde varios hilos sin bloqueos.
+ * Usa las CubetasLogaritmicas de todo el rango de long, así un percentil tiene como mucho un error
+ * relativo de 1/SUBCUBETAS desde 1 ns hasta siglos, con menos de mil contadores.
+ */
+class HistogramaLatencias {
+
+    private final AtomicLongArray cubetas = new AtomicLongArray(CubetasLogaritmicas.numeroCubetas(63));
+    private final LongAdder cantidad = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Registra una medida.
+     * @param nanos Duración en nanosegundos; las negativas (reloj que retrocede) cuentan como 0.
+     */
+    void registrar(long nanos) {
+        long valor = Math.max(0, nanos);
+        cubetas.incrementAndGet(CubetasLogaritmicas.cubeta(valor));
+        cantidad.increment();
+        suma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    long getCantidad() {
+        return cantidad.sum();
+    }
+
+    /** @return Suma de todas las medidas en nanosegundos. */
+    long getSuma() {
+        return suma.sum();
+    }
+
+    long getMaximo() {
+        return maximo.get();
+    }
+
+    double getMedia() {
+        long n = getCantidad();
+        return n > 0 ? (double) getSuma() / n : 0;
+    }
+
+    /**
+     * Aproxima un percentil con el valor central de la cubeta donde cae. Las medidas que llegan
+     * mientras se calcula pueden contar o no.
+     * @param q Percentil entre 0 y 1 (0,99 es el p99).
+     * @return Valor aproximado en nanosegundos, 0 si no hay medidas.
+     */
+    long percentil(double q) {
+        long[] copia = new long[cubetas.length()];
+        long total = 0;
+        for (int i = 0; i < copia.length; i++) {
+            copia[i] = cubetas.get(i);
+            total += copia[i];
+        }
+        return total == 0 ? 0 : Math.min(getMaximo(), CubetasLogaritmicas.cuantil(copia, total, q));
+    }
+}
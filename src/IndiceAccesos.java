@@ -0,0 +1,415 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice temporal de accesos SSH en columnas.
+ * Guarda cada acceso como un segundo epoch en un long[] y el identificador de su host
+ * en un int[]; los hosts se codifican con un diccionario, así cada nombre se guarda una vez.
+ * A diferencia de un TreeMap por fecha, conserva todos los accesos aunque coincidan en el
+ * mismo segundo, y cada uno ocupa 12 bytes en lugar de un LocalDateTime y un nodo del árbol.
+ * Admite un hilo que añade accesos (por ejemplo, el seguimiento del log) mientras otros consultan.
+ */
+class IndiceAccesos implements ReceptorAccesos {
+
+    /**
+     * Recibe los accesos de un recorrido por id de host.
+     */
+    @FunctionalInterface
+    interface VisitanteAccesos {
+        void visitar(long segundoEpoch, int hostId) throws IOException;
+    }
+
+    /**
+     * Recibe las columnas internas del índice, ya ordenadas, para volcarlas de una vez.
+     * Los arrays pueden ser más largos que el número de accesos y no deben modificarse.
+     */
+    @FunctionalInterface
+    interface LectorColumnas {
+        void leer(long[] segundos, int[] hostIds, int tamaño, List<String> hosts) throws IOException;
+    }
+
+    private long[] segundos;
+    private int[] hostIds;
+    private int tamaño;
+    private boolean ordenado = true;
+
+    // Diccionario de hosts: nombre -> id y id -> nombre
+    private final Map<String, Integer> idsPorHost = new HashMap<>();
+    private final List<String> hosts = new ArrayList<>();
+
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor de un índice vacío.
+     */
+    IndiceAccesos() {
+        this(1024);
+    }
+
+    /**
+     * Constructor de un índice vacío con capacidad inicial.
+     * @param capacidad Número de accesos previstos.
+     */
+    IndiceAccesos(int capacidad) {
+        segundos = new long[Math.max(capacidad, 16)];
+        hostIds = new int[segundos.length];
+    }
+
+    /**
+     * Crea un índice a partir de columnas ya ordenadas por fecha, sin copiarlas.
+     * @param segundos Fechas en segundos epoch, en orden.
+     * @param hostIds  Id de host de cada acceso.
+     * @param tamaño   Número de accesos válidos en los arrays.
+     * @param hosts    Diccionario de hosts por id.
+     * @return El índice creado.
+     */
+    static IndiceAccesos deColumnas(long[] segundos, int[] hostIds, int tamaño, List<String> hosts) {
+        IndiceAccesos indice = new IndiceAccesos(0);
+        indice.segundos = segundos.length == 0 ? new long[16] : segundos;
+        indice.hostIds = hostIds.length == 0 ? new int[16] : hostIds;
+        indice.tamaño = tamaño;
+        for (String host : hosts) {
+            indice.idHost(host);
+        }
+        return indice;
+    }
+
+    /**
+     * Añade un acceso. Si llega fuera de orden, el índice se reordena antes de la
+     * siguiente consulta.
+     */
+    @Override
+    public void acceso(long segundoEpoch, String host) {
+        cerrojo.writeLock().lock();
+        try {
+            agregar(segundoEpoch, idHost(host));
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Añade de una vez todos los accesos de otro índice: los hosts del lote se traducen una vez
+     * cada uno y las columnas se copian enteras.
+     * @param lote Índice con los accesos a añadir.
+     */
+    void agregarTodos(IndiceAccesos lote) {
+        lote.cerrojo.readLock().lock();
+        cerrojo.writeLock().lock();
+        try {
+            int[] traduccion = new int[lote.hosts.size()];
+            for (int j = 0; j < traduccion.length; j++) {
+                traduccion[j] = idHost(lote.hosts.get(j));
+            }
+            if (tamaño + lote.tamaño > segundos.length) {
+                int capacidad = Math.max(tamaño + lote.tamaño, tamaño + (tamaño >> 1));
+                segundos = Arrays.copyOf(segundos, capacidad);
+                hostIds = Arrays.copyOf(hostIds, capacidad);
+            }
+            if (lote.tamaño > 0 && (!lote.ordenado || (tamaño > 0 && lote.segundos[0] < segundos[tamaño - 1]))) {
+                ordenado = false;
+            }
+            System.arraycopy(lote.segundos, 0, segundos, tamaño, lote.tamaño);
+            for (int i = 0; i < lote.tamaño; i++) {
+                hostIds[tamaño + i] = traduccion[lote.hostIds[i]];
+            }
+            tamaño += lote.tamaño;
+        } finally {
+            cerrojo.writeLock().unlock();
+            lote.cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Añade de una vez los accesos de varios índices, mezclados en orden de fecha (mezcla de k vías:
+     * en cada paso sale el menor de los primeros accesos de cada bloque). Los accesos del mismo segundo
+     * salen en el orden de los bloques y, dentro de cada uno, en el suyo. Los hosts de cada bloque se
+     * traducen una vez cada uno y los accesos se escriben directamente en las columnas, con un solo cerrojo.
+     * @param bloques Índices con los accesos a añadir; con pocos bloques (uno por núcleo) buscar el
+     *                mínimo recorriendo las cabezas es suficiente.
+     */
+    void agregarMezclados(List<IndiceAccesos> bloques) {
+        int k = bloques.size();
+        for (IndiceAccesos bloque : bloques) {
+            bloque.bloquearOrdenado();
+        }
+        cerrojo.writeLock().lock();
+        try {
+            int[][] traducciones = new int[k][];
+            int total = tamaño;
+            for (int b = 0; b < k; b++) {
+                IndiceAccesos bloque = bloques.get(b);
+                traducciones[b] = new int[bloque.hosts.size()];
+                for (int j = 0; j < traducciones[b].length; j++) {
+                    traducciones[b][j] = idHost(bloque.hosts.get(j));
+                }
+                total += bloque.tamaño;
+            }
+            if (total > segundos.length) {
+                segundos = Arrays.copyOf(segundos, total);
+                hostIds = Arrays.copyOf(hostIds, total);
+            }
+
+            int[] cabezas = new int[k];
+            int anterior = tamaño;
+            while (tamaño < total) {
+                int elegido = -1;
+                long menor = Long.MAX_VALUE;
+                for (int b = 0; b < k; b++) {
+                    IndiceAccesos bloque = bloques.get(b);
+                    if (cabezas[b] < bloque.tamaño && (elegido == -1 || bloque.segundos[cabezas[b]] < menor)) {
+                        elegido = b;
+                        menor = bloque.segundos[cabezas[b]];
+                    }
+                }
+                segundos[tamaño] = menor;
+                hostIds[tamaño] = traducciones[elegido][bloques.get(elegido).hostIds[cabezas[elegido]++]];
+                tamaño++;
+            }
+            if (anterior > 0 && tamaño > anterior && segundos[anterior] < segundos[anterior - 1]) {
+                ordenado = false;
+            }
+        } finally {
+            cerrojo.writeLock().unlock();
+            for (IndiceAccesos bloque : bloques) {
+                bloque.cerrojo.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return Número de accesos del índice.
+     */
+    int tamaño() {
+        cerrojo.readLock().lock();
+        try {
+            return tamaño;
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Número de hosts distintos.
+     */
+    int numeroHosts() {
+        cerrojo.readLock().lock();
+        try {
+            return hosts.size();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    long segundo(int i) {
+        bloquearOrdenado();
+        try {
+            return segundos[i];
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    String host(int i) {
+        bloquearOrdenado();
+        try {
+            return hosts.get(hostIds[i]);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Fecha del último acceso en segundos epoch, o Long.MIN_VALUE si el índice está vacío.
+     */
+    long ultimoSegundo() {
+        bloquearOrdenado();
+        try {
+            return tamaño == 0 ? Long.MIN_VALUE : segundos[tamaño - 1];
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    String nombreHost(int hostId) {
+        cerrojo.readLock().lock();
+        try {
+            return hosts.get(hostId);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Busca el primer acceso con fecha mayor o igual que la indicada.
+     * @param segundoEpoch Fecha en segundos epoch.
+     * @return Posición del acceso, o tamaño() si no hay ninguno.
+     */
+    int primeroDesde(long segundoEpoch) {
+        bloquearOrdenado();
+        try {
+            return buscar(segundoEpoch);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Busca el primer acceso con fecha estrictamente mayor que la indicada.
+     * @param segundoEpoch Fecha en segundos epoch.
+     * @return Posición del acceso, o tamaño() si no hay ninguno.
+     */
+    int primeroDespues(long segundoEpoch) {
+        bloquearOrdenado();
+        try {
+            return buscarDespues(segundoEpoch);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre en orden de fecha los accesos entre dos fechas, ambas incluidas.
+     * @param desde     Fecha inicial en segundos epoch.
+     * @param hasta     Fecha final en segundos epoch.
+     * @param visitante Receptor de cada acceso del rango.
+     */
+    void recorrer(long desde, long hasta, ReceptorAccesos visitante) {
+        bloquearOrdenado();
+        try {
+            int fin = buscarDespues(hasta);
+            for (int i = buscar(desde); i < fin; i++) {
+                visitante.acceso(segundos[i], hosts.get(hostIds[i]));
+            }
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre en orden de fecha los accesos entre dos fechas, ambas incluidas, entregando
+     * el id de cada host en lugar de su nombre. Mientras dura el recorrido no se añaden accesos.
+     * @param desde     Fecha inicial en segundos epoch.
+     * @param hasta     Fecha final en segundos epoch.
+     * @param visitante Receptor de cada acceso del rango.
+     * @return Número de accesos recorridos.
+     * @throws IOException Si el visitante falla al escribir.
+     */
+    int recorrerIds(long desde, long hasta, VisitanteAccesos visitante) throws IOException {
+        bloquearOrdenado();
+        try {
+            int inicio = buscar(desde);
+            int fin = buscarDespues(hasta);
+            for (int i = inicio; i < fin; i++) {
+                visitante.visitar(segundos[i], hostIds[i]);
+            }
+            return Math.max(0, fin - inicio);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Entrega las columnas ordenadas al lector; mientras tanto no se añaden accesos.
+     * @param lector Destino de las columnas.
+     * @throws IOException Si el lector falla al escribir.
+     */
+    void leerColumnas(LectorColumnas lector) throws IOException {
+        bloquearOrdenado();
+        try {
+            lector.leer(segundos, hostIds, tamaño, hosts);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    // Toma el cerrojo de lectura con el índice ya ordenado
+    private void bloquearOrdenado() {
+        cerrojo.readLock().lock();
+        if (!ordenado) {
+            cerrojo.readLock().unlock();
+            cerrojo.writeLock().lock();
+            try {
+                ordenar();
+                cerrojo.readLock().lock();
+            } finally {
+                cerrojo.writeLock().unlock();
+            }
+        }
+    }
+
+    private int idHost(String host) {
+        Integer id = idsPorHost.get(host);
+        if (id == null) {
+            id = hosts.size();
+            idsPorHost.put(host, id);
+            hosts.add(host);
+        }
+        return id;
+    }
+
+    private void agregar(long segundoEpoch, int hostId) {
+        if (tamaño == segundos.length) {
+            int capacidad = Math.max(16, tamaño + (tamaño >> 1));
+            segundos = Arrays.copyOf(segundos, capacidad);
+            hostIds = Arrays.copyOf(hostIds, capacidad);
+        }
+        if (tamaño > 0 && segundoEpoch < segundos[tamaño - 1]) {
+            ordenado = false;
+        }
+        segundos[tamaño] = segundoEpoch;
+        hostIds[tamaño] = hostId;
+        tamaño++;
+    }
+
+    private int buscar(long segundoEpoch) {
+        int bajo = 0;
+        int alto = tamaño;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (segundos[medio] < segundoEpoch) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    private int buscarDespues(long segundoEpoch) {
+        return segundoEpoch == Long.MAX_VALUE ? tamaño : buscar(segundoEpoch + 1);
+    }
+
+    // Ordena por fecha de forma estable; los accesos del mismo segundo conservan su orden de llegada
+    private void ordenar() {
+        if (ordenado) {
+            return;
+        }
+        long minimo = Long.MAX_VALUE;
+        for (int i = 0; i < tamaño; i++) {
+            minimo = Math.min(minimo, segundos[i]);
+        }
+        // Desplazamiento en segundos en la parte alta y posición original en los 31 bits bajos
+        long[] claves = new long[tamaño];
+        for (int i = 0; i < tamaño; i++) {
+            claves[i] = ((segundos[i] - minimo) << 31) | i;
+        }
+        Arrays.sort(claves);
+
+        long[] nuevosSegundos = new long[segundos.length];
+        int[] nuevosHostIds = new int[hostIds.length];
+        for (int i = 0; i < tamaño; i++) {
+            int origen = (int) (claves[i] & Integer.MAX_VALUE);
+            nuevosSegundos[i] = segundos[origen];
+            nuevosHostIds[i] = hostIds[origen];
+        }
+        segundos = nuevosSegundos;
+        hostIds = nuevosHostIds;
+        ordenado = true;
+    }
+}
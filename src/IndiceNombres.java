@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Índice secundario de la agenda ordenado por nombre.
+ * Cada entrada guarda la clave de ordenación del nombre (Collator en español, sin distinguir
+ * mayúsculas ni espacios de relleno) y el hueco del registro. Las claves se calculan una vez, al
+ * añadir la entrada, y se comparan como bytes, así ordenar no vuelve a tocar los nombres.
+ * Se mantiene al crear, modificar y borrar contactos, y se guarda en un fichero aparte con las
+ * entradas ya ordenadas:
+ * <pre>
+ *   int   MAGICO, int VERSION
+ *   long  tamaño del fichero de datos, long fecha de modificación del fichero de datos (ms)
+ *   int   número de entradas
+ *   entradas: int hueco, short longitud + bytes de la clave, en orden
+ * </pre>
+ * Si el fichero de datos ha cambiado desde que se guardó el índice, no se usa y hay que rehacerlo.
+ * Se puede usar desde varios hilos: las entradas son inmutables y están en un ConcurrentSkipListSet,
+ * así recorrer el índice no bloquea a quien añade o quita, y ve los cambios que se hagan por delante.
+ */
+class IndiceNombres implements Iterable<Integer> {
+
+    static final int MAGICO = 0x41474958; // "AGIX"
+    static final int VERSION = 1;
+
+    private static final int TAMAÑO_CABECERA = 4 + 4 + 8 + 8 + 4;
+
+    /**
+     * Entrada del índice.
+     */
+    private static final class Entrada {
+        final byte[] clave;
+        final int hueco;
+
+        Entrada(byte[] clave, int hueco) {
+            this.clave = clave;
+            this.hueco = hueco;
+        }
+    }
+
+    // Orden por clave y, a igual nombre, por hueco
+    private static final Comparator<Entrada> ORDEN = (a, b) -> {
+        int c = Arrays.compareUnsigned(a.clave, b.clave);
+        return c != 0 ? c : Integer.compare(a.hueco, b.hueco);
+    };
+
+    // El Collator no admite varios hilos a la vez (getCollationKey está sincronizado): uno por hilo
+    private static final ThreadLocal<Collator> COLLATOR = ThreadLocal.withInitial(() -> {
+        Collator collator = Collator.getInstance(new Locale("es", "ES"));
+        collator.setStrength(Collator.SECONDARY); // Distingue acentos, no mayúsculas
+        return collator;
+    });
+
+    private final NavigableSet<Entrada> entradas = new ConcurrentSkipListSet<>(ORDEN);
+
+    // size() del conjunto recorre todas las entradas: se lleva la cuenta aparte
+    private final AtomicInteger tamaño = new AtomicInteger();
+
+    /**
+     * Añade el nombre de un registro.
+     * @param nombre Nombre del contacto.
+     * @param hueco  Hueco del registro.
+     */
+    void añadir(String nombre, int hueco) {
+        añadir(clave(nombre), hueco);
+    }
+
+    /**
+     * Añade un registro con la clave de su nombre ya calculada con clave(), por ejemplo en otro hilo.
+     */
+    void añadir(byte[] clave, int hueco) {
+        if (entradas.add(new Entrada(clave, hueco))) {
+            tamaño.incrementAndGet();
+        }
+    }
+
+    /**
+     * Quita el nombre de un registro.
+     * @param nombre Nombre que tenía el contacto en el índice.
+     * @param hueco  Hueco del registro.
+     */
+    void quitar(String nombre, int hueco) {
+        if (entradas.remove(new Entrada(clave(nombre), hueco))) {
+            tamaño.decrementAndGet();
+        }
+    }
+
+    int tamaño() {
+        return tamaño.get();
+    }
+
+    /**
+     * Crea el índice con los huecos que quedan tras compactar el fichero. Como la compactación
+     * conserva el orden de los huecos, el orden de las entradas no cambia y no se recalculan claves.
+     * Este índice no cambia: quien lo esté recorriendo sigue viendo los huecos anteriores.
+     * @param nuevos Hueco nuevo de cada hueco anterior, o -1 para los borrados.
+     * @return Índice con los huecos nuevos.
+     */
+    IndiceNombres remapear(int[] nuevos) {
+        IndiceNombres remapeado = new IndiceNombres();
+        for (Entrada entrada : entradas) {
+            int nuevo = entrada.hueco < nuevos.length ? nuevos[entrada.hueco] : -1;
+            if (nuevo != -1) {
+                remapeado.entradas.add(new Entrada(entrada.clave, nuevo));
+                remapeado.tamaño.incrementAndGet();
+            }
+        }
+        return remapeado;
+    }
+
+    /**
+     * Recorre los huecos en orden de nombre.
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        Iterator<Entrada> it = entradas.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return it.next().hueco;
+            }
+        };
+    }
+
+    /**
+     * Guarda el índice en un fichero temporal que después sustituye al anterior de forma atómica.
+     * El fichero de datos debe estar ya escrito en disco, para que su tamaño y fecha sean los definitivos.
+     * Nadie debe modificar el índice mientras se guarda.
+     * @param indice Ruta del fichero del índice.
+     * @param datos  Ruta del fichero de datos al que corresponde.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    void guardar(Path indice, Path datos) throws IOException {
+        Path temporal = indice.resolveSibling(indice.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            buffer.putInt(MAGICO).putInt(VERSION)
+                    .putLong(Files.size(datos)).putLong(Files.getLastModifiedTime(datos).toMillis())
+                    .putInt(tamaño.get());
+            for (Entrada entrada : entradas) {
+                if (buffer.remaining() < 6 + entrada.clave.length) {
+                    volcar(canal, buffer);
+                }
+                buffer.putInt(entrada.hueco).putShort((short) entrada.clave.length).put(entrada.clave);
+            }
+            volcar(canal, buffer);
+            canal.force(true);
+        }
+        Files.move(temporal, indice, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Carga el índice guardado si corresponde al fichero de datos en su estado actual.
+     * Las entradas ya vienen ordenadas: se leen seguidas, sin calcular claves ni leer los datos.
+     * @param indice Ruta del fichero del índice.
+     * @param datos  Ruta del fichero de datos.
+     * @return El índice, o null si no existe, está dañado o el fichero de datos ha cambiado.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    static IndiceNombres cargar(Path indice, Path datos) throws IOException {
+        MappedByteBuffer mapa = abrir(indice, datos);
+        if (mapa == null) {
+            return null;
+        }
+        try {
+            IndiceNombres nombres = new IndiceNombres();
+            int n = mapa.getInt();
+            Entrada anterior = null;
+            for (int i = 0; i < n; i++) {
+                int hueco = mapa.getInt();
+                byte[] clave = new byte[mapa.getShort() & 0xFFFF];
+                mapa.get(clave);
+                Entrada entrada = new Entrada(clave, hueco);
+                if (anterior != null && ORDEN.compare(anterior, entrada) >= 0) {
+                    return null; // Fuera de orden: índice dañado
+                }
+                nombres.entradas.add(entrada);
+                nombres.tamaño.incrementAndGet();
+                anterior = entrada;
+            }
+            return mapa.hasRemaining() ? null : nombres;
+        } catch (BufferUnderflowException e) {
+            return null; // Índice incompleto
+        }
+    }
+
+    /**
+     * Recorre los huecos de un índice guardado en orden de nombre sin cargarlo: se leen del fichero
+     * proyectado a medida que se piden, saltando las claves, así la memoria no depende del tamaño.
+     * Un índice incompleto termina donde se corta.
+     * @param indice Ruta del fichero del índice.
+     * @param datos  Ruta del fichero de datos.
+     * @return Los huecos, o null si el índice no existe, está dañado o el fichero de datos ha cambiado.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    static Iterator<Integer> recorrer(Path indice, Path datos) throws IOException {
+        MappedByteBuffer mapa = abrir(indice, datos);
+        if (mapa == null) {
+            return null;
+        }
+        int n = mapa.getInt();
+        return new Iterator<>() {
+            private int leidas;
+
+            @Override
+            public boolean hasNext() {
+                if (leidas == n || mapa.remaining() < 6) {
+                    return false;
+                }
+                int longitud = mapa.getShort(mapa.position() + 4) & 0xFFFF;
+                return mapa.remaining() >= 6 + longitud;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int hueco = mapa.getInt();
+                mapa.position(mapa.position() + 2 + (mapa.getShort() & 0xFFFF));
+                leidas++;
+                return hueco;
+            }
+        };
+    }
+
+    /**
+     * Clave de ordenación del nombre sin los espacios de relleno, como hace compareTo de Contacto.
+     * Se puede calcular desde cualquier hilo.
+     */
+    static byte[] clave(String nombre) {
+        return COLLATOR.get().getCollationKey(nombre.strip()).toByteArray();
+    }
+
+    // Proyecta el índice guardado y comprueba su cabecera; deja la posición en el número de entradas
+    private static MappedByteBuffer abrir(Path indice, Path datos) throws IOException {
+        if (!Files.exists(indice) || !Files.exists(datos)) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(indice, StandardOpenOption.READ)) {
+            if (canal.size() < TAMAÑO_CABECERA) {
+                return null;
+            }
+            // La proyección sigue siendo válida después de cerrar el canal
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (mapa.getInt() != MAGICO || mapa.getInt() != VERSION
+                    || mapa.getLong() != Files.size(datos)
+                    || mapa.getLong() != Files.getLastModifiedTime(datos).toMillis()) {
+                return null;
+            }
+            return mapa;
+        }
+    }
+
+    private static void volcar(FileChannel canal, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Índice primario de la agenda: relaciona el id de cada contacto con el hueco (número de registro)
+ * que ocupa en el fichero.
+ * Es una tabla hash de direccionamiento abierto con sondeo lineal. Cada entrada es un long con el id
+ * y el hueco juntos, guardado en un AtomicLongArray, así una lectura ve siempre una pareja completa
+ * y buscar no necesita bloqueos aunque otro hilo esté escribiendo.
+ * Las escrituras se hacen de una en una (métodos sincronizados). Al quitar, la entrada se marca como
+ * borrada en lugar de mover las siguientes, para no esconderlas a una búsqueda en curso; las marcas
+ * desaparecen al rehacer la tabla, que se sustituye entera por la nueva.
+ */
+class IndicePrimario {
+
+    /** Valor devuelto cuando el id no está en el índice */
+    static final int NO_ENCONTRADO = -1;
+
+    // Hueco de una entrada vacía (todos los bits a 1) y de una entrada borrada
+    private static final int VACIA = -1;
+    private static final int BORRADA = -2;
+
+    private volatile AtomicLongArray tabla;
+    private volatile int tamaño;
+
+    // Entradas vivas más borradas, que son las que alargan el sondeo
+    private int ocupadas;
+
+    /**
+     * Constructor del índice.
+     * @param capacidadInicial Número de contactos previsto.
+     */
+    IndicePrimario(int capacidadInicial) {
+        tabla = nuevaTabla(Integer.highestOneBit(Math.max(16, capacidadInicial * 2 - 1)) << 1);
+    }
+
+    /**
+     * Busca el hueco de un contacto.
+     * @param id ID del contacto.
+     * @return Hueco del fichero, o NO_ENCONTRADO si el id no está.
+     */
+    int obtener(int id) {
+        AtomicLongArray t = tabla;
+        int mascara = t.length() - 1;
+        for (int i = posicion(id, mascara); ; i = (i + 1) & mascara) {
+            long entrada = t.get(i);
+            int hueco = (int) entrada;
+            if (hueco == VACIA) {
+                return NO_ENCONTRADO;
+            }
+            if (hueco != BORRADA && (int) (entrada >>> 32) == id) {
+                return hueco;
+            }
+        }
+    }
+
+    boolean contiene(int id) {
+        return obtener(id) != NO_ENCONTRADO;
+    }
+
+    /**
+     * Añade un contacto o cambia su hueco si ya estaba.
+     * @param id    ID del contacto.
+     * @param hueco Hueco del fichero, mayor o igual que 0.
+     */
+    synchronized void poner(int id, int hueco) {
+        escribir(id, hueco, true);
+    }
+
+    /**
+     * Añade un contacto solo si su id no está ya en el índice.
+     * @param id    ID del contacto.
+     * @param hueco Hueco del fichero, mayor o igual que 0.
+     * @return true si se ha añadido, false si el id ya estaba.
+     */
+    synchronized boolean ponerSiAusente(int id, int hueco) {
+        return escribir(id, hueco, false);
+    }
+
+    /**
+     * Quita un contacto del índice.
+     * @param id ID del contacto.
+     * @return Hueco que tenía, o NO_ENCONTRADO si no estaba.
+     */
+    synchronized int quitar(int id) {
+        AtomicLongArray t = tabla;
+        int mascara = t.length() - 1;
+        for (int i = posicion(id, mascara); ; i = (i + 1) & mascara) {
+            long entrada = t.get(i);
+            int hueco = (int) entrada;
+            if (hueco == VACIA) {
+                return NO_ENCONTRADO;
+            }
+            if (hueco != BORRADA && (int) (entrada >>> 32) == id) {
+                t.set(i, empaquetar(id, BORRADA));
+                tamaño--;
+                return hueco;
+            }
+        }
+    }
+
+    int tamaño() {
+        return tamaño;
+    }
+
+    // Busca el id hasta una entrada vacía; si no está, lo escribe en la primera borrada o en la vacía
+    private boolean escribir(int id, int hueco, boolean sustituir) {
+        if (hueco < 0) {
+            throw new IllegalArgumentException("Hueco no válido: " + hueco);
+        }
+        AtomicLongArray t = tabla;
+        int mascara = t.length() - 1;
+        int libre = -1;
+        int i = posicion(id, mascara);
+        while (true) {
+            long entrada = t.get(i);
+            int actual = (int) entrada;
+            if (actual == VACIA) {
+                break;
+            }
+            if (actual == BORRADA) {
+                if (libre == -1) {
+                    libre = i;
+                }
+            } else if ((int) (entrada >>> 32) == id) {
+                if (sustituir) {
+                    t.set(i, empaquetar(id, hueco));
+                }
+                return sustituir;
+            }
+            i = (i + 1) & mascara;
+        }
+        if (libre == -1) {
+            libre = i;
+            ocupadas++;
+        }
+        t.set(libre, empaquetar(id, hueco));
+        tamaño++;
+        // Factor de carga máximo 0,5 contando las borradas: los sondeos se mantienen cortos
+        if (ocupadas * 2 > t.length()) {
+            rehacer();
+        }
+        return true;
+    }
+
+    // Copia las entradas vivas a una tabla nueva, más grande si hace falta, y la publica de una vez
+    private void rehacer() {
+        AtomicLongArray anterior = tabla;
+        int capacidad = tamaño * 4 > anterior.length() ? anterior.length() * 2 : anterior.length();
+        AtomicLongArray nueva = nuevaTabla(capacidad);
+        int mascara = capacidad - 1;
+        for (int j = 0; j < anterior.length(); j++) {
+            long entrada = anterior.get(j);
+            int hueco = (int) entrada;
+            if (hueco != VACIA && hueco != BORRADA) {
+                int i = posicion((int) (entrada >>> 32), mascara);
+                while ((int) nueva.get(i) != VACIA) {
+                    i = (i + 1) & mascara;
+                }
+                nueva.set(i, entrada);
+            }
+        }
+        ocupadas = tamaño;
+        tabla = nueva;
+    }
+
+    private static AtomicLongArray nuevaTabla(int capacidad) {
+        AtomicLongArray t = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            t.set(i, empaquetar(0, VACIA));
+        }
+        return t;
+    }
+
+    private static long empaquetar(int id, int hueco) {
+        return ((long) id << 32) | (hueco & 0xFFFFFFFFL);
+    }
+
+    // Posición natural de un id: mezcla sus bits para repartir también los ids consecutivos
+    private static int posicion(int id, int mascara) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mascara;
+    }
+}
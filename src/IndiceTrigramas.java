@@ -0,0 +1,360 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Índice de trigramas sobre los nombres de la agenda, para buscar por texto contenido en el nombre.
+ * Los nombres se normalizan una vez (minúsculas y sin acentos ni diéresis: "Peñalver" -> "penalver")
+ * y cada trigrama (tres caracteres seguidos) apunta a la lista ordenada de huecos cuyo nombre lo contiene.
+ * Una búsqueda de tres o más caracteres recorre la lista más corta de los trigramas del texto,
+ * comprueba en las demás con búsqueda binaria y confirma la coincidencia en el nombre normalizado.
+ * Los textos más cortos recorren los nombres normalizados. En ambos casos los resultados se
+ * producen a medida que se piden, en orden de hueco, así una búsqueda con límite se detiene pronto.
+ * <p>
+ * Las búsquedas no bloquean: las listas no se modifican, al añadir o quitar se sustituyen por otras,
+ * y una búsqueda trabaja con las que había al empezar. Para no copiar una lista larga en cada cambio,
+ * los huecos añadidos y quitados se llevan en dos arrays cortos aparte, que se funden con la lista
+ * cuando pasan de su raíz cuadrada: cada cambio copia del orden de la raíz de la lista, no la lista entera. Añadir y quitar nombres se hace de uno en uno.
+ */
+class IndiceTrigramas {
+
+    /**
+     * Lista de huecos de un trigrama mientras se construye el índice, antes de publicarla.
+     */
+    private static final class ListaHuecos {
+        int[] huecos = new int[4];
+        int tamaño;
+
+        // Los huecos llegan en orden: un hueco repetido es el mismo trigrama dos veces en un nombre
+        void añadir(int hueco) {
+            if (tamaño > 0 && huecos[tamaño - 1] == hueco) {
+                return;
+            }
+            if (tamaño == huecos.length) {
+                huecos = Arrays.copyOf(huecos, tamaño * 2);
+            }
+            huecos[tamaño++] = hueco;
+        }
+    }
+
+    /**
+     * Lista ordenada de huecos de un trigrama, que no cambia: base más añadidos menos quitados.
+     * Los añadidos no están en la base y los quitados sí.
+     */
+    private static final class Lista {
+        private static final int[] VACIO = new int[0];
+
+        final int[] base;
+        final int[] añadidos;
+        final int[] quitados;
+
+        Lista(int[] base, int[] añadidos, int[] quitados) {
+            this.base = base;
+            this.añadidos = añadidos;
+            this.quitados = quitados;
+        }
+
+        int tamaño() {
+            return base.length + añadidos.length - quitados.length;
+        }
+
+        boolean contiene(int hueco) {
+            return Arrays.binarySearch(añadidos, hueco) >= 0
+                    || Arrays.binarySearch(base, hueco) >= 0 && Arrays.binarySearch(quitados, hueco) < 0;
+        }
+
+        // Lista con el hueco añadido, o esta misma si ya estaba (trigrama repetido en el nombre)
+        Lista con(int hueco) {
+            if (Arrays.binarySearch(quitados, hueco) >= 0) {
+                return nueva(base, añadidos, sinHueco(quitados, hueco));
+            }
+            if (Arrays.binarySearch(base, hueco) >= 0 || Arrays.binarySearch(añadidos, hueco) >= 0) {
+                return this;
+            }
+            return nueva(base, conHueco(añadidos, hueco), quitados);
+        }
+
+        // Lista sin el hueco, null si queda vacía, o esta misma si no estaba
+        Lista sin(int hueco) {
+            Lista lista = this;
+            if (Arrays.binarySearch(añadidos, hueco) >= 0) {
+                lista = nueva(base, sinHueco(añadidos, hueco), quitados);
+            } else if (Arrays.binarySearch(base, hueco) >= 0 && Arrays.binarySearch(quitados, hueco) < 0) {
+                lista = nueva(base, añadidos, conHueco(quitados, hueco));
+            }
+            return lista.tamaño() == 0 ? null : lista;
+        }
+
+        // Todos los huecos en un array ordenado
+        int[] huecos() {
+            if (añadidos.length == 0 && quitados.length == 0) {
+                return base;
+            }
+            int[] huecos = new int[tamaño()];
+            int n = 0;
+            int j = 0;
+            int k = 0;
+            for (int hueco : base) {
+                while (j < añadidos.length && añadidos[j] < hueco) {
+                    huecos[n++] = añadidos[j++];
+                }
+                if (k < quitados.length && quitados[k] == hueco) {
+                    k++;
+                } else {
+                    huecos[n++] = hueco;
+                }
+            }
+            while (j < añadidos.length) {
+                huecos[n++] = añadidos[j++];
+            }
+            return huecos;
+        }
+
+        // Funde los cambios con la base cuando pasan de su raíz cuadrada
+        private static Lista nueva(int[] base, int[] añadidos, int[] quitados) {
+            Lista lista = new Lista(base, añadidos, quitados);
+            if (añadidos.length + quitados.length > Math.max(16, (int) Math.sqrt(base.length))) {
+                lista = new Lista(lista.huecos(), VACIO, VACIO);
+            }
+            return lista;
+        }
+
+        private static int[] conHueco(int[] huecos, int hueco) {
+            int i = -Arrays.binarySearch(huecos, hueco) - 1;
+            int[] copia = new int[huecos.length + 1];
+            System.arraycopy(huecos, 0, copia, 0, i);
+            copia[i] = hueco;
+            System.arraycopy(huecos, i, copia, i + 1, huecos.length - i);
+            return copia;
+        }
+
+        private static int[] sinHueco(int[] huecos, int hueco) {
+            int i = Arrays.binarySearch(huecos, hueco);
+            int[] copia = new int[huecos.length - 1];
+            System.arraycopy(huecos, 0, copia, 0, i);
+            System.arraycopy(huecos, i + 1, copia, i, huecos.length - i - 1);
+            return copia;
+        }
+    }
+
+    private final Map<Long, Lista> listas = new ConcurrentHashMap<>();
+
+    // Nombre normalizado de cada hueco, null si el hueco no está en el índice. Crece sustituyéndolo por uno mayor
+    private volatile AtomicReferenceArray<String> nombres;
+
+    /**
+     * Crea el índice con los nombres de la agenda.
+     * @param nombresPorHueco Nombre del contacto de cada hueco, o null en los huecos sin contacto.
+     */
+    IndiceTrigramas(String[] nombresPorHueco) {
+        Map<Long, ListaHuecos> construidas = new HashMap<>();
+        AtomicReferenceArray<String> normalizados = new AtomicReferenceArray<>(Math.max(16, nombresPorHueco.length));
+        for (int hueco = 0; hueco < nombresPorHueco.length; hueco++) {
+            if (nombresPorHueco[hueco] == null) {
+                continue;
+            }
+            String normalizado = normalizar(nombresPorHueco[hueco]);
+            normalizados.set(hueco, normalizado);
+            for (int i = 0; i + 3 <= normalizado.length(); i++) {
+                construidas.computeIfAbsent(trigrama(normalizado, i), t -> new ListaHuecos()).añadir(hueco);
+            }
+        }
+        for (Map.Entry<Long, ListaHuecos> e : construidas.entrySet()) {
+            listas.put(e.getKey(), new Lista(Arrays.copyOf(e.getValue().huecos, e.getValue().tamaño), Lista.VACIO, Lista.VACIO));
+        }
+        nombres = normalizados;
+    }
+
+    private IndiceTrigramas(AtomicReferenceArray<String> nombres) {
+        this.nombres = nombres;
+    }
+
+    /**
+     * Normaliza un texto para buscar: sin espacios alrededor, en minúsculas y sin marcas de acento.
+     * @param texto Texto a normalizar.
+     * @return Texto normalizado.
+     */
+    static String normalizar(String texto) {
+        String descompuesto = Normalizer.normalize(texto.strip().toLowerCase(), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(descompuesto.length());
+        for (int i = 0; i < descompuesto.length(); i++) {
+            char c = descompuesto.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Añade el nombre de un hueco, sustituyendo el que tuviera.
+     * @param nombre Nombre del contacto.
+     * @param hueco  Hueco del registro.
+     */
+    synchronized void añadir(String nombre, int hueco) {
+        quitar(hueco);
+        String normalizado = normalizar(nombre);
+        for (int i = 0; i + 3 <= normalizado.length(); i++) {
+            Long t = trigrama(normalizado, i);
+            Lista lista = listas.get(t);
+            listas.put(t, lista == null ? new Lista(new int[] {hueco}, Lista.VACIO, Lista.VACIO) : lista.con(hueco));
+        }
+        AtomicReferenceArray<String> actuales = nombres;
+        if (hueco >= actuales.length()) {
+            AtomicReferenceArray<String> mayores = new AtomicReferenceArray<>(Math.max(hueco + 1, actuales.length() * 2));
+            for (int i = 0; i < actuales.length(); i++) {
+                mayores.set(i, actuales.get(i));
+            }
+            nombres = actuales = mayores;
+        }
+        actuales.set(hueco, normalizado);
+    }
+
+    /**
+     * Quita el nombre de un hueco.
+     * @param hueco Hueco del registro.
+     */
+    synchronized void quitar(int hueco) {
+        AtomicReferenceArray<String> actuales = nombres;
+        String normalizado = hueco < actuales.length() ? actuales.get(hueco) : null;
+        if (normalizado == null) {
+            return;
+        }
+        actuales.set(hueco, null);
+        for (int i = 0; i + 3 <= normalizado.length(); i++) {
+            Long t = trigrama(normalizado, i);
+            Lista lista = listas.get(t);
+            if (lista == null) {
+                continue; // Trigrama repetido en el nombre, ya quitado
+            }
+            Lista restante = lista.sin(hueco);
+            if (restante == null) {
+                listas.remove(t);
+            } else {
+                listas.put(t, restante);
+            }
+        }
+    }
+
+    /**
+     * Crea el índice con los huecos que quedan tras compactar el fichero. Como la compactación
+     * conserva el orden de los huecos, las listas siguen ordenadas. Este índice no cambia.
+     * @param nuevos Hueco nuevo de cada hueco anterior, o -1 para los borrados.
+     * @return Índice con los huecos nuevos.
+     */
+    synchronized IndiceTrigramas remapear(int[] nuevos) {
+        AtomicReferenceArray<String> actuales = nombres;
+        AtomicReferenceArray<String> remapeados = new AtomicReferenceArray<>(Math.max(16, actuales.length()));
+        for (int i = 0; i < Math.min(actuales.length(), nuevos.length); i++) {
+            if (nuevos[i] != -1) {
+                remapeados.set(nuevos[i], actuales.get(i));
+            }
+        }
+        IndiceTrigramas remapeado = new IndiceTrigramas(remapeados);
+        for (Map.Entry<Long, Lista> e : listas.entrySet()) {
+            int[] lista = e.getValue().huecos();
+            int[] nueva = new int[lista.length];
+            int n = 0;
+            for (int hueco : lista) {
+                int nuevo = hueco < nuevos.length ? nuevos[hueco] : -1;
+                if (nuevo != -1) {
+                    nueva[n++] = nuevo;
+                }
+            }
+            if (n > 0) {
+                remapeado.listas.put(e.getKey(), new Lista(n == nueva.length ? nueva : Arrays.copyOf(nueva, n), Lista.VACIO, Lista.VACIO));
+            }
+        }
+        return remapeado;
+    }
+
+    /**
+     * Busca los huecos cuyo nombre contiene el texto, sin distinguir mayúsculas ni acentos.
+     * Los huecos se calculan a medida que se recorre el resultado.
+     * @param texto Texto a buscar.
+     * @return Huecos que coinciden, en orden creciente.
+     */
+    Iterator<Integer> buscar(String texto) {
+        String buscado = normalizar(texto);
+        if (buscado.length() < 3) {
+            return new Coincidencias(buscado, null, List.of());
+        }
+        List<Lista> necesarias = new ArrayList<>();
+        for (int i = 0; i + 3 <= buscado.length(); i++) {
+            Lista lista = listas.get(trigrama(buscado, i));
+            if (lista == null) {
+                return Collections.emptyIterator(); // Ningún nombre tiene ese trigrama
+            }
+            if (!necesarias.contains(lista)) {
+                necesarias.add(lista);
+            }
+        }
+        necesarias.sort(Comparator.comparingInt(Lista::tamaño));
+        return new Coincidencias(buscado, necesarias.get(0).huecos(), necesarias.subList(1, necesarias.size()));
+    }
+
+    // Recorre los candidatos (la lista más corta, o todos los nombres si no hay lista) y se queda con los que coinciden
+    private final class Coincidencias implements Iterator<Integer> {
+        private final String buscado;
+        private final int[] candidatos;
+        private final List<Lista> otras;
+        private final AtomicReferenceArray<String> normalizados = nombres;
+        private int posicion;
+        private int siguiente = -1;
+
+        Coincidencias(String buscado, int[] candidatos, List<Lista> otras) {
+            this.buscado = buscado;
+            this.candidatos = candidatos;
+            this.otras = otras;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (siguiente == -1 && posicion < (candidatos != null ? candidatos.length : normalizados.length())) {
+                int hueco = candidatos != null ? candidatos[posicion] : posicion;
+                posicion++;
+                if (coincide(hueco)) {
+                    siguiente = hueco;
+                }
+            }
+            return siguiente != -1;
+        }
+
+        @Override
+        public Integer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int hueco = siguiente;
+            siguiente = -1;
+            return hueco;
+        }
+
+        private boolean coincide(int hueco) {
+            String nombre = hueco < normalizados.length() ? normalizados.get(hueco) : null;
+            if (nombre == null) {
+                return false;
+            }
+            for (Lista lista : otras) {
+                if (!lista.contiene(hueco)) {
+                    return false;
+                }
+            }
+            // Tener todos los trigramas no basta: pueden estar en otro orden
+            return nombre.contains(buscado);
+        }
+    }
+
+    private static Long trigrama(String texto, int i) {
+        return ((long) texto.charAt(i) << 32) | ((long) texto.charAt(i + 1) << 16) | texto.charAt(i + 2);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Ingesta de un log rotado en varios ficheros, con número ("auth.log", "auth.log.1", "auth.log.2.gz"...)
+ * o con fecha como los deja logrotate con dateext ("auth.log-20240101", "auth.log-20240108.gz"...).
+ * Los ficheros se leen del más antiguo al más reciente. Cada uno se lee (y se descomprime si
+ * termina en ".gz") en un hilo de fondo que deja bloques de bytes en una cola acotada, mientras
+ * el hilo que llama procesa las líneas de las colas en orden, de modo que la descompresión de
+ * los ficheros siguientes se solapa con el análisis del actual.
+ * Todos los ficheros pasan por el mismo MotorIngestaLog, así el año continúa de un fichero al
+ * siguiente y los accesos llegan al receptor en orden de fecha.
+ * El fichero más reciente puede estar escribiéndose: una última línea suya sin salto de línea se
+ * procesa como las demás, pero getBytesUltimoFichero termina en el último salto de línea, para seguirlo
+ * desde ahí, y getBytesColaUltimoFichero dice cuántos bytes tenía esa línea.
+ */
+class IngestaArchivos {
+
+    /** Tamaño de cada bloque de bytes que pasa de un hilo de lectura al de análisis */
+    static final int TAMAÑO_BLOQUE = 1 << 18;
+
+    /** Bloques que puede adelantar cada fichero antes de que su hilo de lectura espere */
+    static final int BLOQUES_POR_FICHERO = 8;
+
+    // Marca de fin de fichero en la cola
+    private static final ByteBuffer FIN = ByteBuffer.allocate(0);
+
+    private final int hilos;
+    private final LectorLineas lector;
+
+    private long bytesUltimoFichero;
+    private long bytesColaUltimoFichero;
+
+    /**
+     * Constructor de la ingesta.
+     * @param hilos         Número máximo de ficheros leyéndose a la vez.
+     * @param receptor      Destino de los accesos encontrados.
+     * @param decodificador Decodificador de fechas, con el año de la primera línea del fichero más antiguo.
+     */
+    IngestaArchivos(int hilos, ReceptorAccesos receptor, DecodificadorFechaSyslog decodificador) {
+        this.hilos = Math.max(1, hilos);
+        this.lector = new LectorLineas(new MotorIngestaLog(receptor, decodificador));
+    }
+
+    /**
+     * Busca los ficheros cuyo nombre encaja con un patrón glob ("auth.log*") y los ordena
+     * del más antiguo al más reciente. El patrón solo puede tener comodines en el nombre, no en los directorios.
+     * @param patron Ruta con el patrón en el nombre del fichero.
+     * @return Los ficheros encontrados, del más antiguo al más reciente.
+     * @throws IOException Si no se puede leer el directorio.
+     */
+    static List<Path> buscar(String patron) throws IOException {
+        Path ruta = Path.of(patron);
+        Path directorio = ruta.getParent() == null ? Path.of(".") : ruta.getParent();
+        List<Path> ficheros = new ArrayList<>();
+        try (DirectoryStream<Path> entradas = Files.newDirectoryStream(directorio, ruta.getFileName().toString())) {
+            for (Path entrada : entradas) {
+                if (Files.isRegularFile(entrada)) {
+                    ficheros.add(entrada);
+                }
+            }
+        }
+        return ordenar(ficheros);
+    }
+
+    /**
+     * Ordena ficheros rotados del más antiguo al más reciente: dentro del mismo nombre base,
+     * cuanto mayor es el número de rotación más antiguo es el fichero, los que llevan fecha van de la
+     * más antigua a la más reciente, y el que no tiene número ni fecha es el actual. Si hay de los dos
+     * tipos, los numerados se toman por más antiguos que los fechados.
+     * @param ficheros Ficheros en cualquier orden.
+     * @return Una lista nueva con los ficheros ordenados.
+     */
+    static List<Path> ordenar(List<Path> ficheros) {
+        List<Path> ordenados = new ArrayList<>(ficheros);
+        ordenados.sort(Comparator.comparing((Path p) -> nombreBase(p.getFileName().toString()))
+                .thenComparingLong(p -> antiguedad(p.getFileName().toString())));
+        return ordenados;
+    }
+
+    /**
+     * Lee los ficheros en el orden dado y procesa todas sus líneas.
+     * @param ficheros Ficheros del más antiguo al más reciente.
+     * @return Número de bytes procesados, ya descomprimidos, sin la última línea a medias del más reciente
+     *         (que también se procesa).
+     * @throws IOException Si ocurre un error de lectura en cualquiera de los ficheros.
+     */
+    long ingerir(List<Path> ficheros) throws IOException {
+        ExecutorService lectores = Executors.newFixedThreadPool(Math.min(hilos, Math.max(1, ficheros.size())), tarea -> {
+            Thread hilo = new Thread(tarea, "lector-archivos");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        try {
+            // Bloques ya procesados que los hilos de lectura pueden reutilizar
+            BlockingQueue<ByteBuffer> libres = new ArrayBlockingQueue<>(hilos * BLOQUES_POR_FICHERO + hilos);
+
+            // Se encargan en orden, así el fichero que se está analizando siempre tiene un hilo leyéndolo
+            List<BlockingQueue<ByteBuffer>> colas = new ArrayList<>();
+            List<Future<Void>> lecturas = new ArrayList<>();
+            for (Path fichero : ficheros) {
+                BlockingQueue<ByteBuffer> cola = new ArrayBlockingQueue<>(BLOQUES_POR_FICHERO + 1);
+                colas.add(cola);
+                lecturas.add(lectores.submit(() -> {
+                    leerFichero(fichero, cola, libres);
+                    return null;
+                }));
+            }
+
+            long total = 0;
+            for (int i = 0; i < ficheros.size(); i++) {
+                long antes = lector.getBytesLeidos();
+                BlockingQueue<ByteBuffer> cola = colas.get(i);
+                for (ByteBuffer bloque = tomar(cola); bloque != FIN; bloque = tomar(cola)) {
+                    lector.alimentar(bloque);
+                    libres.offer(bloque.clear());
+                }
+                esperar(lecturas.get(i));
+                // Un fichero rotado puede acabar sin salto de línea: su última línea no continúa en el siguiente
+                bytesColaUltimoFichero = lector.getBytesPendientes();
+                bytesUltimoFichero = lector.getBytesLeidos() - antes - bytesColaUltimoFichero;
+                lector.terminar();
+                total += bytesUltimoFichero;
+                colas.set(i, null);
+            }
+            return total;
+        } finally {
+            lectores.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Bytes procesados del último fichero leído, ya descomprimidos, hasta su último salto de línea.
+     */
+    long getBytesUltimoFichero() {
+        return bytesUltimoFichero;
+    }
+
+    /**
+     * @return Bytes de la última línea sin salto de línea del último fichero leído, ya procesada, o 0.
+     */
+    long getBytesColaUltimoFichero() {
+        return bytesColaUltimoFichero;
+    }
+
+    /**
+     * @return true si el fichero está comprimido con gzip, según su extensión.
+     */
+    static boolean comprimido(Path fichero) {
+        return fichero.getFileName().toString().endsWith(".gz");
+    }
+
+    // Hilo de lectura: llena bloques con el contenido del fichero y los deja en la cola, terminando con FIN
+    private static void leerFichero(Path fichero, BlockingQueue<ByteBuffer> cola, BlockingQueue<ByteBuffer> libres)
+            throws IOException, InterruptedException {
+        try {
+            if (comprimido(fichero)) {
+                try (InputStream entrada = new GZIPInputStream(Files.newInputStream(fichero), 1 << 16)) {
+                    ByteBuffer bloque = bloqueLibre(libres);
+                    int leidos;
+                    while ((leidos = entrada.read(bloque.array(), bloque.position(), bloque.remaining())) != -1) {
+                        bloque.position(bloque.position() + leidos);
+                        if (!bloque.hasRemaining()) {
+                            cola.put(bloque.flip());
+                            bloque = bloqueLibre(libres);
+                        }
+                    }
+                    if (bloque.position() > 0) {
+                        cola.put(bloque.flip());
+                    }
+                }
+            } else {
+                try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+                    ByteBuffer bloque = bloqueLibre(libres);
+                    while (canal.read(bloque) != -1) {
+                        if (!bloque.hasRemaining()) {
+                            cola.put(bloque.flip());
+                            bloque = bloqueLibre(libres);
+                        }
+                    }
+                    if (bloque.position() > 0) {
+                        cola.put(bloque.flip());
+                    }
+                }
+            }
+        } finally {
+            // Siempre se marca el final, también si falla, para que el análisis no espere para siempre
+            cola.put(FIN);
+        }
+    }
+
+    private static ByteBuffer bloqueLibre(BlockingQueue<ByteBuffer> libres) {
+        ByteBuffer bloque = libres.poll();
+        return bloque != null ? bloque : ByteBuffer.allocate(TAMAÑO_BLOQUE);
+    }
+
+    // Nombre sin ".gz" ni sufijo de rotación: "auth.log.2.gz" y "auth.log-20240101.gz" -> "auth.log"
+    private static String nombreBase(String nombre) {
+        String sinGz = sinGz(nombre);
+        return sinGz.substring(0, sinGz.length() - sufijoRotacion(sinGz).length());
+    }
+
+    // Clave para ordenar dentro de un nombre base, menor cuanto más antiguo: "auth.log.2" -> -2,
+    // "auth.log-20240101" -> 20240101 y el fichero actual, sin sufijo, Long.MAX_VALUE
+    private static long antiguedad(String nombre) {
+        String sufijo = sufijoRotacion(sinGz(nombre));
+        if (sufijo.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        long valor = Long.parseLong(sufijo.substring(1));
+        return sufijo.charAt(0) == '.' ? -valor : valor;
+    }
+
+    // Sufijo de rotación de un nombre sin ".gz": ".2" (número, hasta 9 cifras), "-20240101" (fecha de
+    // dateext, -AAAAMMDD con mes y día válidos) o "" si no tiene ninguno
+    private static String sufijoRotacion(String sinGz) {
+        int separador = Math.max(sinGz.lastIndexOf('.'), sinGz.lastIndexOf('-'));
+        int cifras = sinGz.length() - separador - 1;
+        if (separador <= 0 || cifras == 0) {
+            return "";
+        }
+        for (int i = separador + 1; i < sinGz.length(); i++) {
+            if (sinGz.charAt(i) < '0' || sinGz.charAt(i) > '9') {
+                return "";
+            }
+        }
+        if (sinGz.charAt(separador) == '.') {
+            return cifras <= 9 ? sinGz.substring(separador) : "";
+        }
+        if (cifras != 8) {
+            return "";
+        }
+        int mes = Integer.parseInt(sinGz.substring(separador + 5, separador + 7));
+        int dia = Integer.parseInt(sinGz.substring(separador + 7));
+        return mes >= 1 && mes <= 12 && dia >= 1 && dia <= 31 ? sinGz.substring(separador) : "";
+    }
+
+    private static String sinGz(String nombre) {
+        return nombre.endsWith(".gz") ? nombre.substring(0, nombre.length() - 3) : nombre;
+    }
+
+    private static ByteBuffer tomar(BlockingQueue<ByteBuffer> cola) throws IOException {
+        try {
+            return cola.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ingesta interrumpida", e);
+        }
+    }
+
+    private static void esperar(Future<Void> futuro) throws IOException {
+        try {
+            futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ingesta interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
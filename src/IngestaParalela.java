@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Ingesta paralela de un fichero de log.
+ * Divide el fichero en rangos de bytes que empiezan y terminan en un salto de línea,
+ * procesa cada rango en un hilo con su propio MotorIngestaLog e IndiceAccesos, y mezcla
+ * después los índices ordenados de cada hilo en orden de fecha, que se añaden al índice de destino de una vez.
+ * El año de cada trozo se estima antes de repartirlo, a partir del mes de la primera línea de
+ * cada trozo: se suma un año cada vez que ese mes retrocede más de medio año respecto al del trozo
+ * anterior. La estimación falla si un trozo abarca más de medio año de log, así que después se
+ * comprueba en orden: el año y el mes con que termina cada trozo pasan al siguiente, como haría la
+ * lectura secuencial, y los trozos que empezaron con otro año se vuelven a leer (en paralelo) con el
+ * bueno. Un trozo que empieza con una línea rezagada de meses anteriores solo se lee igual que en la
+ * lectura secuencial continuando el decodificador del anterior: ese se vuelve a leer en el momento.
+ * Una última línea sin salto de línea puede estar a medio escribir y no se procesa: el último trozo
+ * termina en el último salto de línea, así la lectura se puede continuar desde el byte devuelto.
+ */
+class IngestaParalela {
+
+    /** Tamaño mínimo de un trozo: por debajo no compensa repartir el trabajo */
+    static final long TAMAÑO_MINIMO_TROZO = 4L << 20;
+
+    private IngestaParalela() {
+    }
+
+    /**
+     * Lee el fichero en paralelo y entrega todos sus accesos ordenados por fecha.
+     * Los accesos del mismo segundo salen en el orden en que aparecen en el fichero.
+     * @param fichero Ruta del fichero de log.
+     * @param hilos   Número máximo de hilos de trabajo.
+     * @param añoBase Año de la primera línea del log.
+     * @param destino Índice al que se añaden los accesos, ordenados y de una vez.
+     * @return Bytes procesados, hasta el último salto de línea.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    static long ingerir(Path fichero, int hilos, int añoBase, IndiceAccesos destino) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            long[] limites = dividir(canal, hilos);
+            int[] años = añosDeTrozos(canal, limites, añoBase);
+            int trozos = limites.length - 1;
+
+            // Un trabajo por trozo; las lecturas posicionales sobre el mismo canal son seguras entre hilos
+            DecodificadorFechaSyslog[] decodificadores = new DecodificadorFechaSyslog[trozos];
+            List<IndiceAccesos> bloques = new ArrayList<>();
+            List<Callable<IndiceAccesos>> trabajos = new ArrayList<>();
+            for (int i = 0; i < trozos; i++) {
+                decodificadores[i] = new DecodificadorFechaSyslog(años[i]);
+                trabajos.add(trabajo(canal, limites[i], limites[i + 1], decodificadores[i]));
+            }
+            for (Future<IndiceAccesos> futuro : ForkJoinPool.commonPool().invokeAll(trabajos)) {
+                bloques.add(esperar(futuro));
+            }
+
+            // Se recorre el año y el mes en curso de trozo en trozo, como en la lectura secuencial
+            List<Integer> repetidos = new ArrayList<>();
+            trabajos.clear();
+            int año = añoBase;
+            int mes = -1;
+            for (int i = 0; i < trozos; i++) {
+                DecodificadorFechaSyslog decodificador = decodificadores[i];
+                int inicio = decodificador.añoEquivalente(año, mes);
+                if (inicio == DecodificadorFechaSyslog.SIN_EQUIVALENTE) {
+                    decodificador = new DecodificadorFechaSyslog(año, mes);
+                    bloques.set(i, leerTrozo(canal, limites[i], limites[i + 1], decodificador));
+                    año = decodificador.getAño();
+                    mes = decodificador.getUltimoMes();
+                    continue;
+                }
+                if (inicio != años[i]) {
+                    repetidos.add(i);
+                    trabajos.add(trabajo(canal, limites[i], limites[i + 1], new DecodificadorFechaSyslog(inicio)));
+                }
+                if (decodificador.getPrimerMes() != -1) {
+                    // Los años que avanza un trozo no dependen del año con que empieza
+                    año = inicio + decodificador.getAño() - años[i];
+                    mes = decodificador.getUltimoMes();
+                }
+            }
+            List<Future<IndiceAccesos>> futuros = ForkJoinPool.commonPool().invokeAll(trabajos);
+            for (int i = 0; i < futuros.size(); i++) {
+                bloques.set(repetidos.get(i), esperar(futuros.get(i)));
+            }
+            // Los bloques se mezclan en orden de fecha directamente en las columnas del destino
+            destino.agregarMezclados(bloques);
+            return limites[limites.length - 1];
+        }
+    }
+
+    // Calcula los límites de los trozos, ajustando cada uno al byte siguiente a un salto de línea
+    private static long[] dividir(FileChannel canal, int hilos) throws IOException {
+        long tamaño = finUltimaLinea(canal);
+        int trozos = (int) Math.max(1, Math.min(hilos, tamaño / TAMAÑO_MINIMO_TROZO));
+        long[] limites = new long[trozos + 1];
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (int i = 1; i < trozos; i++) {
+            limites[i] = siguienteLinea(canal, Math.max(limites[i - 1], tamaño / trozos * i), buffer);
+        }
+        limites[trozos] = tamaño;
+        return limites;
+    }
+
+    // Devuelve la posición del primer byte de la línea que sigue a 'desde'
+    private static long siguienteLinea(FileChannel canal, long desde, ByteBuffer buffer) throws IOException {
+        long posicion = desde;
+        while (true) {
+            buffer.clear();
+            int leidos = canal.read(buffer, posicion);
+            if (leidos <= 0) {
+                return canal.size();
+            }
+            for (int i = 0; i < leidos; i++) {
+                if (buffer.get(i) == '\n') {
+                    return posicion + i + 1;
+                }
+            }
+            posicion += leidos;
+        }
+    }
+
+    // Devuelve la posición siguiente al último salto de línea del fichero, 0 si no tiene ninguno
+    private static long finUltimaLinea(FileChannel canal) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (long fin = canal.size(); fin > 0; ) {
+            long desde = Math.max(0, fin - buffer.capacity());
+            buffer.clear().limit((int) (fin - desde));
+            while (buffer.hasRemaining() && canal.read(buffer, desde + buffer.position()) > 0) {
+                // Lee hasta llenar el buffer
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return desde + i + 1;
+                }
+            }
+            fin = desde;
+        }
+        return 0;
+    }
+
+    // Año de partida de cada trozo según el mes de su primera línea
+    private static int[] añosDeTrozos(FileChannel canal, long[] limites, int añoBase) throws IOException {
+        int[] años = new int[limites.length - 1];
+        ByteBuffer buffer = ByteBuffer.allocate(DecodificadorFechaSyslog.LONGITUD);
+        int año = añoBase;
+        int mesAnterior = -1;
+        for (int i = 0; i < años.length; i++) {
+            buffer.clear();
+            canal.read(buffer, limites[i]);
+            int mes = DecodificadorFechaSyslog.mes(new String(buffer.array(), 0, buffer.position(),
+                    StandardCharsets.ISO_8859_1), 0);
+            if (mes != -1) {
+                if (mesAnterior != -1 && mes < mesAnterior - 6) {
+                    año++;
+                }
+                mesAnterior = mes;
+            }
+            años[i] = año;
+        }
+        return años;
+    }
+
+    private static Callable<IndiceAccesos> trabajo(FileChannel canal, long desde, long hasta,
+                                                   DecodificadorFechaSyslog decodificador) {
+        return () -> leerTrozo(canal, desde, hasta, decodificador);
+    }
+
+    private static IndiceAccesos leerTrozo(FileChannel canal, long desde, long hasta,
+                                           DecodificadorFechaSyslog decodificador) throws IOException {
+        IndiceAccesos bloque = new IndiceAccesos();
+        LectorLineas lector = new LectorLineas(new MotorIngestaLog(bloque, decodificador));
+        lector.leer(canal, desde, hasta);
+        lector.terminar();
+        return bloque;
+    }
+
+    private static IndiceAccesos esperar(Future<IndiceAccesos> futuro) throws IOException {
+        try {
+            return futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ingesta interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
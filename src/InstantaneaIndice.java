@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Instantánea binaria de un IndiceAccesos, guardada junto al log que lo originó.
+ * Formato (big endian):
+ * <pre>
+ *   int   MAGICO, int VERSION, int año base con el que se leyó el log
+ *   long  tamaño del log, long fecha de modificación del log (ms), los dos de antes de procesarlo
+ *   long  CRC32 de los primeros bytes procesados del log (hasta BYTES_HUELLA)
+ *   long  bytes del log ya procesados
+ *   int   número de hosts, int número de accesos
+ *   hosts: short longitud + bytes ISO-8859-1, por id
+ *   long[] segundos epoch ordenados
+ *   int[]  id de host de cada acceso
+ * </pre>
+ * Al cargarla se proyecta en memoria y las columnas se copian de una vez a los arrays del índice.
+ */
+class InstantaneaIndice {
+
+    static final int MAGICO = 0x41435348; // "ACSH"
+    static final int VERSION = 3; // Desde la 3, los bytes procesados terminan siempre en un salto de línea
+
+    /** Bytes del inicio del log usados para reconocer que sigue siendo el mismo fichero */
+    static final int BYTES_HUELLA = 4096;
+
+    private static final int TAMAÑO_CABECERA = 4 + 4 + 4 + 8 + 8 + 8 + 8 + 4 + 4;
+
+    final IndiceAccesos indice;
+    final int añoBase;
+    final long tamañoLog;
+    final long modificacionLog;
+    final long huellaLog;
+    final long bytesProcesados;
+
+    private InstantaneaIndice(IndiceAccesos indice, int añoBase, long tamañoLog, long modificacionLog, long huellaLog,
+                              long bytesProcesados) {
+        this.indice = indice;
+        this.añoBase = añoBase;
+        this.tamañoLog = tamañoLog;
+        this.modificacionLog = modificacionLog;
+        this.huellaLog = huellaLog;
+        this.bytesProcesados = bytesProcesados;
+    }
+
+    /**
+     * Ruta de la instantánea de un log: el mismo nombre con la extensión ".idx".
+     */
+    static Path rutaDe(Path log) {
+        return log.resolveSibling(log.getFileName() + ".idx");
+    }
+
+    /**
+     * Guarda el índice en la instantánea del log. Se escribe en un fichero temporal
+     * que después sustituye al anterior de forma atómica.
+     * @param log             Ruta del log.
+     * @param indice          Índice a guardar.
+     * @param añoBase         Año de partida con el que se leyó el log.
+     * @param bytesProcesados Bytes del log que ya están en el índice, hasta el final de una línea.
+     * @param atributos       Atributos del log leídos antes de procesarlo: si el log cambia mientras se
+     *                        procesa, la instantánea no queda al día y la próxima carga lee lo que falte.
+     * @throws IOException Si ocurre un error de escritura.
+     */
+    static void guardar(Path log, IndiceAccesos indice, int añoBase, long bytesProcesados, BasicFileAttributes atributos)
+            throws IOException {
+        Path destino = rutaDe(log);
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        long tamañoLog = atributos.size();
+        long modificacionLog = atributos.lastModifiedTime().toMillis();
+        long huellaLog = huella(log, bytesProcesados);
+
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            indice.leerColumnas((segundos, hostIds, tamaño, hosts) -> {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                buffer.putInt(MAGICO).putInt(VERSION).putInt(añoBase)
+                        .putLong(tamañoLog).putLong(modificacionLog).putLong(huellaLog)
+                        .putLong(bytesProcesados)
+                        .putInt(hosts.size()).putInt(tamaño);
+                for (String host : hosts) {
+                    byte[] bytes = host.getBytes(StandardCharsets.ISO_8859_1);
+                    if (buffer.remaining() < 2 + bytes.length) {
+                        volcar(canal, buffer);
+                    }
+                    buffer.putShort((short) bytes.length).put(bytes);
+                }
+                for (int i = 0; i < tamaño; ) {
+                    if (buffer.remaining() < 8) {
+                        volcar(canal, buffer);
+                    }
+                    int n = Math.min(tamaño - i, buffer.remaining() / 8);
+                    buffer.asLongBuffer().put(segundos, i, n);
+                    buffer.position(buffer.position() + n * 8);
+                    i += n;
+                }
+                for (int i = 0; i < tamaño; ) {
+                    if (buffer.remaining() < 4) {
+                        volcar(canal, buffer);
+                    }
+                    int n = Math.min(tamaño - i, buffer.remaining() / 4);
+                    buffer.asIntBuffer().put(hostIds, i, n);
+                    buffer.position(buffer.position() + n * 4);
+                    i += n;
+                }
+                volcar(canal, buffer);
+            });
+            canal.force(true);
+        }
+        Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Carga la instantánea del log.
+     * @param log Ruta del log.
+     * @return La instantánea, o null si no existe o no es válida.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    static InstantaneaIndice cargar(Path log) throws IOException {
+        Path origen = rutaDe(log);
+        if (!Files.exists(origen)) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(origen, StandardOpenOption.READ)) {
+            if (canal.size() < TAMAÑO_CABECERA) {
+                return null;
+            }
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (mapa.getInt() != MAGICO || mapa.getInt() != VERSION) {
+                return null;
+            }
+            int añoBase = mapa.getInt();
+            long tamañoLog = mapa.getLong();
+            long modificacionLog = mapa.getLong();
+            long huellaLog = mapa.getLong();
+            long bytesProcesados = mapa.getLong();
+            int numeroHosts = mapa.getInt();
+            int tamaño = mapa.getInt();
+
+            List<String> hosts = new ArrayList<>(numeroHosts);
+            for (int i = 0; i < numeroHosts; i++) {
+                byte[] bytes = new byte[mapa.getShort() & 0xFFFF];
+                mapa.get(bytes);
+                hosts.add(new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+            if (mapa.remaining() != (long) tamaño * 12) {
+                return null; // Instantánea incompleta
+            }
+            long[] segundos = new long[tamaño];
+            LongBuffer columnaSegundos = mapa.asLongBuffer();
+            columnaSegundos.get(segundos);
+            mapa.position(mapa.position() + tamaño * 8);
+            int[] hostIds = new int[tamaño];
+            mapa.asIntBuffer().get(hostIds);
+
+            IndiceAccesos indice = IndiceAccesos.deColumnas(segundos, hostIds, tamaño, hosts);
+            return new InstantaneaIndice(indice, añoBase, tamañoLog, modificacionLog, huellaLog, bytesProcesados);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null; // Instantánea dañada
+        }
+    }
+
+    /**
+     * Comprueba si la instantánea corresponde al log en su estado actual. Lo que siga a bytesProcesados
+     * es entonces una última línea sin salto de línea, que no está en la instantánea.
+     * @return true si el log tiene el mismo tamaño, fecha de modificación y huella que al guardarla.
+     */
+    boolean alDia(Path log) throws IOException {
+        BasicFileAttributes atributos = Files.readAttributes(log, BasicFileAttributes.class);
+        return atributos.size() == tamañoLog && atributos.lastModifiedTime().toMillis() == modificacionLog
+                && huella(log, bytesProcesados) == huellaLog;
+    }
+
+    /**
+     * Comprueba si el log es el mismo fichero y solo ha crecido por el final,
+     * de modo que basta con procesar los bytes nuevos.
+     * @return true si se puede continuar desde bytesProcesados.
+     */
+    boolean soloHaCrecido(Path log) throws IOException {
+        return Files.size(log) >= bytesProcesados && huella(log, bytesProcesados) == huellaLog;
+    }
+
+    // CRC32 de los primeros bytes del log, sin pasar de los ya procesados
+    private static long huella(Path log, long bytesProcesados) throws IOException {
+        try (FileChannel canal = FileChannel.open(log, StandardOpenOption.READ)) {
+            return huella(canal, bytesProcesados);
+        }
+    }
+
+    /**
+     * Huella de un log: CRC32 de sus primeros bytes, hasta BYTES_HUELLA. Si cambia, el fichero se ha
+     * sustituido o se ha vuelto a escribir desde el principio aunque no haya encogido.
+     * @param canal Canal del log; se lee con posiciones absolutas, sin mover la suya.
+     * @param bytes Bytes que cubre la huella, sin pasar de BYTES_HUELLA.
+     * @return El CRC32 de esos bytes, o de los que haya si el fichero es más corto.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    static long huella(FileChannel canal, long bytes) throws IOException {
+        ByteBuffer inicio = ByteBuffer.allocate((int) Math.min(BYTES_HUELLA, bytes));
+        while (inicio.hasRemaining() && canal.read(inicio, inicio.position()) > 0) {
+            // Lee hasta llenar el buffer o llegar al final
+        }
+        inicio.flip();
+        CRC32 crc = new CRC32();
+        crc.update(inicio);
+        return crc.getValue();
+    }
+
+    private static void volcar(FileChannel canal, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Lector de números naturales de un fichero de texto, byte a byte y sin crear objetos por número.
+ * Lee el fichero en bloques grandes a través de un FileChannel y va acumulando las cifras de cada
+ * número; cualquier byte que no sea una cifra separa números. Los números negativos y los que no
+ * caben en un int no son naturales válidos: se descartan y se cuentan aparte.
+ * Un número puede quedar cortado entre dos bloques: se termina con el bloque siguiente.
+ * Tras cada bloque suma a las métricas numeros.bytes, numeros.leidos y numeros.descartados.
+ */
+class LectorEnteros {
+
+    /** Tamaño del bloque de lectura en bytes */
+    static final int TAMAÑO_BLOQUE = 1 << 20;
+
+    private static final LongAdder BYTES = Metricas.contador("numeros.bytes");
+    private static final LongAdder LEIDOS = Metricas.contador("numeros.leidos");
+    private static final LongAdder DESCARTADOS = Metricas.contador("numeros.descartados");
+
+    private final IntConsumer destino;
+
+    // Número en curso, que puede quedar a medias entre dos bloques
+    private long valor;
+    private boolean enNumero;
+    private boolean negativo;
+    private boolean signo;
+
+    private long leidos;
+    private long descartados;
+    private long bytesLeidos;
+    private long leidosPublicados;
+    private long descartadosPublicados;
+
+    /**
+     * Constructor del lector.
+     * @param destino Recibe cada número válido, en el orden del fichero.
+     */
+    LectorEnteros(IntConsumer destino) {
+        this.destino = destino;
+    }
+
+    /**
+     * Lee un fichero entero.
+     * @param fichero Ruta del fichero.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    void leer(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            ByteBuffer bloque = ByteBuffer.allocate(TAMAÑO_BLOQUE);
+            while (canal.read(bloque.clear()) >= 0) {
+                alimentar(bloque.array(), 0, bloque.position());
+            }
+            terminar();
+        }
+    }
+
+    /**
+     * Procesa los bytes [desde, hasta) del array.
+     */
+    void alimentar(byte[] bytes, int desde, int hasta) {
+        bytesLeidos += hasta - desde;
+        for (int i = desde; i < hasta; i++) {
+            int b = bytes[i] - '0';
+            if (b >= 0 && b <= 9) {
+                if (!enNumero) {
+                    enNumero = true;
+                    negativo = signo;
+                    valor = 0;
+                }
+                if (valor <= Integer.MAX_VALUE) { // Pasado el máximo ya se sabe que se descarta
+                    valor = valor * 10 + b;
+                }
+            } else {
+                if (enNumero) {
+                    emitir();
+                }
+                signo = b == '-' - '0';
+            }
+        }
+        BYTES.add(hasta - desde);
+        publicar();
+    }
+
+    /**
+     * Procesa el último número si el fichero no termina en un separador.
+     */
+    void terminar() {
+        if (enNumero) {
+            emitir();
+        }
+        signo = false;
+        publicar();
+    }
+
+    /** @return Números válidos leídos. */
+    long getLeidos() {
+        return leidos;
+    }
+
+    /** @return Números descartados por negativos o por no caber en un int. */
+    long getDescartados() {
+        return descartados;
+    }
+
+    long getBytesLeidos() {
+        return bytesLeidos;
+    }
+
+    private void publicar() {
+        LEIDOS.add(leidos - leidosPublicados);
+        DESCARTADOS.add(descartados - descartadosPublicados);
+        leidosPublicados = leidos;
+        descartadosPublicados = descartados;
+    }
+
+    private void emitir() {
+        enNumero = false;
+        if (negativo || valor > Integer.MAX_VALUE) {
+            descartados++;
+        } else {
+            leidos++;
+            destino.accept((int) valor);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lector de líneas por bloques.
+ * Lee el fichero en bloques grandes a través de un FileChannel y entrega cada línea
+ * a un ProcesadorLinea reutilizando siempre el mismo buffer de caracteres,
+ * sin crear un String por línea.
+ * Los bytes se decodifican como ISO-8859-1 (un byte, un carácter), suficiente para
+ * las cabeceras de syslog, que son ASCII.
+ * Tras cada bloque suma los bytes y las líneas a las métricas log.bytes y log.lineas y avisa al
+ * procesador, que publica las suyas: así el coste de las métricas es por bloque y no por línea.
+ */
+class LectorLineas {
+
+    /** Tamaño del bloque de lectura en bytes */
+    static final int TAMAÑO_BLOQUE = 1 << 20;
+
+    /**
+     * Recibe cada línea leída. La secuencia solo es válida durante la llamada:
+     * el lector reutiliza el buffer para la línea siguiente.
+     */
+    @FunctionalInterface
+    interface ProcesadorLinea {
+        void procesar(CharSequence linea);
+
+        /**
+         * Se llama tras procesar cada bloque y al terminar, para publicar lo acumulado en las métricas.
+         */
+        default void finBloque() {
+        }
+    }
+
+    private static final LongAdder BYTES = Metricas.contador("log.bytes");
+    private static final LongAdder LINEAS = Metricas.contador("log.lineas");
+
+    private final ProcesadorLinea procesador;
+    private final ByteBuffer bloque;
+
+    // Línea en curso, que puede quedar a medias entre dos bloques
+    private char[] linea = new char[512];
+    private CharBuffer vista = CharBuffer.wrap(linea);
+    private int longitud;
+
+    private long bytesLeidos;
+    private long lineasLeidas;
+    private long lineasPublicadas;
+
+    /**
+     * Constructor del lector.
+     * @param procesador Destino de las líneas leídas.
+     */
+    LectorLineas(ProcesadorLinea procesador) {
+        this.procesador = procesador;
+        this.bloque = ByteBuffer.allocateDirect(TAMAÑO_BLOQUE);
+    }
+
+    /**
+     * Lee el rango [desde, hasta) del canal y procesa sus líneas completas.
+     * Una línea sin terminar al final del rango queda pendiente hasta la siguiente
+     * llamada a alimentar, leer o terminar.
+     * @param canal Canal del fichero.
+     * @param desde Posición inicial en bytes.
+     * @param hasta Posición final (exclusiva) en bytes.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    void leer(FileChannel canal, long desde, long hasta) throws IOException {
+        long posicion = desde;
+        while (posicion < hasta) {
+            bloque.clear();
+            if (hasta - posicion < bloque.capacity()) {
+                bloque.limit((int) (hasta - posicion));
+            }
+            int leidos = canal.read(bloque, posicion);
+            if (leidos < 0) {
+                break;
+            }
+            posicion += leidos;
+            bloque.flip();
+            alimentar(bloque);
+        }
+    }
+
+    /**
+     * Procesa los bytes restantes del buffer.
+     * @param datos Bytes a procesar, desde su posición hasta su límite.
+     */
+    void alimentar(ByteBuffer datos) {
+        BYTES.add(datos.remaining());
+        bytesLeidos += datos.remaining();
+        while (datos.hasRemaining()) {
+            byte b = datos.get();
+            if (b == '\n') {
+                emitirLinea();
+            } else {
+                if (longitud == linea.length) {
+                    crecer();
+                }
+                linea[longitud++] = (char) (b & 0xFF);
+            }
+        }
+        publicar();
+    }
+
+    /**
+     * Procesa la última línea si el fichero no termina en salto de línea.
+     */
+    void terminar() {
+        if (longitud > 0) {
+            emitirLinea();
+        }
+        publicar();
+    }
+
+    /**
+     * Descarta la línea pendiente (por ejemplo, cuando el fichero se ha truncado).
+     */
+    void descartar() {
+        longitud = 0;
+    }
+
+    long getBytesLeidos() {
+        return bytesLeidos;
+    }
+
+    long getLineasLeidas() {
+        return lineasLeidas;
+    }
+
+    /**
+     * @return Bytes de la línea sin terminar que el lector guarda a la espera de su salto de línea
+     *         (un carácter por byte).
+     */
+    long getBytesPendientes() {
+        return longitud;
+    }
+
+    private void publicar() {
+        LINEAS.add(lineasLeidas - lineasPublicadas);
+        lineasPublicadas = lineasLeidas;
+        procesador.finBloque();
+    }
+
+    private void emitirLinea() {
+        int fin = longitud;
+        if (fin > 0 && linea[fin - 1] == '\r') {
+            fin--;
+        }
+        vista.clear().limit(fin);
+        procesador.procesar(vista);
+        longitud = 0;
+        lineasLeidas++;
+    }
+
+    private void crecer() {
+        char[] nueva = new char[linea.length * 2];
+        System.arraycopy(linea, 0, nueva, 0, longitud);
+        linea = nueva;
+        vista = CharBuffer.wrap(linea);
+    }
+}
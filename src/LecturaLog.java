@@ -1,72 +1,214 @@
 // Importación de librerías necesarias
 import java.io.*; // Para operaciones de entrada/salida de archivos
-import java.time.LocalDate; // Para trabajar con fechas
+import java.nio.channels.FileChannel; // Para escribir el informe en el archivo
+import java.nio.channels.WritableByteChannel; // Para escribir el informe en cualquier canal
+import java.nio.file.Files; // Para el fichero temporal de las ráfagas del informe
+import java.nio.file.NoSuchFileException; // Para detectar que el archivo no existe
+import java.nio.file.Path; // Para indicar la ruta del archivo
+import java.nio.file.StandardOpenOption; // Para indicar cómo se abre el archivo del informe
+import java.nio.file.attribute.BasicFileAttributes; // Para el tamaño y la fecha del log al guardar la instantánea
+import java.util.ArrayList; // Para la lista de ficheros rotados
+import java.util.List; // Para recibir varios ficheros de log
+import java.time.LocalDate; // Para obtener el año actual
 import java.time.LocalDateTime; // Para trabajar con fechas y horas
-import java.time.format.DateTimeFormatter; // Para dar formato a las fechas
-import java.util.Locale; // Para configurar la localización de fechas
-import java.util.Scanner; // Para leer desde el archivo
-import java.util.TreeMap; // Para almacenar los datos ordenados por fecha
-import java.util.regex.Matcher; // Para trabajar con expresiones regulares
-import java.util.regex.Pattern; // Para definir el patrón de la expresión regular
+import java.time.ZoneOffset; // Para convertir los segundos epoch en fechas
+import java.util.Map; // Para devolver el número de eventos de cada tipo
+import java.util.TreeMap; // Para ordenar los tipos de evento por nombre
+import java.util.concurrent.atomic.LongAdder; // Para contar los errores en las métricas
 
 // Clase principal que lee y procesa los registros de acceso SSH desde un archivo de log
 public class LecturaLog {
     // Constante para definir el nombre del archivo de log
     static final String FICHERO_LOG = "Linux_2k.log";
 
-    // Expresión regular para extraer la fecha, el sshd y la IP de la línea de log
-    String regex = "(?<fecha>[A-Z][a-z]{2} \\d{2} \\d{2}:\\d{2}:\\d{2}).*(?<sshd>sshd).*(?<rhost>rhost=(?<ip>\\S+))";
+    // Año de la primera línea de FICHERO_LOG (syslog no escribe el año en cada línea)
+    static final int AÑO_LOG = 2005;
 
-    // Estructura que almacena las fechas de acceso y las IPs en orden
-    TreeMap<LocalDateTime, String> accesosSSH;
+    // Una ráfaga son UMBRAL_RAFAGA fallos del mismo host en SEGUNDOS_RAFAGA segundos o menos
+    static final int UMBRAL_RAFAGA = 5;
+    static final long SEGUNDOS_RAFAGA = 60;
+
+    // Errores de lectura y escritura, que además se muestran por pantalla
+    private static final LongAdder ERRORES = Metricas.contador("log.errores");
+
+    // Índice en columnas que almacena todos los accesos (fecha e IP) en orden de fecha
+    IndiceAccesos accesosSSH;
+
+    // Nombre del archivo de log, año de su primera línea y bytes ya leídos (hasta el último salto de línea), para poder seguirlo después
+    private final String nombreFichero;
+    private final int añoBase;
+    private long bytesLeidos;
+
+    // Bytes de la última línea sin salto de línea, que está en el índice pero no en bytesLeidos ni en la instantánea
+    private long bytesCola;
+
+    // Escritor de los informes de accesos, con sus textos de días y hosts ya calculados para accesosSSH
+    // No se puede usar desde dos hilos a la vez: los informes se escriben de uno en uno
+    private final EscritorInforme escritorInforme = new EscritorInforme();
 
     // Constructor de la clase que recibe el nombre del archivo de log y llama a la función de lectura
     public LecturaLog(String nombreFichero) {
-        accesosSSH = new TreeMap<>();
-        leerDatosFichero(nombreFichero);
+        this(nombreFichero, false);
     }
 
-    // Método que lee el archivo de log línea por línea
-    private void leerDatosFichero(String nombreFichero) {
-        try (FileReader fileReader = new FileReader(nombreFichero);
-             Scanner sc = new Scanner(fileReader)) { // Utiliza Scanner para leer el archivo línea por línea
+    // Constructor que permite leer el archivo en paralelo, repartiendo trozos del fichero entre los núcleos
+    public LecturaLog(String nombreFichero, boolean paralelo) {
+        this(nombreFichero, paralelo, LocalDate.now().getYear());
+    }
 
-            // Mientras haya líneas en el archivo, se procesan
-            while (sc.hasNextLine()) {
-                añadirFechaRhost(sc.nextLine());
-            }
+    // Constructor que indica el año de la primera línea del log, ya que syslog no escribe el año
+    // A partir de él, cada cambio de diciembre a enero suma un año
+    public LecturaLog(String nombreFichero, boolean paralelo, int añoBase) {
+        this.nombreFichero = nombreFichero;
+        this.añoBase = añoBase;
+        accesosSSH = new IndiceAccesos();
+        leerDatosFichero(nombreFichero, paralelo);
+        leerCola();
+    }
 
-        } catch (FileNotFoundException e) {
-            System.out.println("Fichero no encontrado"); // Mensaje si el archivo no se encuentra
+    // Constructor que lee un log rotado en varios ficheros ("auth.log", "auth.log.1", "auth.log.2.gz"...,
+    // o con la fecha de dateext: "auth.log-20240101", "auth.log-20240108.gz"...)
+    // Los ficheros se ordenan del más antiguo al más reciente y los comprimidos con gzip se descomprimen
+    // en hilos de fondo mientras se analizan los anteriores; añoBase es el año de la primera línea del más antiguo
+    // Después se puede seguir el más reciente, si es el log en uso sin comprimir
+    public LecturaLog(List<String> nombresFicheros, int añoBase) {
+        List<Path> ficheros = new ArrayList<>();
+        for (String nombre : nombresFicheros) {
+            ficheros.add(Path.of(nombre));
+        }
+        ficheros = IngestaArchivos.ordenar(ficheros);
+        this.nombreFichero = ficheros.isEmpty() ? "" : ficheros.get(ficheros.size() - 1).toString();
+        this.añoBase = añoBase;
+        accesosSSH = new IndiceAccesos();
+        leerArchivos(ficheros);
+    }
+
+    // Método que lee todos los ficheros de log que encajan con un patrón glob en el nombre, como "/var/log/auth.log*"
+    public static LecturaLog leerRotados(String patron, int añoBase) {
+        List<String> nombres = new ArrayList<>();
+        try {
+            for (Path fichero : IngestaArchivos.buscar(patron)) {
+                nombres.add(fichero.toString());
+            }
         } catch (IOException e) {
-            System.out.println("Fallo en la entrada y salida"); // Mensaje si hay un error de I/O
+            ERRORES.increment();
+            System.out.println("No se pudo leer el directorio: " + e.getMessage());
         }
+        return new LecturaLog(nombres, añoBase);
     }
 
-    // Método que procesa cada línea para extraer la fecha y la IP usando la expresión regular
-    private void añadirFechaRhost(String linea) {
-        Pattern pattern = Pattern.compile(regex); // Compila la expresión regular
-        Matcher matcher = pattern.matcher(linea); // Aplica la expresión regular a la línea
+    // Constructor a partir de un índice ya cargado de una instantánea, o vacío para leer el log después
+    private LecturaLog(String nombreFichero, int añoBase, IndiceAccesos accesosSSH, long bytesLeidos) {
+        this.nombreFichero = nombreFichero;
+        this.añoBase = añoBase;
+        this.accesosSSH = accesosSSH;
+        this.bytesLeidos = bytesLeidos;
+    }
 
-        // Si la expresión regular encuentra una coincidencia
-        if (matcher.find()) {
-            String fecha = matcher.group("fecha"); // Obtiene la fecha
-            String ip = matcher.group("ip"); // Obtiene la IP
+    // Método que carga los accesos desde la instantánea binaria del log (nombreFichero + ".idx") si existe
+    // Si el log solo ha crecido se procesan únicamente los bytes nuevos; si ha cambiado se vuelve a leer entero
+    // En ambos casos la instantánea queda actualizada para la siguiente ejecución; si el log no ha cambiado no se reescribe
+    public static LecturaLog cargar(String nombreFichero) {
+        return cargar(nombreFichero, LocalDate.now().getYear());
+    }
 
-            // Convierte la fecha a un formato LocalDateTime y la agrega al TreeMap
-            LocalDateTime fechaFormateada = parsearFecha(fecha);
-            accesosSSH.put(fechaFormateada, ip);
+    // Método que carga los accesos desde la instantánea, indicando el año de la primera línea del log
+    public static LecturaLog cargar(String nombreFichero, int añoBase) {
+        Path log = Path.of(nombreFichero);
+        try {
+            InstantaneaIndice instantanea = InstantaneaIndice.cargar(log);
+            if (instantanea != null && instantanea.añoBase == añoBase && instantanea.alDia(log)) {
+                LecturaLog lecturaLog = new LecturaLog(nombreFichero, añoBase, instantanea.indice, instantanea.bytesProcesados);
+                lecturaLog.leerCola();
+                return lecturaLog;
+            }
+            if (instantanea != null && instantanea.añoBase == añoBase && instantanea.soloHaCrecido(log)) {
+                LecturaLog lecturaLog = new LecturaLog(nombreFichero, añoBase, instantanea.indice, instantanea.bytesProcesados);
+                BasicFileAttributes atributos = Files.readAttributes(log, BasicFileAttributes.class);
+                lecturaLog.bytesLeidos = new MotorIngestaLog(instantanea.indice, lecturaLog.decodificadorSiguiente())
+                        .ingerir(log, instantanea.bytesProcesados);
+                InstantaneaIndice.guardar(log, instantanea.indice, añoBase, lecturaLog.bytesLeidos, atributos);
+                lecturaLog.leerCola();
+                return lecturaLog;
+            }
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("No se pudo usar la instantánea: " + e.getMessage()); // Se vuelve a leer el log entero
+        }
+
+        // La línea a medias se lee después de guardar, así no entra en la instantánea
+        LecturaLog lecturaLog = new LecturaLog(nombreFichero, añoBase, new IndiceAccesos(), 0);
+        BasicFileAttributes atributos = null;
+        try {
+            atributos = Files.readAttributes(log, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Sin log no hay instantánea que guardar; leerDatosFichero avisa del error
+        }
+        lecturaLog.leerDatosFichero(nombreFichero, false);
+        try {
+            if (atributos != null) {
+                InstantaneaIndice.guardar(log, lecturaLog.accesosSSH, añoBase, lecturaLog.bytesLeidos, atributos);
+            }
+        } catch (NoSuchFileException e) {
+            // Sin log no hay instantánea que guardar
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("No se pudo guardar la instantánea: " + e.getMessage());
         }
+        lecturaLog.leerCola();
+        return lecturaLog;
     }
 
-    // Método que convierte una fecha en formato de string en un objeto LocalDateTime
-    private LocalDateTime parsearFecha(String fecha) {
-        int añoActual = LocalDate.now().getYear();  // Obtiene el año actual
-        String fechaCompleta = añoActual + " " + fecha;  // Añade el año a la fecha
+    // Método que lee el archivo de log por bloques con el motor de ingesta
+    private void leerDatosFichero(String nombreFichero, boolean paralelo) {
+        // Cada acceso SSH encontrado se agrega al índice
+        ReceptorAccesos receptor = accesosSSH;
+        try {
+            if (paralelo) {
+                // Los trozos se leen en paralelo y se añaden al índice ya mezclados en orden de fecha
+                bytesLeidos = IngestaParalela.ingerir(Path.of(nombreFichero), Runtime.getRuntime().availableProcessors(),
+                        añoBase, accesosSSH);
+            } else {
+                bytesLeidos = new MotorIngestaLog(receptor, new DecodificadorFechaSyslog(añoBase)).ingerir(Path.of(nombreFichero));
+            }
+        } catch (NoSuchFileException e) {
+            ERRORES.increment();
+            System.out.println("Fichero no encontrado"); // Mensaje si el archivo no se encuentra
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Fallo en la entrada y salida"); // Mensaje si hay un error de I/O
+        }
+    }
 
-        // Define el formato de la fecha
-        DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy MMM dd HH:mm:ss", Locale.ENGLISH);
-        return LocalDateTime.parse(fechaCompleta, dateTimeFormatter); // Convierte la fecha en LocalDateTime
+    // Método que lee los ficheros rotados en orden con el mismo motor, para que el año continúe de uno a otro
+    private void leerArchivos(List<Path> ficheros) {
+        IngestaArchivos ingesta = new IngestaArchivos(Runtime.getRuntime().availableProcessors(), accesosSSH,
+                new DecodificadorFechaSyslog(añoBase));
+        try {
+            ingesta.ingerir(ficheros);
+            // Para seguir el más reciente hay que saber hasta dónde se ha leído
+            bytesLeidos = ingesta.getBytesUltimoFichero();
+            bytesCola = ingesta.getBytesColaUltimoFichero();
+        } catch (NoSuchFileException e) {
+            ERRORES.increment();
+            System.out.println("Fichero no encontrado"); // Mensaje si algún archivo no se encuentra
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Fallo en la entrada y salida"); // Mensaje si hay un error de I/O
+        }
+    }
+
+    // Método que añade al índice la última línea del log si no termina en salto de línea, como la cuenta contarEventos
+    // bytesLeidos se queda al comienzo de esa línea: al seguir o reanudar el log se lee de nuevo cuando se complete
+    private void leerCola() {
+        try {
+            bytesCola = new MotorIngestaLog(accesosSSH, decodificadorSiguiente()).ingerirCola(Path.of(nombreFichero), bytesLeidos);
+        } catch (NoSuchFileException e) {
+            // Sin log no hay línea a medias; el error ya se ha contado al leerlo
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Fallo en la entrada y salida"); // Mensaje si hay un error de I/O
+        }
     }
 
     // Método que filtra y guarda los accesos entre dos fechas en un archivo
@@ -74,26 +216,115 @@ public class LecturaLog {
         // Nombre del archivo donde se guardarán los accesos filtrados
         String nombreArchivo = "accesos_" + fechaInicio.toLocalDate() + "_" + fechaFin.toLocalDate() + ".txt";
 
-        try (FileWriter fileWriter = new FileWriter(nombreArchivo);
-             PrintWriter printWriter = new PrintWriter(fileWriter)) { // Crea un archivo para escribir los accesos
+        try (FileChannel canal = FileChannel.open(Path.of(nombreArchivo), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) { // Crea un archivo para escribir los accesos
+            accesosDesdeHasta(fechaInicio, fechaFin, canal);
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Error al escribir el archivo"); // Mensaje si hay un error al escribir el archivo
+        }
+    }
+
+    // Método que escribe en un canal los accesos entre dos fechas, ambas incluidas, y devuelve cuántos ha escrito
+    // Solo recorre el rango pedido del índice, así se pueden servir muchos informes sin volver a leer el log
+    // Todos los informes usan el mismo escritor, así su buffer y los textos de días y hosts se reutilizan
+    public long accesosDesdeHasta(LocalDateTime fechaInicio, LocalDateTime fechaFin, WritableByteChannel canal) throws IOException {
+        synchronized (escritorInforme) {
+            return escritorInforme.escribir(accesosSSH,
+                    fechaInicio.toEpochSecond(ZoneOffset.UTC), fechaFin.toEpochSecond(ZoneOffset.UTC), canal);
+        }
+    }
 
-            // Itera sobre las fechas de acceso y escribe las que están dentro del rango
-            for (LocalDateTime l : accesosSSH.keySet()) {
-                if ((l.isAfter(fechaInicio) || l.isEqual(fechaInicio)) && (l.isBefore(fechaFin) || l.isEqual(fechaFin))) {
-                    printWriter.println(l.getDayOfMonth() + " de " + l.getMonth() + " de " + l.getYear() + " " + accesosSSH.get(l)); // Escribe la fecha y la IP en el archivo
-                }
+    // Método que analiza en una pasada los accesos entre dos fechas y guarda en un archivo los hosts con más fallos,
+    // su máximo de fallos por ventana (60 segundos por minuto, 3600 por hora) y las ráfagas detectadas
+    public void informeAtaques(LocalDateTime fechaInicio, LocalDateTime fechaFin, long segundosVentana, int topK) {
+        // Nombre del archivo donde se guardará el informe
+        String nombreArchivo = "ataques_" + fechaInicio.toLocalDate() + "_" + fechaFin.toLocalDate() + ".txt";
+
+        Path rafagas = null;
+        try (FileWriter fileWriter = new FileWriter(nombreArchivo);
+             PrintWriter printWriter = new PrintWriter(fileWriter)) {
+            // Las ráfagas se escriben en un fichero temporal y se copian después de la tabla de hosts,
+            // así la memoria no crece con el número de ráfagas
+            rafagas = Files.createTempFile(Path.of(nombreArchivo).toAbsolutePath().getParent(), "rafagas", ".tmp");
+            PrintWriter escritorRafagas = new PrintWriter(Files.newBufferedWriter(rafagas));
+            AgregadorAtaques agregador = new AgregadorAtaques(segundosVentana, UMBRAL_RAFAGA, SEGUNDOS_RAFAGA,
+                    new AgregadorAtaques.Oyente() {
+                        @Override
+                        public void rafaga(String host, long primerFallo, long ultimoFallo, int fallos) {
+                            escritorRafagas.println(AgregadorAtaques.fecha(primerFallo) + " - "
+                                    + AgregadorAtaques.fecha(ultimoFallo) + " " + host + " " + fallos);
+                        }
+                    });
+            try {
+                accesosSSH.recorrer(fechaInicio.toEpochSecond(ZoneOffset.UTC), fechaFin.toEpochSecond(ZoneOffset.UTC), agregador);
+                agregador.terminar();
+            } finally {
+                escritorRafagas.close();
             }
 
+            agregador.escribirInforme(printWriter, topK);
+            printWriter.println();
+            printWriter.println("Rafagas:");
+            try (Reader lector = Files.newBufferedReader(rafagas)) {
+                lector.transferTo(printWriter);
+            }
         } catch (IOException e) {
+            ERRORES.increment();
             System.out.println("Error al escribir el archivo"); // Mensaje si hay un error al escribir el archivo
+        } finally {
+            borrarTemporal(rafagas);
+        }
+    }
+
+    // Método que borra un fichero temporal si existe, sin más aviso que el contador de errores si no puede
+    private static void borrarTemporal(Path temporal) {
+        try {
+            if (temporal != null) {
+                Files.deleteIfExists(temporal);
+            }
+        } catch (IOException e) {
+            ERRORES.increment();
+        }
+    }
+
+    // Método que cuenta en una sola pasada los eventos de cada regla predefinida (sshd, ftpd, su...) del archivo de log
+    public static Map<String, Long> contarEventos(String nombreFichero) {
+        Map<String, Long> contador = new TreeMap<>();
+        MotorExtraccion motor = new MotorExtraccion(ReglaEvento.predeterminadas(),
+                (regla, segundo, campos) -> contador.merge(regla.nombre, 1L, Long::sum));
+        try {
+            motor.ingerir(Path.of(nombreFichero), 0, true); // Solo se cuenta: también la última línea sin salto
+        } catch (NoSuchFileException e) {
+            ERRORES.increment();
+            System.out.println("Fichero no encontrado"); // Mensaje si el archivo no se encuentra
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Fallo en la entrada y salida"); // Mensaje si hay un error de I/O
         }
+        return contador;
+    }
+
+    // Método que sigue el archivo de log en vivo (como tail -F) y añade al índice los accesos nuevos
+    // Devuelve el seguidor en marcha, que se cierra para dejar de seguir el archivo
+    // Empieza tras la última línea completa leída: una línea a medias se lee entera cuando se termina de escribir,
+    // y solo se añade otra vez al índice si ha cambiado desde que se leyó
+    public SeguidorLog seguir(long intervaloMs) {
+        return new SeguidorLog(Path.of(nombreFichero), accesosSSH, bytesLeidos, bytesCola, decodificadorSiguiente(),
+                intervaloMs).iniciar();
+    }
+
+    // Decodificador de fechas que continúa el año donde terminan los accesos ya leídos
+    private DecodificadorFechaSyslog decodificadorSiguiente() {
+        long ultimo = accesosSSH.ultimoSegundo();
+        return ultimo == Long.MIN_VALUE ? new DecodificadorFechaSyslog(añoBase) : DecodificadorFechaSyslog.despuesDe(ultimo);
     }
 
     // Método principal que crea una instancia de LecturaLog y filtra los accesos en un rango de fechas
     public static void main(String[] args) {
-        LecturaLog lecturaLog = new LecturaLog(FICHERO_LOG); // Crea una instancia de la clase con el archivo de log
-        LocalDateTime inicio = LocalDateTime.of(2025, 6, 5, 10, 5, 5); // Define la fecha de inicio
-        LocalDateTime fin = LocalDateTime.of(2025, 7, 5, 10, 5, 5); // Define la fecha de fin
+        LecturaLog lecturaLog = LecturaLog.cargar(FICHERO_LOG, AÑO_LOG); // Crea una instancia con el archivo de log o su instantánea
+        LocalDateTime inicio = LocalDateTime.of(AÑO_LOG, 6, 5, 10, 5, 5); // Define la fecha de inicio
+        LocalDateTime fin = LocalDateTime.of(AÑO_LOG, 7, 5, 10, 5, 5); // Define la fecha de fin
         lecturaLog.accesosDesdeHasta(inicio, fin); // Filtra y guarda los accesos entre las dos fechas
     }
 }
@@ -0,0 +1,33 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lote de contactos para una importación, con la clave de ordenación de cada nombre ya calculada
+ * (IndiceNombres.clave): así el trabajo caro se hace en el hilo que prepara el lote y la agenda
+ * solo tiene que escribirlo.
+ */
+class LoteContactos {
+
+    final List<Contacto> contactos;
+    final List<byte[]> claves;
+
+    /** Entradas descartadas al preparar el lote por no tener un formato válido */
+    int erroneos;
+
+    /** Bytes del fichero de origen que corresponden al lote */
+    long bytes;
+
+    LoteContactos(int capacidad) {
+        contactos = new ArrayList<>(capacidad);
+        claves = new ArrayList<>(capacidad);
+    }
+
+    void añadir(Contacto contacto) {
+        contactos.add(contacto);
+        claves.add(IndiceNombres.clave(contacto.getNombre()));
+    }
+
+    int tamaño() {
+        return contactos.size();
+    }
+}
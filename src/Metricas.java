@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de todo el proceso: contadores (LongAdder) e histogramas de latencia (HistogramaLatencias)
+ * con nombre, que los caminos de lectura y escritura actualizan sin bloquearse entre hilos.
+ * Cada clase pide los suyos una vez y los guarda en campos estáticos; el mismo nombre devuelve
+ * siempre el mismo contador. Los nombres empiezan por la parte del programa: log., libro.,
+ * numeros. y agenda.
+ * <p>
+ * Las métricas se pueden ver de tres formas:
+ * <ul>
+ *   <li>por JMX (MetricasMXBean), que se registra al usar la clase por primera vez;</li>
+ *   <li>con texto() y json(), una foto del momento;</li>
+ *   <li>con un informe periódico en un fichero, al arrancar con
+ *       {@code -Dmetricas.fichero=ruta [-Dmetricas.segundos=10]}: se reescribe entero en cada
+ *       intervalo y al terminar el programa, en JSON si la ruta acaba en .json y en texto si no.</li>
+ * </ul>
+ */
+final class Metricas {
+
+    /** Intervalo del informe periódico si no se indica otro */
+    static final long SEGUNDOS_INFORME = 10;
+
+    private static final ConcurrentMap<String, LongAdder> CONTADORES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, HistogramaLatencias> HISTOGRAMAS = new ConcurrentHashMap<>();
+
+    static {
+        registrarJmx();
+        String fichero = System.getProperty("metricas.fichero");
+        if (fichero != null) {
+            informar(Path.of(fichero), Long.getLong("metricas.segundos", SEGUNDOS_INFORME));
+        }
+    }
+
+    private Metricas() {
+    }
+
+    /**
+     * @param nombre Nombre del contador.
+     * @return El contador con ese nombre, que se crea a 0 la primera vez.
+     */
+    static LongAdder contador(String nombre) {
+        return CONTADORES.computeIfAbsent(nombre, n -> new LongAdder());
+    }
+
+    /**
+     * @param nombre Nombre del histograma.
+     * @return El histograma con ese nombre, que se crea vacío la primera vez.
+     */
+    static HistogramaLatencias histograma(String nombre) {
+        return HISTOGRAMAS.computeIfAbsent(nombre, n -> new HistogramaLatencias());
+    }
+
+    /**
+     * @return Todas las métricas en texto, una por línea y en orden alfabético; las latencias en µs.
+     */
+    static String texto() {
+        StringBuilder texto = new StringBuilder();
+        for (Map.Entry<String, Long> contador : contadores().entrySet()) {
+            texto.append(String.format("%-32s %d%n", contador.getKey(), contador.getValue()));
+        }
+        for (Map.Entry<String, HistogramaLatencias> histograma : new TreeMap<>(HISTOGRAMAS).entrySet()) {
+            texto.append(String.format("%-32s %s%n", histograma.getKey(), resumen(histograma.getValue())));
+        }
+        return texto.toString();
+    }
+
+    /**
+     * @return Todas las métricas en un objeto JSON con la hora en milisegundos, los contadores y,
+     *         por cada histograma, su cantidad, media, percentiles y máximo en nanosegundos.
+     */
+    static String json() {
+        StringBuilder json = new StringBuilder("{\"marca\":").append(System.currentTimeMillis()).append(",\"contadores\":{");
+        String separador = "";
+        for (Map.Entry<String, Long> contador : contadores().entrySet()) {
+            json.append(separador).append('"').append(escapar(contador.getKey())).append("\":").append(contador.getValue());
+            separador = ",";
+        }
+        json.append("},\"histogramas\":{");
+        separador = "";
+        for (Map.Entry<String, HistogramaLatencias> entrada : new TreeMap<>(HISTOGRAMAS).entrySet()) {
+            HistogramaLatencias h = entrada.getValue();
+            json.append(separador).append('"').append(escapar(entrada.getKey())).append("\":{")
+                    .append("\"cantidad\":").append(h.getCantidad())
+                    .append(",\"media\":").append(Math.round(h.getMedia()))
+                    .append(",\"p50\":").append(h.percentil(0.5))
+                    .append(",\"p90\":").append(h.percentil(0.9))
+                    .append(",\"p99\":").append(h.percentil(0.99))
+                    .append(",\"p999\":").append(h.percentil(0.999))
+                    .append(",\"max\":").append(h.getMaximo()).append('}');
+            separador = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Empieza a escribir las métricas en un fichero cada cierto tiempo, desde un hilo demonio, y una
+     * última vez al terminar el programa. El fichero se escribe aparte y se mueve encima, así quien
+     * lo lea nunca ve un informe a medias.
+     * @param fichero  Ruta del informe; en JSON si acaba en .json, en texto si no.
+     * @param segundos Intervalo entre informes.
+     */
+    static void informar(Path fichero, long segundos) {
+        boolean enJson = fichero.toString().endsWith(".json");
+        Runnable escribir = () -> {
+            try {
+                Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+                Files.writeString(temporal, enJson ? json() + "\n" : texto(), StandardCharsets.UTF_8);
+                Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("Error al escribir las métricas: " + e.getMessage());
+            }
+        };
+        ScheduledExecutorService programador = Executors.newSingleThreadScheduledExecutor(tarea -> {
+            Thread hilo = new Thread(tarea, "metricas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        programador.scheduleAtFixedRate(escribir, segundos, segundos, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(escribir, "metricas-final"));
+    }
+
+    private static Map<String, Long> contadores() {
+        Map<String, Long> valores = new TreeMap<>();
+        CONTADORES.forEach((nombre, contador) -> valores.put(nombre, contador.sum()));
+        return valores;
+    }
+
+    private static String resumen(HistogramaLatencias h) {
+        return String.format(Locale.ROOT, "n=%d media=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f máx=%.1f µs",
+                h.getCantidad(), h.getMedia() / 1e3, h.percentil(0.5) / 1e3, h.percentil(0.9) / 1e3,
+                h.percentil(0.99) / 1e3, h.percentil(0.999) / 1e3, h.getMaximo() / 1e3);
+    }
+
+    private static String escapar(String texto) {
+        return texto.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Sin JMX (por ejemplo, si ya hay otro registro con el mismo nombre) las métricas siguen funcionando
+    private static void registrarJmx() {
+        MetricasMXBean vista = new MetricasMXBean() {
+            @Override
+            public Map<String, Long> getContadores() {
+                return contadores();
+            }
+
+            @Override
+            public Map<String, String> getHistogramas() {
+                Map<String, String> resumenes = new TreeMap<>();
+                HISTOGRAMAS.forEach((nombre, histograma) -> resumenes.put(nombre, resumen(histograma)));
+                return resumenes;
+            }
+
+            @Override
+            public String getJson() {
+                return json();
+            }
+        };
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(vista, new ObjectName("Metricas:type=Proceso"));
+        } catch (JMException | SecurityException e) {
+            System.out.println("No se han podido publicar las métricas por JMX: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+import java.util.Map;
+
+/**
+ * Vista JMX de las métricas del programa (Metricas), con el nombre "Metricas:type=Proceso".
+ * Se puede consultar con jconsole o jcmd mientras el programa está en marcha.
+ */
+public interface MetricasMXBean {
+
+    /** @return Valor de cada contador, por nombre. */
+    Map<String, Long> getContadores();
+
+    /** @return Resumen de cada histograma (cantidad, media, percentiles y máximo en µs), por nombre. */
+    Map<String, String> getHistogramas();
+
+    /** @return Todas las métricas en JSON, como las escribe el informe periódico. */
+    String getJson();
+}
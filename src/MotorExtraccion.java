@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+
+/**
+ * Motor de extracción de eventos con varias reglas en una sola pasada por línea.
+ * La cabecera de syslog ("Jun 14 15:16:01 combo sshd(pam_unix)[19939]: mensaje") se separa a mano;
+ * con el nombre del programa se eligen solo las reglas de ese programa, y de ellas solo se
+ * evalúa la expresión regular de las que encuentran su literal en el mensaje.
+ * Así el coste por línea casi no crece al añadir reglas de otros programas.
+ * La fecha de cada línea se convierte con DecodificadorFechaSyslog, que cuesta unas pocas
+ * operaciones con enteros; se hace en todas las líneas para no perder los cambios de año.
+ * En las métricas publica los eventos y las líneas descartadas al final de cada bloque, y el tiempo
+ * de decodificar la fecha y de evaluar las reglas de una de cada MUESTREO_TIEMPOS líneas: medir
+ * todas costaría dos lecturas del reloj por línea, tanto como decodificar la fecha.
+ */
+class MotorExtraccion implements LectorLineas.ProcesadorLinea {
+
+    /** Longitud de la fecha de syslog "MMM dd HH:mm:ss" */
+    static final int LONGITUD_FECHA = DecodificadorFechaSyslog.LONGITUD;
+
+    /** Se mide el tiempo de una de cada tantas líneas (potencia de dos) */
+    static final int MUESTREO_TIEMPOS = 64;
+
+    private static final LongAdder EVENTOS = Metricas.contador("log.eventos");
+    private static final LongAdder DESCARTADAS = Metricas.contador("log.descartadas");
+    private static final HistogramaLatencias TIEMPO_FECHA = Metricas.histograma("log.fecha");
+    private static final HistogramaLatencias TIEMPO_REGLAS = Metricas.histograma("log.regex");
+
+    // Reglas agrupadas por programa, con un Matcher reutilizable por regla
+    private final String[] programas;
+    private final ReglaEvento[][] reglasPorPrograma;
+    private final Matcher[][] matchersPorPrograma;
+    private final ReglaEvento[] reglasGenerales;
+    private final Matcher[] matchersGenerales;
+
+    private final ReceptorEventos receptor;
+    private final DecodificadorFechaSyslog decodificador;
+
+    private long lineas;
+    private long descartadas;
+    private long eventos;
+    private long eventosPublicados;
+    private long descartadasPublicadas;
+
+    /**
+     * Constructor del motor. Las fechas del log no llevan año: se parte del año actual.
+     * @param reglas   Reglas a evaluar.
+     * @param receptor Destino de los eventos reconocidos.
+     */
+    MotorExtraccion(List<ReglaEvento> reglas, ReceptorEventos receptor) {
+        this(reglas, receptor, new DecodificadorFechaSyslog(LocalDate.now().getYear()));
+    }
+
+    /**
+     * Constructor del motor.
+     * @param reglas        Reglas a evaluar.
+     * @param receptor      Destino de los eventos reconocidos.
+     * @param decodificador Decodificador de fechas, con el año de partida del log.
+     */
+    MotorExtraccion(List<ReglaEvento> reglas, ReceptorEventos receptor, DecodificadorFechaSyslog decodificador) {
+        this.receptor = receptor;
+        this.decodificador = decodificador;
+
+        List<String> nombres = new ArrayList<>();
+        List<List<ReglaEvento>> grupos = new ArrayList<>();
+        List<ReglaEvento> generales = new ArrayList<>();
+        for (ReglaEvento regla : reglas) {
+            if (regla.programa == null) {
+                generales.add(regla);
+                continue;
+            }
+            int i = nombres.indexOf(regla.programa);
+            if (i == -1) {
+                nombres.add(regla.programa);
+                grupos.add(new ArrayList<>());
+                i = nombres.size() - 1;
+            }
+            grupos.get(i).add(regla);
+        }
+        programas = nombres.toArray(new String[0]);
+        reglasPorPrograma = new ReglaEvento[programas.length][];
+        matchersPorPrograma = new Matcher[programas.length][];
+        for (int i = 0; i < programas.length; i++) {
+            reglasPorPrograma[i] = grupos.get(i).toArray(new ReglaEvento[0]);
+            matchersPorPrograma[i] = matchers(reglasPorPrograma[i]);
+        }
+        reglasGenerales = generales.toArray(new ReglaEvento[0]);
+        matchersGenerales = matchers(reglasGenerales);
+    }
+
+    /**
+     * Procesa las líneas del fichero desde una posición hasta el final.
+     * @param fichero   Ruta del fichero de log.
+     * @param desde     Byte desde el que empezar, que debe ser el comienzo de una línea.
+     * @param terminado Si es true, una última línea sin salto de línea también se procesa: el fichero
+     *                  ya no va a crecer. Si es false se deja sin procesar, porque puede estar a medio
+     *                  escribir, y la lectura se puede continuar desde la posición devuelta.
+     * @return Posición siguiente al último salto de línea procesado, o el final del fichero si terminado.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    long ingerir(Path fichero, long desde, boolean terminado) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            long tamaño = canal.size();
+            LectorLineas lector = new LectorLineas(this);
+            lector.leer(canal, desde, tamaño);
+            if (terminado) {
+                lector.terminar();
+                return tamaño;
+            }
+            return tamaño - lector.getBytesPendientes();
+        }
+    }
+
+    /**
+     * Procesa la última línea del fichero cuando no termina en salto de línea, para las lecturas de una
+     * vez que no van a esperar a que se complete. Si entre 'desde' y el final ya hay un salto de línea
+     * no se procesa nada: esas líneas son de quien continúe la lectura desde 'desde'.
+     * @param fichero Ruta del fichero de log.
+     * @param desde   Comienzo de la última línea, es decir, la posición devuelta por ingerir sin terminar.
+     * @return Bytes de la línea procesada, 0 si no había ninguna a medias.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    long ingerirCola(Path fichero, long desde) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            long tamaño = canal.size();
+            ByteBuffer bloque = ByteBuffer.allocate(8192);
+            for (long posicion = desde; posicion < tamaño; ) {
+                bloque.clear();
+                if (tamaño - posicion < bloque.capacity()) {
+                    bloque.limit((int) (tamaño - posicion));
+                }
+                int leidos = canal.read(bloque, posicion);
+                if (leidos <= 0) {
+                    return 0;
+                }
+                for (int i = 0; i < leidos; i++) {
+                    if (bloque.get(i) == '\n') {
+                        return 0;
+                    }
+                }
+                posicion += leidos;
+            }
+            LectorLineas lector = new LectorLineas(this);
+            lector.leer(canal, desde, tamaño);
+            lector.terminar();
+            return Math.max(0, tamaño - desde);
+        }
+    }
+
+    /**
+     * Evalúa las reglas sobre una línea y entrega al receptor un evento por cada regla que la reconoce.
+     * @param linea Línea sin el salto de línea final.
+     */
+    @Override
+    public void procesar(CharSequence linea) {
+        lineas++;
+        int longitud = linea.length();
+        if (longitud <= LONGITUD_FECHA + 1 || linea.charAt(LONGITUD_FECHA) != ' ') {
+            descartadas++;
+            return;
+        }
+
+        // Cabecera: fecha, máquina y programa; el mensaje empieza tras el primer ": "
+        int inicioPrograma = indice(linea, ' ', LONGITUD_FECHA + 1) + 1;
+        if (inicioPrograma == 0) {
+            descartadas++;
+            return;
+        }
+        int finPrograma = inicioPrograma;
+        while (finPrograma < longitud && esParteDePrograma(linea.charAt(finPrograma))) {
+            finPrograma++;
+        }
+        int dosPuntos = indice(linea, ':', finPrograma);
+        int inicioMensaje = dosPuntos == -1 ? finPrograma : Math.min(dosPuntos + 2, longitud);
+
+        boolean medir = (lineas & (MUESTREO_TIEMPOS - 1)) == 0;
+        long inicio = medir ? System.nanoTime() : 0;
+        long segundo = decodificador.decodificar(linea, 0);
+        if (medir) {
+            long ahora = System.nanoTime();
+            TIEMPO_FECHA.registrar(ahora - inicio);
+            inicio = ahora;
+        }
+        if (segundo == DecodificadorFechaSyslog.FECHA_INVALIDA) {
+            descartadas++;
+            return;
+        }
+
+        int reconocidas = 0;
+        int grupo = grupo(linea, inicioPrograma, finPrograma);
+        if (grupo != -1) {
+            reconocidas += evaluar(linea, inicioMensaje, segundo, reglasPorPrograma[grupo], matchersPorPrograma[grupo]);
+        }
+        reconocidas += evaluar(linea, inicioMensaje, segundo, reglasGenerales, matchersGenerales);
+        if (medir) {
+            TIEMPO_REGLAS.registrar(System.nanoTime() - inicio);
+        }
+        if (reconocidas == 0) {
+            descartadas++;
+        }
+    }
+
+    /**
+     * Publica en las métricas los eventos y las líneas descartadas desde la última vez.
+     */
+    @Override
+    public void finBloque() {
+        EVENTOS.add(eventos - eventosPublicados);
+        DESCARTADAS.add(descartadas - descartadasPublicadas);
+        eventosPublicados = eventos;
+        descartadasPublicadas = descartadas;
+    }
+
+    long getLineas() {
+        return lineas;
+    }
+
+    long getDescartadas() {
+        return descartadas;
+    }
+
+    long getEventos() {
+        return eventos;
+    }
+
+    // Evalúa un grupo de reglas y devuelve cuántas han reconocido la línea
+    private int evaluar(CharSequence linea, int inicioMensaje, long segundo, ReglaEvento[] reglas, Matcher[] matchers) {
+        int reconocidas = 0;
+        for (int i = 0; i < reglas.length; i++) {
+            if (!contiene(linea, inicioMensaje, reglas[i].literal)) {
+                continue;
+            }
+            Matcher matcher = matchers[i].reset(linea);
+            matcher.region(inicioMensaje, linea.length());
+            if (matcher.find()) {
+                reconocidas++;
+                eventos++;
+                receptor.evento(reglas[i], segundo, matcher);
+            }
+        }
+        return reconocidas;
+    }
+
+    // Busca el grupo de reglas del programa comparando sus caracteres, sin crear un String
+    private int grupo(CharSequence linea, int inicio, int fin) {
+        for (int g = 0; g < programas.length; g++) {
+            String programa = programas[g];
+            if (programa.length() != fin - inicio) {
+                continue;
+            }
+            int i = 0;
+            while (i < programa.length() && programa.charAt(i) == linea.charAt(inicio + i)) {
+                i++;
+            }
+            if (i == programa.length()) {
+                return g;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean esParteDePrograma(char c) {
+        return c != '[' && c != '(' && c != ':' && c != ' ';
+    }
+
+    private static int indice(CharSequence texto, char c, int desde) {
+        for (int i = desde; i < texto.length(); i++) {
+            if (texto.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Prefiltro: busca el literal en el texto a partir de 'desde'
+    private static boolean contiene(CharSequence texto, int desde, String literal) {
+        int ultimo = texto.length() - literal.length();
+        char primero = literal.charAt(0);
+        for (int i = desde; i <= ultimo; i++) {
+            if (texto.charAt(i) != primero) {
+                continue;
+            }
+            int j = 1;
+            while (j < literal.length() && texto.charAt(i + j) == literal.charAt(j)) {
+                j++;
+            }
+            if (j == literal.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Matcher[] matchers(ReglaEvento[] reglas) {
+        Matcher[] matchers = new Matcher[reglas.length];
+        for (int i = 0; i < reglas.length; i++) {
+            matchers[i] = reglas[i].patron.matcher("");
+        }
+        return matchers;
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Motor de ingesta de accesos SSH en streaming.
+ * Lee el fichero por bloques con LectorLineas y usa un MotorExtraccion con la regla de
+ * fallos de autenticación de sshd para entregar los accesos encontrados a un ReceptorAccesos.
+ * La memoria usada es constante: no se guarda nada del fichero salvo la línea en curso.
+ */
+class MotorIngestaLog implements LectorLineas.ProcesadorLinea {
+
+    private final MotorExtraccion extraccion;
+
+    /**
+     * Constructor del motor. Las fechas del log no llevan año: se parte del año actual.
+     * @param receptor Destino de los accesos encontrados.
+     */
+    MotorIngestaLog(ReceptorAccesos receptor) {
+        this(receptor, new DecodificadorFechaSyslog(LocalDate.now().getYear()));
+    }
+
+    /**
+     * Constructor del motor.
+     * @param receptor      Destino de los accesos encontrados.
+     * @param decodificador Decodificador de fechas, con el año de partida del log.
+     */
+    MotorIngestaLog(ReceptorAccesos receptor, DecodificadorFechaSyslog decodificador) {
+        this.extraccion = new MotorExtraccion(List.of(ReglaEvento.sshFalloAutenticacion()),
+                (regla, segundo, campos) -> receptor.acceso(segundo, campos.group("ip")), decodificador);
+    }
+
+    /**
+     * Lee el fichero completo y procesa todas sus líneas terminadas en salto de línea.
+     * @param fichero Ruta del fichero de log.
+     * @return Bytes procesados, hasta el último salto de línea.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    long ingerir(Path fichero) throws IOException {
+        return ingerir(fichero, 0);
+    }
+
+    /**
+     * Procesa las líneas del fichero desde una posición hasta el final. Una última línea sin salto
+     * de línea puede estar a medio escribir: no se procesa, y la posición devuelta es su comienzo,
+     * para continuar desde ahí cuando el fichero crezca.
+     * @param fichero Ruta del fichero de log.
+     * @param desde   Byte desde el que empezar, que debe ser el comienzo de una línea.
+     * @return Posición siguiente al último salto de línea, es decir, bytes procesados contando los anteriores a 'desde'.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    long ingerir(Path fichero, long desde) throws IOException {
+        return extraccion.ingerir(fichero, desde, false);
+    }
+
+    /**
+     * Procesa la última línea del fichero si no termina en salto de línea, para una lectura de una vez
+     * (la posición de reanudación sigue siendo su comienzo). Ver MotorExtraccion.ingerirCola.
+     * @param fichero Ruta del fichero de log.
+     * @param desde   Posición devuelta por ingerir.
+     * @return Bytes de la línea procesada, 0 si no había ninguna a medias.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    long ingerirCola(Path fichero, long desde) throws IOException {
+        return extraccion.ingerirCola(fichero, desde);
+    }
+
+    /**
+     * Procesa una línea del log y, si es un acceso SSH, lo entrega al receptor.
+     * @param linea Línea sin el salto de línea final.
+     */
+    @Override
+    public void procesar(CharSequence linea) {
+        extraccion.procesar(linea);
+    }
+
+    @Override
+    public void finBloque() {
+        extraccion.finBloque();
+    }
+
+    long getCoincidencias() {
+        return extraccion.getEventos();
+    }
+}
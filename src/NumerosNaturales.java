@@ -1,22 +1,37 @@
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Clase para gestionar una lista de números naturales.
  * Permite leer números desde un archivo, ingresar números por consola,
  * mostrar la lista, calcular la media, el máximo y guardar los datos en un archivo.
+ * Los números se guardan en un int[] que crece según hace falta y las estadísticas se mantienen
+ * al añadir cada número (EstadisticasNumeros), así media y máximo no recorren la lista.
+ * Guardar solo añade al final del archivo los números nuevos, sin reescribir los que ya estaban.
+ * Para archivos con cientos de millones de números, analizar calcula las estadísticas en una
+ * pasada sin guardar los números.
  */
 public class NumerosNaturales {
 
-    private ArrayList<Integer> listaNum;
+    private int[] listaNum;
+    private int cantidad;
+    private int guardados; // Los primeros 'guardados' números ya están en el archivo
+    private final EstadisticasNumeros estadisticas = new EstadisticasNumeros();
     private final static String FICHERO = "numNaturales.txt";
+    private final static LongAdder ERRORES = Metricas.contador("numeros.errores");
 
     /**
      * Constructor que inicializa la lista de números y lee los datos del archivo.
      */
     public NumerosNaturales() {
-        listaNum = new ArrayList<>();
+        listaNum = new int[1024];
         leerFichero();
     }
 
@@ -24,15 +39,16 @@ public class NumerosNaturales {
      * Lee los números desde un archivo de texto y los agrega a la lista.
      */
     private void leerFichero() {
-        try (FileReader fileReader = new FileReader(FICHERO);
-             Scanner scanner = new Scanner(fileReader)) {
-            while (scanner.hasNext()) {
-                listaNum.add(scanner.nextInt());
-            }
-        } catch (FileNotFoundException e) {
+        try {
+            new LectorEnteros(this::añadir).leer(Path.of(FICHERO));
+        } catch (NoSuchFileException e) {
+            ERRORES.increment();
             System.out.println("Fichero no encontrado");
         } catch (IOException e) {
+            ERRORES.increment();
             System.out.println("Fallo en la entrada y salida");
+        } finally {
+            guardados = cantidad; // También tras un fallo a medias: los leídos ya están en el archivo
         }
     }
 
@@ -46,23 +62,38 @@ public class NumerosNaturales {
             int num;
             do {
                 num = sc.nextInt();
-                if (num >= 0) listaNum.add(num);
+                if (num >= 0) añadir(num);
             } while (num != -1);
         }
     }
 
     /**
-     * Guarda la lista de números en el archivo de texto.
+     * Guarda en el archivo de texto los números añadidos desde la última vez, al final del archivo.
      */
     public void guardarLista() {
-        try (FileWriter fileWriter = new FileWriter(FICHERO);
-             PrintWriter printWriter = new PrintWriter(fileWriter)) {
-            for (int i : listaNum) {
-                printWriter.println(i);
+        try (FileChannel canal = FileChannel.open(Path.of(FICHERO), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long posicion = canal.size();
+            // Si el archivo no termina en salto de línea, el primer número nuevo se pegaría al último
+            if (posicion > 0 && cantidad > guardados) {
+                ByteBuffer ultimo = ByteBuffer.allocate(1);
+                canal.read(ultimo, posicion - 1);
+                if (ultimo.get(0) != '\n') {
+                    buffer.put((byte) '\n');
+                }
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Fichero no encontrado");
+            for (int i = guardados; i < cantidad; i++) {
+                if (buffer.remaining() < 11) { // Cifras de un int y el salto de línea
+                    posicion += volcar(canal, buffer, posicion);
+                }
+                escribirNumero(listaNum[i], buffer);
+                buffer.put((byte) '\n');
+            }
+            volcar(canal, buffer, posicion);
+            guardados = cantidad;
         } catch (IOException e) {
+            ERRORES.increment();
             System.out.println("Fallo en la entrada y salida");
         }
     }
@@ -71,33 +102,112 @@ public class NumerosNaturales {
      * Muestra todos los números de la lista en la consola.
      */
     public void mostrarLista() {
-        listaNum.stream().forEach(System.out::println);
+        PrintWriter salida = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        for (int i = 0; i < cantidad; i++) {
+            salida.println(listaNum[i]);
+        }
+        salida.flush(); // Sin cerrar: System.out sigue en uso
     }
 
     /**
      * Calcula y muestra la media de los números de la lista.
      */
     public void media() {
-        System.out.println(listaNum.stream().mapToInt(Integer::intValue).average().orElse(0.0));
+        System.out.println(estadisticas.getMedia());
     }
 
     /**
      * Muestra el número máximo de la lista.
      */
     public void max() {
-        System.out.println(listaNum.stream().mapToInt(Integer::intValue).max().orElse(0));
+        System.out.println(estadisticas.getMaximo());
+    }
+
+    /**
+     * Muestra cantidad, suma, mínimo, máximo, media, desviación y cuantiles aproximados de la lista.
+     */
+    public void mostrarEstadisticas() {
+        System.out.println(estadisticas);
+    }
+
+    /**
+     * Calcula las estadísticas de un archivo de números en una sola pasada, sin guardar los números.
+     * @param fichero Ruta del archivo.
+     * @return Las estadísticas, o null si no se ha podido leer.
+     */
+    public static EstadisticasNumeros analizar(String fichero) {
+        EstadisticasNumeros estadisticas = new EstadisticasNumeros();
+        LectorEnteros lector = new LectorEnteros(estadisticas);
+        try {
+            lector.leer(Path.of(fichero));
+        } catch (NoSuchFileException e) {
+            ERRORES.increment();
+            System.out.println("Fichero no encontrado");
+            return null;
+        } catch (IOException e) {
+            ERRORES.increment();
+            System.out.println("Fallo en la entrada y salida");
+            return null;
+        }
+        if (lector.getDescartados() > 0) {
+            System.out.println("Descartados " + lector.getDescartados() + " números negativos o demasiado grandes");
+        }
+        return estadisticas;
+    }
+
+    // Añade un número a la lista y a las estadísticas
+    private void añadir(int numero) {
+        if (cantidad == listaNum.length) {
+            listaNum = Arrays.copyOf(listaNum, listaNum.length * 2);
+        }
+        listaNum[cantidad++] = numero;
+        estadisticas.accept(numero);
+    }
+
+    // Escribe las cifras de un número no negativo sin crear un String
+    private static void escribirNumero(int numero, ByteBuffer buffer) {
+        int cifras = 1;
+        for (int resto = numero / 10; resto > 0; resto /= 10) {
+            cifras++;
+        }
+        int fin = buffer.position() + cifras;
+        for (int i = fin - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + numero % 10));
+            numero /= 10;
+        }
+        buffer.position(fin);
+    }
+
+    // Escribe el buffer en la posición indicada y lo deja vacío; devuelve los bytes escritos
+    private static int volcar(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        buffer.flip();
+        int escritos = 0;
+        while (buffer.hasRemaining()) {
+            escritos += canal.write(buffer, posicion + escritos);
+        }
+        buffer.clear();
+        return escritos;
     }
 
     /**
      * Método principal que ejecuta las operaciones de leer números, mostrar la lista,
      * guardar la lista en un archivo, calcular la media y el máximo.
+     * Con un archivo como argumento, solo muestra sus estadísticas sin cargar los números.
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            EstadisticasNumeros estadisticas = analizar(args[0]);
+            if (estadisticas != null) {
+                System.out.println(estadisticas);
+            }
+            return;
+        }
         NumerosNaturales numerosNaturales = new NumerosNaturales();
         numerosNaturales.leerNumerosUsuario();
         numerosNaturales.mostrarLista();
         numerosNaturales.guardarLista();
         numerosNaturales.media();
         numerosNaturales.max();
+        numerosNaturales.mostrarEstadisticas();
     }
 }
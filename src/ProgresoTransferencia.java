@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contadores de una importación o exportación de la agenda. Se actualizan mientras dura la
+ * transferencia y se pueden consultar desde otro hilo para mostrar el avance.
+ */
+class ProgresoTransferencia {
+
+    private final long inicio = System.nanoTime();
+    private final AtomicLong registros = new AtomicLong();
+    private final AtomicLong duplicados = new AtomicLong();
+    private final AtomicLong erroneos = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long fin;
+
+    void sumarRegistros(long n) {
+        registros.addAndGet(n);
+    }
+
+    void sumarDuplicados(long n) {
+        duplicados.addAndGet(n);
+    }
+
+    void sumarErroneos(long n) {
+        erroneos.addAndGet(n);
+    }
+
+    void sumarBytes(long n) {
+        bytes.addAndGet(n);
+    }
+
+    /**
+     * Marca el final de la transferencia: desde ahora el tiempo no avanza.
+     */
+    void terminar() {
+        fin = System.nanoTime();
+    }
+
+    /** @return Contactos importados o exportados. */
+    long getRegistros() {
+        return registros.get();
+    }
+
+    /** @return Contactos descartados porque su id ya estaba en la agenda o antes en el fichero. */
+    long getDuplicados() {
+        return duplicados.get();
+    }
+
+    /** @return Líneas o registros descartados por no tener un formato válido. */
+    long getErroneos() {
+        return erroneos.get();
+    }
+
+    /** @return Bytes leídos o escritos del fichero de la transferencia. */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /** @return Segundos transcurridos desde el inicio hasta ahora o hasta el final. */
+    double getSegundos() {
+        long hasta = fin != 0 ? fin : System.nanoTime();
+        return (hasta - inicio) / 1e9;
+    }
+
+    double getRegistrosPorSegundo() {
+        double segundos = getSegundos();
+        return segundos > 0 ? getRegistros() / segundos : 0;
+    }
+
+    double getMegabytesPorSegundo() {
+        double segundos = getSegundos();
+        return segundos > 0 ? getBytes() / 1048576.0 / segundos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d contactos, %d duplicados, %d erróneos, %.1f MB en %.1f s (%.0f contactos/s, %.1f MB/s)",
+                getRegistros(), getDuplicados(), getErroneos(), getBytes() / 1048576.0, getSegundos(),
+                getRegistrosPorSegundo(), getMegabytesPorSegundo());
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Destino de los accesos SSH extraídos del log.
+ * Cada acceso llega como el segundo epoch de su fecha (hora local del log tratada como UTC)
+ * y el host remoto (rhost).
+ */
+@FunctionalInterface
+interface ReceptorAccesos {
+
+    /**
+     * Recibe un acceso SSH fallido.
+     * @param segundoEpoch Fecha del acceso en segundos desde 1970-01-01T00:00:00.
+     * @param host         Host o IP remota.
+     */
+    void acceso(long segundoEpoch, String host);
+}
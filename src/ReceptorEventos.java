@@ -0,0 +1,16 @@
+import java.util.regex.Matcher;
+
+/**
+ * Destino de los eventos extraídos del log por MotorExtraccion.
+ */
+@FunctionalInterface
+interface ReceptorEventos {
+
+    /**
+     * Recibe un evento.
+     * @param regla        Regla que ha reconocido la línea.
+     * @param segundoEpoch Fecha de la línea en segundos epoch.
+     * @param campos       Matcher con los grupos de la regla; solo es válido durante la llamada.
+     */
+    void evento(ReglaEvento regla, long segundoEpoch, Matcher campos);
+}
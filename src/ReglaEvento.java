@@ -0,0 +1,70 @@
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Regla de extracción de un tipo de evento del log.
+ * Una regla solo se evalúa sobre las líneas de su programa (sshd, ftpd, su...) y solo si el
+ * mensaje contiene su literal; la expresión regular, sin grupos ".*" codiciosos, se aplica
+ * después sobre el mensaje y sus grupos con nombre son los campos del evento.
+ */
+class ReglaEvento {
+
+    /** Fallo de autenticación de sshd con host remoto; grupo "ip" */
+    static final String SSH_FALLO_AUTENTICACION = "sshd_fallo_autenticacion";
+    /** Comprobación de contraseña de sshd para un usuario que no existe */
+    static final String SSH_USUARIO_DESCONOCIDO = "sshd_usuario_desconocido";
+    /** Conexión a ftpd; grupos "ip" y "host" */
+    static final String FTP_CONEXION = "ftpd_conexion";
+    /** Apertura de sesión con su; grupos "usuario" y "origen" */
+    static final String SU_SESION_ABIERTA = "su_sesion_abierta";
+    /** Cierre de sesión con su; grupo "usuario" */
+    static final String SU_SESION_CERRADA = "su_sesion_cerrada";
+
+    final String nombre;
+    final String programa;
+    final String literal;
+    final Pattern patron;
+
+    /**
+     * Constructor de la regla.
+     * @param nombre    Nombre del tipo de evento.
+     * @param programa  Programa que escribe la línea, o null para cualquiera.
+     * @param literal   Texto que debe aparecer en el mensaje para evaluar la expresión.
+     * @param expresion Expresión regular que se busca en el mensaje.
+     */
+    ReglaEvento(String nombre, String programa, String literal, String expresion) {
+        if (literal == null || literal.isEmpty()) {
+            throw new IllegalArgumentException("La regla " + nombre + " necesita un literal");
+        }
+        this.nombre = nombre;
+        this.programa = programa;
+        this.literal = literal;
+        this.patron = Pattern.compile(expresion);
+    }
+
+    /**
+     * Regla de los accesos SSH fallidos que guarda LecturaLog.
+     */
+    static ReglaEvento sshFalloAutenticacion() {
+        return new ReglaEvento(SSH_FALLO_AUTENTICACION, "sshd", "rhost=", "\\brhost=(?<ip>\\S+)");
+    }
+
+    /**
+     * Reglas predefinidas para los eventos habituales de un syslog.
+     */
+    static List<ReglaEvento> predeterminadas() {
+        return List.of(
+                sshFalloAutenticacion(),
+                new ReglaEvento(SSH_USUARIO_DESCONOCIDO, "sshd", "user unknown", "^check pass; user unknown"),
+                new ReglaEvento(FTP_CONEXION, "ftpd", "connection from",
+                        "^connection from (?<ip>\\S+)(?: \\((?<host>[^)]*)\\))?"),
+                new ReglaEvento(SU_SESION_ABIERTA, "su", "session opened",
+                        "^session opened for user (?<usuario>\\S+) by (?<origen>\\S*)"),
+                new ReglaEvento(SU_SESION_CERRADA, "su", "session closed", "^session closed for user (?<usuario>\\S+)"));
+    }
+
+    @Override
+    public String toString() {
+        return nombre;
+    }
+}
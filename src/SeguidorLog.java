@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Seguimiento de un fichero de log en vivo, como "tail -F".
+ * Cada cierto intervalo comprueba el fichero y procesa solo los bytes añadidos desde la
+ * última vez, añadiendo los accesos nuevos al índice en un único lote.
+ * Detecta la rotación (el nombre pasa a ser otro fichero) y el truncado: el fichero encoge o, si se ha
+ * vuelto a escribir hasta el mismo tamaño o más, cambia la huella de sus primeros bytes (la misma de
+ * InstantaneaIndice). En la rotación termina de leer el fichero antiguo antes de pasar al nuevo desde
+ * el principio, y en el truncado vuelve a leer desde el principio.
+ */
+class SeguidorLog implements Runnable, AutoCloseable {
+
+    private static final LongAdder ERRORES = Metricas.contador("log.errores");
+
+    private final Path fichero;
+    private final IndiceAccesos indice;
+    private final long intervaloMs;
+
+    // Accesos leídos en la comprobación en curso, que pasan al índice todos juntos
+    private IndiceAccesos lote = new IndiceAccesos();
+    private final LectorLineas lector;
+
+    private FileChannel canal;
+    private Object claveFichero;
+    private long posicion;
+
+    // Huella de los primeros bytes leídos del fichero, hasta InstantaneaIndice.BYTES_HUELLA
+    private long huella;
+    private long bytesHuella;
+
+    // Bytes de la línea a medias en la posición de partida que ya están en el índice, 0 si no hay
+    private long colaIndexada;
+
+    private volatile boolean activo = true;
+    private Thread hilo;
+
+    /**
+     * Constructor del seguidor.
+     * @param fichero       Ruta del fichero de log.
+     * @param indice        Índice donde se añaden los accesos nuevos.
+     * @param posicion      Byte desde el que empezar a leer, que debe ser el comienzo de una línea (lo ya
+     *                      leído no se vuelve a procesar). Una línea a medias a partir de ahí la guarda
+     *                      el lector hasta que llega su salto de línea.
+     * @param colaIndexada  Bytes de la línea a medias en 'posicion' que la lectura anterior ya añadió al
+     *                      índice, 0 si no añadió ninguna: si al completarse sigue teniendo los mismos
+     *                      (solo le ha llegado el salto de línea) no se vuelve a añadir.
+     * @param decodificador Decodificador de fechas que continúa donde terminó la lectura anterior.
+     * @param intervaloMs   Milisegundos entre comprobaciones.
+     */
+    SeguidorLog(Path fichero, IndiceAccesos indice, long posicion, long colaIndexada, DecodificadorFechaSyslog decodificador,
+                long intervaloMs) {
+        this.fichero = fichero;
+        this.indice = indice;
+        this.posicion = posicion;
+        this.colaIndexada = colaIndexada;
+        this.intervaloMs = intervaloMs;
+        MotorIngestaLog motor = new MotorIngestaLog((segundo, host) -> lote.acceso(segundo, host), decodificador);
+        this.lector = new LectorLineas(new LectorLineas.ProcesadorLinea() {
+            @Override
+            public void procesar(CharSequence linea) {
+                long cola = SeguidorLog.this.colaIndexada;
+                SeguidorLog.this.colaIndexada = 0;
+                if (cola == 0 || linea.length() != cola) {
+                    motor.procesar(linea);
+                }
+            }
+
+            @Override
+            public void finBloque() {
+                motor.finBloque();
+            }
+        });
+    }
+
+    /**
+     * Arranca el seguimiento en un hilo demonio.
+     * @return Este mismo seguidor, para cerrarlo cuando ya no se necesite.
+     */
+    SeguidorLog iniciar() {
+        hilo = new Thread(this, "seguidor-" + fichero.getFileName());
+        hilo.setDaemon(true);
+        hilo.start();
+        return this;
+    }
+
+    @Override
+    public void run() {
+        while (activo) {
+            try {
+                comprobar();
+            } catch (IOException e) {
+                ERRORES.increment();
+                System.out.println("Fallo al seguir el fichero: " + e.getMessage());
+                cerrarCanal();
+            }
+            try {
+                Thread.sleep(intervaloMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Procesa lo que se haya añadido al fichero desde la última comprobación.
+     * @throws IOException Si ocurre un error de lectura.
+     */
+    void comprobar() throws IOException {
+        BasicFileAttributes atributos;
+        try {
+            atributos = Files.readAttributes(fichero, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Rotado y aún sin fichero nuevo: se termina de leer el antiguo, que sigue abierto
+            leerPendiente();
+            publicar();
+            return;
+        }
+
+        if (canal != null && atributos.fileKey() != null && !Objects.equals(atributos.fileKey(), claveFichero)) {
+            // Rotación: lo que quede en el fichero antiguo y después el nuevo desde el principio
+            leerPendiente();
+            lector.terminar();
+            cerrarCanal();
+            posicion = 0;
+            bytesHuella = 0;
+        } else if (atributos.size() < posicion
+                || (canal != null && bytesHuella > 0 && InstantaneaIndice.huella(canal, bytesHuella) != huella)) {
+            // Truncado: la línea a medias ya no existe
+            lector.descartar();
+            colaIndexada = 0;
+            posicion = 0;
+            bytesHuella = 0;
+        }
+
+        if (canal == null) {
+            canal = FileChannel.open(fichero, StandardOpenOption.READ);
+            claveFichero = atributos.fileKey();
+        }
+        leerPendiente();
+        if (bytesHuella < Math.min(InstantaneaIndice.BYTES_HUELLA, posicion)) {
+            // La huella solo cubre bytes ya leídos, que no deberían cambiar mientras no se trunque el fichero
+            bytesHuella = Math.min(InstantaneaIndice.BYTES_HUELLA, posicion);
+            huella = InstantaneaIndice.huella(canal, bytesHuella);
+        }
+        publicar();
+    }
+
+    /**
+     * Detiene el seguimiento y cierra el fichero.
+     */
+    @Override
+    public void close() {
+        activo = false;
+        if (hilo != null) {
+            hilo.interrupt();
+            try {
+                hilo.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        cerrarCanal();
+    }
+
+    private void leerPendiente() throws IOException {
+        if (canal == null) {
+            return;
+        }
+        long tamaño = canal.size();
+        if (tamaño > posicion) {
+            lector.leer(canal, posicion, tamaño);
+            posicion = tamaño;
+        }
+    }
+
+    private void publicar() {
+        if (lote.tamaño() > 0) {
+            indice.agregarTodos(lote);
+            lote = new IndiceAccesos();
+        }
+    }
+
+    private void cerrarCanal() {
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                ERRORES.increment();
+                System.out.println("Error al cerrar el fichero: " + e.getMessage());
+            }
+            canal = null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizador de texto UTF-8 en palabras normalizadas, byte a byte y sin crear objetos por palabra.
+ * Una palabra es una secuencia de letras y dígitos; todo lo demás (espacios, signos, comillas,
+ * rayas...) separa palabras. Las palabras salen en minúsculas y sin tildes ni diéresis, pero con ñ:
+ * los acentos pueden venir ya compuestos (á, U+00E1) o como marca combinante detrás de la letra
+ * (a + U+0301, la forma NFD que usa Quijote.txt), y una n seguida de la tilde combinante es una ñ.
+ * Los bytes se dan por bloques que se pueden cortar en cualquier sitio, también a mitad de un carácter.
+ */
+class TokenizadorPalabras {
+
+    /**
+     * Recibe cada palabra normalizada, en UTF-8. Los bytes solo son válidos durante la llamada:
+     * el tokenizador reutiliza el array para la palabra siguiente.
+     */
+    @FunctionalInterface
+    interface ReceptorPalabras {
+        void palabra(byte[] bytes, int longitud);
+    }
+
+    // Plegado de U+00C0..U+00FF: la letra en minúsculas sin acento, o 0 para × y ÷, que no son letras
+    private static final char[] LATIN1 = ("aaaaaaæceeeeiiii" + "ðñooooo\0ouuuuyþß"
+            + "aaaaaaæceeeeiiii" + "ðñooooo\0ouuuuyþy").toCharArray();
+
+    private final ReceptorPalabras receptor;
+
+    // Palabra en curso, que puede quedar a medias entre dos bloques
+    private byte[] palabra = new byte[64];
+    private int longitud;
+
+    // Carácter multibyte en curso: bits leídos y bytes de continuación que faltan
+    private int codigo;
+    private int faltan;
+
+    /**
+     * Constructor del tokenizador.
+     * @param receptor Destino de las palabras.
+     */
+    TokenizadorPalabras(ReceptorPalabras receptor) {
+        this.receptor = receptor;
+    }
+
+    /**
+     * Procesa los bytes [desde, hasta) del array. Una palabra sin terminar al final queda pendiente
+     * hasta el bloque siguiente o hasta terminar.
+     */
+    void alimentar(byte[] bytes, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            int b = bytes[i];
+            if (b >= 0) {
+                faltan = 0; // Un ASCII corta cualquier carácter incompleto
+                if (b >= 'a' && b <= 'z' || b >= '0' && b <= '9') {
+                    añadirByte(b);
+                } else if (b >= 'A' && b <= 'Z') {
+                    añadirByte(b + ('a' - 'A'));
+                } else {
+                    terminarPalabra();
+                }
+            } else if ((b & 0xC0) == 0x80) {
+                if (faltan == 0) {
+                    terminarPalabra(); // Continuación suelta: UTF-8 no válido
+                } else {
+                    codigo = codigo << 6 | b & 0x3F;
+                    if (--faltan == 0) {
+                        caracter(codigo);
+                    }
+                }
+            } else if ((b & 0xE0) == 0xC0) {
+                codigo = b & 0x1F;
+                faltan = 1;
+            } else if ((b & 0xF0) == 0xE0) {
+                codigo = b & 0x0F;
+                faltan = 2;
+            } else if ((b & 0xF8) == 0xF0) {
+                codigo = b & 0x07;
+                faltan = 3;
+            } else {
+                faltan = 0;
+                terminarPalabra();
+            }
+        }
+    }
+
+    /**
+     * Entrega la última palabra si el texto no termina en un separador.
+     */
+    void terminar() {
+        faltan = 0;
+        terminarPalabra();
+    }
+
+    /**
+     * Normaliza un texto como las palabras del libro, para buscarlas.
+     * @param texto Texto a normalizar.
+     * @return Sus palabras normalizadas separadas por un espacio.
+     */
+    static String normalizar(String texto) {
+        StringBuilder normalizado = new StringBuilder();
+        TokenizadorPalabras tokenizador = new TokenizadorPalabras((bytes, longitud) -> {
+            if (normalizado.length() > 0) {
+                normalizado.append(' ');
+            }
+            normalizado.append(new String(bytes, 0, longitud, StandardCharsets.UTF_8));
+        });
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        tokenizador.alimentar(bytes, 0, bytes.length);
+        tokenizador.terminar();
+        return normalizado.toString();
+    }
+
+    private void caracter(int c) {
+        if (c >= 0x300 && c <= 0x36F) { // Marca combinante: se quita, salvo la tilde de la ñ
+            if (c == 0x303 && longitud > 0 && palabra[longitud - 1] == 'n') {
+                longitud--;
+                añadirCaracter('ñ');
+            }
+        } else if (c >= 0xC0 && c <= 0xFF) {
+            char plegado = LATIN1[c - 0xC0];
+            if (plegado == 0) {
+                terminarPalabra();
+            } else {
+                añadirCaracter(plegado);
+            }
+        } else if (c > 0xFF && Character.isLetterOrDigit(c)) {
+            añadirCaracter(Character.toLowerCase(c));
+        } else {
+            terminarPalabra(); // Signos de U+0080..U+00BF (¿ ¡ « »), rayas, comillas tipográficas...
+        }
+    }
+
+    private void añadirCaracter(int c) {
+        if (c < 0x80) {
+            añadirByte(c);
+        } else if (c < 0x800) {
+            añadirByte(0xC0 | c >> 6);
+            añadirByte(0x80 | c & 0x3F);
+        } else if (c < 0x10000) {
+            añadirByte(0xE0 | c >> 12);
+            añadirByte(0x80 | c >> 6 & 0x3F);
+            añadirByte(0x80 | c & 0x3F);
+        } else {
+            añadirByte(0xF0 | c >> 18);
+            añadirByte(0x80 | c >> 12 & 0x3F);
+            añadirByte(0x80 | c >> 6 & 0x3F);
+            añadirByte(0x80 | c & 0x3F);
+        }
+    }
+
+    private void añadirByte(int b) {
+        if (longitud == palabra.length) {
+            byte[] mayor = new byte[palabra.length * 2];
+            System.arraycopy(palabra, 0, mayor, 0, longitud);
+            palabra = mayor;
+        }
+        palabra[longitud++] = (byte) b;
+    }
+
+    private void terminarPalabra() {
+        if (longitud > 0) {
+            receptor.palabra(palabra, longitud);
+            longitud = 0;
+        }
+    }
+}